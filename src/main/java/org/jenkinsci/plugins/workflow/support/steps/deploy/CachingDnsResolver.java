@@ -0,0 +1,63 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import org.apache.http.conn.DnsResolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the addresses of callback hosts for {@code ttlSeconds}, so that a post to LEO does not wait for DNS.
+ * Failed lookups are not cached.
+ */
+final class CachingDnsResolver implements DnsResolver {
+
+    private final DnsResolver delegate;
+    private final long ttlNanos;
+    private final ConcurrentMap<String, Resolved> cache = new ConcurrentHashMap<String, Resolved>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    CachingDnsResolver(DnsResolver delegate, long ttlSeconds) {
+        this.delegate = delegate;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        Resolved r = cache.get(host);
+        long now = System.nanoTime();
+        if (r != null && now - r.resolvedAt < ttlNanos) {
+            hits.incrementAndGet();
+            return r.addresses.clone();
+        }
+        misses.incrementAndGet();
+        InetAddress[] addresses = delegate.resolve(host);
+        if (ttlNanos > 0) {
+            cache.put(host, new Resolved(addresses.clone(), now));
+        }
+        return addresses;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private static final class Resolved {
+        private final InetAddress[] addresses;
+        private final long resolvedAt;
+
+        Resolved(InetAddress[] addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
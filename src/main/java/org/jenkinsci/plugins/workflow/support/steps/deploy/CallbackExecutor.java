@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs blocking callback I/O off the calling thread.
+ *
+ * On a JDK with virtual threads every callback gets its own virtual thread, so thousands of slow LEO calls
+ * cost almost no memory. Older JDKs fall back to a bounded pool of daemon platform threads.
+ * The JDK is detected by reflection since the plugin is still compiled for Java 7.
+ */
+final class CallbackExecutor {
+    private static final Logger LOGGER = Logger.getLogger(CallbackExecutor.class.getName());
+
+    /** Set to {@code false} to stay on platform threads even where virtual threads are available. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ boolean VIRTUAL = Boolean.parseBoolean(System.getProperty(CallbackExecutor.class.getName() + ".VIRTUAL", "true"));
+
+    /** Size of the platform thread fallback; more than {@link ConnectionManager}'s per-route limit would only queue on the pool. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int PLATFORM_THREADS = Integer.getInteger(CallbackExecutor.class.getName() + ".PLATFORM_THREADS", 150);
+
+    private static ExecutorService executor;
+
+    private CallbackExecutor() {}
+
+    static synchronized ExecutorService get() {
+        if (executor == null) {
+            executor = VIRTUAL ? newVirtual() : null;
+            if (executor == null) {
+                executor = newPlatform(PLATFORM_THREADS);
+            }
+            LOGGER.log(Level.FINE, "deploy callbacks run on {0} threads", executor instanceof ThreadPoolExecutor ? "platform" : "virtual");
+        }
+        return executor;
+    }
+
+    /**
+     * @return a virtual-thread-per-task executor, or null if this JDK does not have one
+     */
+    static ExecutorService newVirtual() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException x) {
+            return null;
+        } catch (IllegalAccessException | InvocationTargetException x) {
+            // e.g. JDK 19/20 without --enable-preview
+            LOGGER.log(Level.FINE, "virtual threads unavailable", x);
+            return null;
+        }
+    }
+
+    static ExecutorService newPlatform(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamingThreadFactory(new DaemonThreadFactory(), "DeployCallback"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
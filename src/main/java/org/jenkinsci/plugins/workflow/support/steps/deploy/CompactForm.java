@@ -0,0 +1,103 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Helpers for the compact program state of paused deploy steps.
+ *
+ * Thousands of paused steps carry the same tenant, project, app and env ids,
+ * so short strings are interned whenever they are kept or read back.
+ */
+final class CompactForm {
+
+    /** Longer strings are unlikely to repeat across steps. */
+    private static final int INTERN_LIMIT = 64;
+
+    /** {@link ObjectOutput#writeUTF} takes at most 65535 bytes, i.e. this many chars in the worst case. */
+    private static final int UTF_LIMIT = 65535 / 3;
+
+    private static final byte NULL = 0;
+    private static final byte UTF = 1;
+    private static final byte OBJECT = 2;
+
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
+    private CompactForm() {}
+
+    @CheckForNull
+    static String intern(@CheckForNull String s) {
+        return s == null || s.length() > INTERN_LIMIT ? s : STRINGS.intern(s);
+    }
+
+    /**
+     * Copies submitted parameters, interning string keys and values.
+     */
+    static Map<String, Object> compact(Map<String, Object> params) {
+        Map<String, Object> m = new LinkedHashMap<String, Object>(params.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Object> e : params.entrySet()) {
+            Object value = e.getValue();
+            m.put(intern(e.getKey()), value instanceof String ? intern((String) value) : value);
+        }
+        return m;
+    }
+
+    static void writeString(ObjectOutput out, @CheckForNull String s) throws IOException {
+        if (s == null) {
+            out.writeByte(NULL);
+        } else if (s.length() <= UTF_LIMIT) {
+            out.writeByte(UTF);
+            out.writeUTF(s);
+        } else {
+            out.writeByte(OBJECT);
+            out.writeObject(s);
+        }
+    }
+
+    @CheckForNull
+    static String readString(ObjectInput in) throws IOException, ClassNotFoundException {
+        switch (in.readByte()) {
+            case NULL:
+                return null;
+            case UTF:
+                return intern(in.readUTF());
+            default:
+                return (String) in.readObject();
+        }
+    }
+
+    /**
+     * Writes a map with string keys, spelling out string values and serializing anything else.
+     */
+    static void writeMap(ObjectOutput out, Map<String, Object> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, Object> e : map.entrySet()) {
+            writeString(out, e.getKey());
+            Object value = e.getValue();
+            if (value == null || value instanceof String) {
+                writeString(out, (String) value);
+            } else {
+                out.writeByte(OBJECT);
+                out.writeObject(value);
+            }
+        }
+    }
+
+    static Map<String, Object> readMap(ObjectInput in) throws IOException, ClassNotFoundException {
+        int size = in.readInt();
+        Map<String, Object> map = new LinkedHashMap<String, Object>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            byte tag = in.readByte();
+            map.put(key, tag == NULL ? null : tag == UTF ? intern(in.readUTF()) : in.readObject());
+        }
+        return map;
+    }
+}
@@ -1,23 +1,54 @@
 package org.jenkinsci.plugins.workflow.support.steps.deploy;
 
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.GlobalConfiguration;
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.client.HttpRequestRetryHandler;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.HttpContext;
 
 import javax.net.ssl.SSLException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class ConnectionManager {
+    private static final Logger LOGGER = Logger.getLogger(ConnectionManager.class.getName());
 
     // 最大连接数
     private static final int MAX_TOTAL = 600;
@@ -30,8 +61,39 @@ public class ConnectionManager {
     //获取数据的超时时间
     private static final int SOCKET_TIMEOUT = 60000;
 
+    /** Seconds a resolved callback host is cached. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int DNS_TTL = Integer.getInteger(ConnectionManager.class.getName() + ".DNS_TTL", 60);
+
+    /** Minutes between top-ups of the warm connections, which LEO may have closed while idle. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int WARM_INTERVAL = Integer.getInteger(ConnectionManager.class.getName() + ".WARM_INTERVAL", 5);
+
+    /** Seconds Jenkins waits on shutdown for posts in flight to finish before closing the pool. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int DRAIN_TIMEOUT = Integer.getInteger(ConnectionManager.class.getName() + ".DRAIN_TIMEOUT", 10);
+
+    /**
+     * Created on first use, closed by {@link #terminate} and kept until the next startup,
+     * so that posts coming in after the drain are deferred rather than sent through a new pool.
+     */
+    private static ConnectionManager instance;
+
     PoolingHttpClientConnectionManager cm;
 
+    /**
+     * Posts going through {@link #httpClient} right now; also guards {@link #closing}.
+     * Kept apart from the monitor of this object, which {@link #warm} holds while connecting.
+     */
+    private final Set<DeployCallbackRequest> inFlight = new HashSet<DeployCallbackRequest>();
+
+    private boolean closing;
+
+    final CachingDnsResolver dns = new CachingDnsResolver(SystemDefaultDnsResolver.INSTANCE, DNS_TTL);
+
+    /** Routes of the endpoints last warmed. */
+    private volatile Set<HttpRoute> warmRoutes = Collections.emptySet();
+
     CloseableHttpClient httpClient;
 
     /**
@@ -76,7 +138,11 @@ public class ConnectionManager {
             .build();
 
     public ConnectionManager() {
-        cm = new PoolingHttpClientConnectionManager();
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                .build();
+        cm = new PoolingHttpClientConnectionManager(registry, dns);
         cm.setMaxTotal(MAX_TOTAL);
         cm.setDefaultMaxPerRoute(MAX_PER_ROUTE);
 
@@ -88,6 +154,95 @@ public class ConnectionManager {
                 .build();
     }
 
+    /**
+     * The shared client, created on first use so that loading the step classes does not set up a pool.
+     */
+    static synchronized ConnectionManager get() {
+        if (instance == null) {
+            instance = new ConnectionManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Registers a post about to go through {@link #getHttpClient}.
+     *
+     * @return false if the pool is closing and the request must not be sent
+     */
+    boolean begin(DeployCallbackRequest request) {
+        synchronized (inFlight) {
+            if (closing) {
+                return false;
+            }
+            inFlight.add(request);
+            return true;
+        }
+    }
+
+    void end(DeployCallbackRequest request) {
+        synchronized (inFlight) {
+            inFlight.remove(request);
+            inFlight.notifyAll();
+        }
+    }
+
+    /**
+     * Refuses new posts, waits up to {@code timeoutMillis} for the ones in flight, then closes the pool.
+     *
+     * @return the posts which were still in flight and have been cut off
+     */
+    List<DeployCallbackRequest> close(long timeoutMillis) throws InterruptedException {
+        List<DeployCallbackRequest> cutOff;
+        synchronized (inFlight) {
+            closing = true;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            long remaining;
+            while (!inFlight.isEmpty() && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(inFlight, remaining);
+            }
+            cutOff = new ArrayList<DeployCallbackRequest>(inFlight);
+        }
+        try {
+            httpClient.close();
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to close the LEO http client", x);
+        }
+        cm.shutdown();
+        return cutOff;
+    }
+
+    /**
+     * Drains and closes the pool, keeping the notices it could not send, and those {@link DeployAborts} had yet to send,
+     * for the next startup.
+     */
+    @Terminator
+    public static void terminate() throws InterruptedException {
+        // before the connections go, so that no batch of abort notices starts on a closed client
+        DeployAborts.get().drain();
+        ConnectionManager manager = get();
+        List<DeployCallbackRequest> cutOff = manager.close(TimeUnit.SECONDS.toMillis(DRAIN_TIMEOUT));
+        if (!cutOff.isEmpty()) {
+            LOGGER.log(Level.WARNING, "{0} posts to LEO were still in flight at shutdown", cutOff.size());
+            PendingNotices.defer(cutOff);
+        }
+    }
+
+    /**
+     * Drops a pool closed by the {@link #terminate} of an earlier Jenkins in this JVM, as in tests.
+     */
+    @Initializer(after = InitMilestone.STARTED)
+    public static synchronized void reopen() {
+        if (instance != null && instance.isClosing()) {
+            instance = null;
+        }
+    }
+
+    boolean isClosing() {
+        synchronized (inFlight) {
+            return closing;
+        }
+    }
+
     public CloseableHttpClient getHttpClient() {
         return httpClient;
     }
@@ -96,4 +251,186 @@ public class ConnectionManager {
         return cm;
     }
 
+    /**
+     * Opens connections to each of {@code endpoints} until it has {@code connections} of them, idle or in use,
+     * so that the next post skips DNS, TCP and TLS setup.
+     *
+     * Warm-ups take turns, but posts do not wait for them.
+     *
+     * @return the number of connections opened
+     */
+    synchronized int warm(Iterable<String> endpoints, int connections) throws InterruptedException {
+        Set<HttpRoute> routes = new LinkedHashSet<HttpRoute>();
+        for (String endpoint : endpoints) {
+            HttpRoute route = route(endpoint);
+            if (route != null) {
+                routes.add(route);
+            }
+        }
+        warmRoutes = Collections.unmodifiableSet(routes);
+        int opened = 0;
+        for (HttpRoute route : routes) {
+            opened += warm(route, Math.min(connections, MAX_PER_ROUTE));
+        }
+        return opened;
+    }
+
+    private int warm(HttpRoute route, int connections) throws InterruptedException {
+        PoolStats stats = cm.getStats(route);
+        int wanted = connections - stats.getLeased();
+        if (wanted <= stats.getAvailable()) {
+            return 0;
+        }
+        // hold on to every connection until done, otherwise the pool hands the same one out again
+        List<HttpClientConnection> leased = new ArrayList<HttpClientConnection>();
+        int opened = 0;
+        try {
+            for (int i = 0; i < wanted; i++) {
+                HttpClientConnection conn = cm.requestConnection(route, null).get(CONNECTION_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+                leased.add(conn);
+                if (!conn.isOpen()) {
+                    HttpClientContext context = HttpClientContext.create();
+                    context.setRequestConfig(requestConfig);
+                    cm.connect(conn, route, CONNECTION_TIMEOUT, context);
+                    cm.routeComplete(conn, route, context);
+                    opened++;
+                }
+            }
+        } catch (IOException | ExecutionException x) {
+            LOGGER.log(Level.FINE, "could not warm connections to " + route.getTargetHost(), x);
+        } finally {
+            for (HttpClientConnection conn : leased) {
+                // connections which failed to open are dropped by the pool
+                cm.releaseConnection(conn, null, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * The route {@link #getHttpClient} takes to post to {@code endpoint}, which may contain {@code MessageFormat} placeholders in its path.
+     */
+    static HttpRoute route(String endpoint) {
+        URL url;
+        try {
+            url = new URL(endpoint);
+        } catch (MalformedURLException x) {
+            LOGGER.log(Level.FINE, "not warming connections to {0}: {1}", new Object[] {endpoint, x});
+            return null;
+        }
+        String host = url.getHost();
+        if (StringUtils.isEmpty(host) || host.contains("{")) {
+            return null;
+        }
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return new HttpRoute(new HttpHost(host, port, url.getProtocol()), null, "https".equals(url.getProtocol()));
+    }
+
+    /**
+     * Connections of the endpoints last warmed, by endpoint.
+     */
+    public List<RouteStats> getWarmStats() {
+        List<RouteStats> stats = new ArrayList<RouteStats>();
+        for (HttpRoute route : warmRoutes) {
+            stats.add(new RouteStats(route.getTargetHost().toURI(), cm.getStats(route)));
+        }
+        return stats;
+    }
+
+    public long getDnsHits() {
+        return dns.getHits();
+    }
+
+    public long getDnsMisses() {
+        return dns.getMisses();
+    }
+
+    /**
+     * Sets the pool up and warms the endpoints of {@link DeployGlobalConfiguration} in the background,
+     * so that neither happens on the first deploy.
+     */
+    static void warmConfigured() {
+        final DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        CallbackExecutor.get().submit(new Runnable() {
+            @Override public void run() {
+                try {
+                    ConnectionManager manager = get();
+                    if (config != null && config.getWarmConnections() > 0) {
+                        int opened = manager.warm(config.getCallbackEndpoints(), config.getWarmConnections());
+                        LOGGER.log(Level.FINE, "opened {0} connections to LEO", opened);
+                    }
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException x) {
+                    LOGGER.log(Level.WARNING, "failed to warm connections to LEO", x);
+                }
+            }
+        });
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void warmOnStartup() {
+        warmConfigured();
+    }
+
+    /**
+     * A snapshot of the pooled connections to one endpoint.
+     */
+    public static final class RouteStats {
+        private final String endpoint;
+        private final int available;
+        private final int leased;
+        private final int pending;
+
+        RouteStats(String endpoint, PoolStats stats) {
+            this.endpoint = endpoint;
+            this.available = stats.getAvailable();
+            this.leased = stats.getLeased();
+            this.pending = stats.getPending();
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        /** Open connections ready to be used. */
+        public int getAvailable() {
+            return available;
+        }
+
+        /** Connections in use by a post. */
+        public int getLeased() {
+            return leased;
+        }
+
+        /** Posts waiting for a connection. */
+        public int getPending() {
+            return pending;
+        }
+    }
+
+    /**
+     * Tops the warm connections up, since LEO or a load balancer may have closed them while idle.
+     */
+    @Extension
+    public static class Warmer extends AsyncPeriodicWork {
+        public Warmer() {
+            super("LEO connection warmer");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(WARM_INTERVAL);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+            if (config.getWarmConnections() > 0) {
+                int opened = get().warm(config.getCallbackEndpoints(), config.getWarmConnections());
+                listener.getLogger().println("Opened " + opened + " connections to LEO");
+            }
+        }
+    }
+
 }
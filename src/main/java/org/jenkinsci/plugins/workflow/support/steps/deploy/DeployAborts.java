@@ -0,0 +1,256 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.CheckForNull;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Carries out the aborts of steps stopped along with their builds, which come by the hundred when an operator aborts many builds at once.
+ *
+ * They run on a small pool of their own rather than {@link jenkins.util.Timer}, which the rest of Jenkins depends on.
+ * Their abort notices are collected for {@link #LINGER_MILLIS} and then sent together,
+ * {@link #BATCH} to a request if {@link DeployGlobalConfiguration#getNoticeBatchCallback} is set,
+ * otherwise each to its own notice url but all at once, so that no thread waits on LEO per step.
+ * Only notices bound for the global notice url are batched; those of jobs or folders with a notice url
+ * of their own still go there, one by one.
+ */
+final class DeployAborts {
+    private static final Logger LOGGER = Logger.getLogger(DeployAborts.class.getName());
+
+    /** Threads aborting steps at once. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int THREADS = Integer.getInteger(DeployAborts.class.getName() + ".THREADS", 4);
+
+    /** Milliseconds abort notices are collected before they are sent. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ long LINGER_MILLIS = Long.getLong(DeployAborts.class.getName() + ".LINGER_MILLIS", 200);
+
+    /** Notices per request to the batch url. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int BATCH = Integer.getInteger(DeployAborts.class.getName() + ".BATCH", 100);
+
+    /** Headers of a batch request, which has no one user; who aborted goes in the body of each notice. */
+    private static final Map<String, String> BATCH_HEADERS = Collections.singletonMap("LEO-USER", "{}");
+
+    private static final DeployAborts INSTANCE = new DeployAborts();
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final Queue<Notice> notices = new ConcurrentLinkedQueue<Notice>();
+
+    /** Whether a flush of {@link #notices} is scheduled or running. */
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private DeployAborts() {
+        executor = new ScheduledThreadPoolExecutor(Math.max(THREADS, 1), new NamingThreadFactory(new DaemonThreadFactory(), "DeployAbort"));
+        executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static DeployAborts get() {
+        return INSTANCE;
+    }
+
+    void submit(Runnable abort) {
+        executor.execute(abort);
+    }
+
+    /**
+     * Queues an abort notice for the next batch.
+     *
+     * @param headers sent with the notice when it goes out on its own, such as its {@code LEO-USER} and {@code traceparent}
+     * @param span ended once LEO answered for the notice
+     * @param key the {@link DeployEventDedup} claim of the notice, let go of if LEO does not accept it
+     */
+    void notice(String url, JSONObject body, Map<String, String> headers, DeploySpan span, String key, DeployEventDedup.Event event) {
+        notices.add(new Notice(url, body, headers, span, key, event));
+        if (flushing.compareAndSet(false, true)) {
+            executor.schedule(new Runnable() {
+                @Override public void run() {
+                    flush();
+                }
+            }, LINGER_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private List<Notice> poll() {
+        List<Notice> batch = new ArrayList<Notice>();
+        Notice n;
+        while ((n = notices.poll()) != null) {
+            batch.add(n);
+        }
+        return batch;
+    }
+
+    private void flush() {
+        List<Notice> batch;
+        try {
+            batch = poll();
+        } finally {
+            flushing.set(false);
+            if (!notices.isEmpty() && flushing.compareAndSet(false, true)) {
+                // queued meanwhile, goes out with a batch of its own
+                executor.schedule(new Runnable() {
+                    @Override public void run() {
+                        flush();
+                    }
+                }, LINGER_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<DeployCallbackRequest, List<Notice>> sent = new LinkedHashMap<DeployCallbackRequest, List<Notice>>();
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        String batchUrl = StringUtils.trimToNull(config.getNoticeBatchCallback());
+        String globalUrl = StringUtils.trimToNull(config.getNoticeCallback());
+        List<Notice> batched = new ArrayList<Notice>();
+        for (Notice notice : batch) {
+            if (batchUrl != null && globalUrl != null && globalUrl.equals(StringUtils.trim(notice.url))) {
+                batched.add(notice);
+            } else {
+                sent.put(notice.request(), Collections.singletonList(notice));
+            }
+        }
+        for (int i = 0; i < batched.size(); i += Math.max(BATCH, 1)) {
+            List<Notice> chunk = batched.subList(i, Math.min(i + Math.max(BATCH, 1), batched.size()));
+            JSONArray bodies = new JSONArray();
+            for (Notice notice : chunk) {
+                bodies.add(notice.body);
+            }
+            JSONObject body = new JSONObject();
+            body.put("notices", bodies);
+            // a batch can only name the span of one of its notices as its parent, the others point to it
+            String traceparent = DeployTrace.traceparent(chunk.get(0).span);
+            for (Notice notice : chunk) {
+                notice.span.attribute("batch", traceparent);
+            }
+            Map<String, String> headers = new HashMap<String, String>(BATCH_HEADERS);
+            headers.put("traceparent", traceparent);
+            sent.put(new DeployCallbackRequest(batchUrl, body, headers, true), chunk);
+        }
+        List<Map.Entry<DeployCallbackRequest, Future<DeployCallbackResult>>> answers = new ArrayList<Map.Entry<DeployCallbackRequest, Future<DeployCallbackResult>>>();
+        for (DeployCallbackRequest request : sent.keySet()) {
+            answers.add(new AbstractMap.SimpleImmutableEntry<DeployCallbackRequest, Future<DeployCallbackResult>>(request, DeployCallbackTransport.get().send(request)));
+        }
+        requests.addAndGet(sent.size());
+        LOGGER.log(Level.FINE, "sent {0} abort notices in {1} requests", new Object[] {batch.size(), sent.size()});
+        for (int i = 0; i < answers.size(); i++) {
+            Map.Entry<DeployCallbackRequest, Future<DeployCallbackResult>> e = answers.get(i);
+            boolean accepted = false;
+            Object error = null;
+            try {
+                DeployCallbackResult result = e.getValue().get(DeployCallbackTransport.TIMEOUT, TimeUnit.SECONDS);
+                accepted = result.isSuccess();
+                if (!accepted) {
+                    error = result.getFailure() != null ? result.getFailure() : result.getRtnMsg();
+                    LOGGER.log(Level.WARNING, "LEO did not accept {0}: {1}", new Object[] {e.getKey(), error});
+                }
+            } catch (InterruptedException x) {
+                // Jenkins is going down: what LEO has not answered yet is left for the next start
+                List<DeployCallbackRequest> pending = new ArrayList<DeployCallbackRequest>();
+                for (Map.Entry<DeployCallbackRequest, Future<DeployCallbackResult>> rest : answers.subList(i, answers.size())) {
+                    if (rest.getValue().cancel(true)) {
+                        pending.add(rest.getKey());
+                    }
+                    end(sent.get(rest.getKey()), "deferred");
+                }
+                LOGGER.log(Level.INFO, "{0} abort notice requests were still unanswered when interrupted", pending.size());
+                PendingNotices.defer(pending);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | TimeoutException x) {
+                e.getValue().cancel(true);
+                error = x;
+                LOGGER.log(Level.WARNING, "failed to send " + e.getKey(), x);
+            }
+            end(sent.get(e.getKey()), error);
+            if (!accepted) {
+                for (Notice notice : sent.get(e.getKey())) {
+                    DeployEventDedup.get().forget(notice.key, notice.event);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the notices not yet sent to {@link PendingNotices}, for Jenkins is going down.
+     * Notices already sent are in flight with {@link ConnectionManager}, which hands them over if they get cut off.
+     */
+    void drain() {
+        List<Notice> batch = poll();
+        if (batch.isEmpty()) {
+            return;
+        }
+        LOGGER.log(Level.INFO, "{0} abort notices were still queued at shutdown", batch.size());
+        List<DeployCallbackRequest> pending = new ArrayList<DeployCallbackRequest>();
+        for (Notice notice : batch) {
+            pending.add(notice.request());
+        }
+        end(batch, "deferred");
+        PendingNotices.defer(pending);
+    }
+
+    private static void end(List<Notice> notices, @CheckForNull Object error) {
+        for (Notice notice : notices) {
+            if (error != null) {
+                notice.span.error(error);
+            }
+            notice.span.end();
+        }
+    }
+
+    /**
+     * Requests sent for abort notices since startup.
+     */
+    long getRequests() {
+        return requests.get();
+    }
+
+    private static final class Notice {
+        private final String url;
+        private final JSONObject body;
+        private final Map<String, String> headers;
+        private final DeploySpan span;
+        private final String key;
+        private final DeployEventDedup.Event event;
+
+        Notice(String url, JSONObject body, Map<String, String> headers, DeploySpan span, String key, DeployEventDedup.Event event) {
+            this.url = url;
+            this.body = body;
+            this.headers = headers;
+            this.span = span;
+            this.key = key;
+            this.event = event;
+        }
+
+        DeployCallbackRequest request() {
+            return new DeployCallbackRequest(url, body, headers, true);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.jenkinsci.plugins.workflow.support.steps.deploy;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.model.Computer;
 import hudson.model.Run;
 import jenkins.model.RunAction2;
 import org.jenkinsci.plugins.workflow.flow.FlowExecution;
@@ -10,19 +11,29 @@ import org.jenkinsci.plugins.workflow.support.steps.input.InputAction;
 import org.jenkinsci.plugins.workflow.support.steps.input.InputStep;
 import org.jenkinsci.plugins.workflow.support.steps.input.InputStepExecution;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Records the pending deploys required.
+ *
+ * Reads go to an immutable snapshot of the known executions and take no lock.
+ * Writes are serialized on the action, and the executions of a reloaded run are looked up
+ * outside any lock, in the background on the first read. Only a caller asking for an id not known yet,
+ * such as LEO proceeding a step right after a restart, waits for that lookup.
  */
 public class DeployAction extends InputAction implements RunAction2 {
     private static final Logger LOGGER = Logger.getLogger(DeployAction.class.getName());
@@ -31,9 +42,24 @@ public class DeployAction extends InputAction implements RunAction2 {
     @SuppressWarnings("FieldMayBeFinal")
     private static /* not final */ int LOAD_EXECUTIONS_TIMEOUT = Integer.getInteger(DeployAction.class.getName() + ".LOAD_EXECUTIONS_TIMEOUT", 60);
 
-    private transient List<DeployStepExecution> executions = new ArrayList<DeployStepExecution>();
-    @SuppressFBWarnings(value="IS2_INCONSISTENT_SYNC", justification="CopyOnWriteArrayList")
-    private List<String> ids = new CopyOnWriteArrayList<String>();
+    private static final AtomicReferenceFieldUpdater<DeployAction, CountDownLatch> LOADING =
+            AtomicReferenceFieldUpdater.newUpdater(DeployAction.class, CountDownLatch.class, "loading");
+
+    /** Executions by id; replaced, never modified. Null is read as empty. */
+    private transient volatile Map<String, DeployStepExecution> executions;
+
+    /** False after reading the run from disk until the executions of the pending ids have been looked up. */
+    private transient volatile boolean loaded = true;
+
+    /** Set by the caller currently looking up the executions. */
+    private transient volatile CountDownLatch loading;
+
+    /** @deprecated pending ids are kept in the run's {@link DeploySidecar}; only present in {@code build.xml} saved by older versions */
+    @Deprecated
+    private List<String> ids;
+
+    /** Name of the {@link DeploySidecar} in the build directory; null until the first step is added. */
+    private String sidecar;
 
     private transient Run<?,?> run;
 
@@ -45,56 +71,109 @@ public class DeployAction extends InputAction implements RunAction2 {
     @Override
     public void onLoad(Run<?, ?> r) {
         this.run = r;
-        synchronized (this) {
-            if (ids == null) {
-                // Loading from before JENKINS-25889 fix. Load the IDs and discard the executions, which lack state anyway.
-                assert executions != null && !executions.contains(null) : executions;
-                ids = new ArrayList<String>();
-                for (DeployStepExecution execution : executions) {
-                    ids.add(execution.getId());
+        loaded = false;
+    }
+
+    /**
+     * Hands the ids saved by older versions over to {@link DeployRunState} for the sidecar.
+     */
+    synchronized List<String> takeLegacyIds() {
+        List<String> legacy = ids == null ? Collections.<String>emptyList() : ids;
+        ids = null;
+        if (!legacy.isEmpty()) {
+            sidecar = DeploySidecar.FILE_NAME;
+        }
+        return legacy;
+    }
+
+    private List<String> pendingIds() {
+        return run == null ? Collections.<String>emptyList() : DeployRunState.of(run).getPendingIds();
+    }
+
+    private Map<String, DeployStepExecution> snapshot() {
+        Map<String, DeployStepExecution> m = executions;
+        return m == null ? Collections.<String, DeployStepExecution>emptyMap() : m;
+    }
+
+    /**
+     * Makes sure the executions of the pending ids have been looked up once, if at all possible.
+     */
+    private void loadExecutions() throws InterruptedException, TimeoutException {
+        while (!loaded) {
+            CountDownLatch latch = loading;
+            if (latch == null) {
+                CountDownLatch mine = new CountDownLatch(1);
+                if (LOADING.compareAndSet(this, null, mine)) {
+                    try {
+                        lookUpExecutions();
+                    } finally {
+                        // a failed lookup is retried by the next caller
+                        loading = null;
+                        mine.countDown();
+                    }
+                    return;
                 }
-                executions = null;
+            } else {
+                if (!latch.await(LOAD_EXECUTIONS_TIMEOUT, TimeUnit.SECONDS)) {
+                    throw new TimeoutException("still loading deploys of " + run);
+                }
+                return;
             }
         }
     }
 
-    @SuppressFBWarnings(value="EC_UNRELATED_TYPES_USING_POINTER_EQUALITY", justification="WorkflowRun implements Queue.Executable")
-    private synchronized void loadExecutions() throws InterruptedException, TimeoutException {
-        if (executions == null) {
-            try {
-            FlowExecution execution = null;
-            for (FlowExecution _execution : FlowExecutionList.get()) {
-                if (_execution.getOwner().getExecutable() == run) {
-                    execution = _execution;
-                    break;
-                }
+    private void lookUpExecutions() throws InterruptedException, TimeoutException {
+        try {
+            Future<List<StepExecution>> candidates = currentExecutions();
+            if (candidates == null) {
+                LOGGER.log(Level.WARNING, "no flow execution found for {0}", run);
+                return;
             }
-            if (execution != null) {
-                List<StepExecution> candidateExecutions = execution.getCurrentExecutions(true).get(LOAD_EXECUTIONS_TIMEOUT, TimeUnit.SECONDS);
-                executions = new ArrayList<>(); // only set this if we know the answer
-                // JENKINS-37154 sometimes we must block here in order to get accurate results
+            // JENKINS-37154 sometimes we must block here in order to get accurate results
+            List<StepExecution> candidateExecutions = candidates.get(LOAD_EXECUTIONS_TIMEOUT, TimeUnit.SECONDS);
+            List<String> ids = pendingIds();
+            int found;
+            synchronized (this) {
+                // keep what was added meanwhile
+                Map<String, DeployStepExecution> m = new LinkedHashMap<String, DeployStepExecution>(snapshot());
                 for (StepExecution se : candidateExecutions) {
                     if (se instanceof DeployStepExecution) {
                         DeployStepExecution ise = (DeployStepExecution) se;
-                        if (ids.contains(ise.getId())) {
-                            executions.add(ise);
+                        if (ids.contains(ise.getId()) && !m.containsKey(ise.getId())) {
+                            m.put(ise.getId(), ise);
                         }
                     }
                 }
-                if (executions.size() < ids.size()) {
-                    LOGGER.log(Level.WARNING, "some input IDs not restored from {0}", run);
-                }
-            } else {
-                LOGGER.log(Level.WARNING, "no flow execution found for {0}", run);
+                executions = Collections.unmodifiableMap(m);
+                loaded = true; // only set this if we know the answer
+                found = m.size();
             }
-            } catch (InterruptedException | TimeoutException x) {
-                throw x;
-            } catch (Exception x) {
-                LOGGER.log(Level.WARNING, null, x);
+            if (found < ids.size()) {
+                LOGGER.log(Level.WARNING, "some input IDs not restored from {0}", run);
             }
+        } catch (InterruptedException | TimeoutException x) {
+            throw x;
+        } catch (Exception x) {
+            LOGGER.log(Level.WARNING, null, x);
         }
     }
 
+    /**
+     * Asks the flow of {@link #run} for its current step executions.
+     *
+     * @return null if the run has no flow execution
+     */
+    @CheckForNull
+    @SuppressFBWarnings(value="EC_UNRELATED_TYPES_USING_POINTER_EQUALITY", justification="WorkflowRun implements Queue.Executable")
+    Future<List<StepExecution>> currentExecutions() throws IOException {
+        for (FlowExecution execution : FlowExecutionList.get()) {
+            if (execution.getOwner().getExecutable() == run) {
+                return execution.getCurrentExecutions(true);
+            }
+        }
+        return null;
+    }
+
     @Override
     public Run<?, ?> getRun() {
         return run;
@@ -102,7 +181,7 @@ public class DeployAction extends InputAction implements RunAction2 {
 
     @Override
     public String getIconFileName() {
-        if (ids == null || ids.isEmpty()) {
+        if (pendingIds().isEmpty()) {
             return null;
         } else {
             return "help.png";
@@ -111,7 +190,7 @@ public class DeployAction extends InputAction implements RunAction2 {
 
     @Override
     public String getDisplayName() {
-        if (ids == null || ids.isEmpty()) {
+        if (pendingIds().isEmpty()) {
             return null;
         } else {
             return Messages.paused_for_deploy();
@@ -123,49 +202,74 @@ public class DeployAction extends InputAction implements RunAction2 {
         return "deploy";
     }
 
-    public synchronized void add(@Nonnull DeployStepExecution step) throws IOException, InterruptedException, TimeoutException {
-        loadExecutions();
-        if (executions == null) {
-            throw new IOException("cannot load state");
+    public void add(@Nonnull DeployStepExecution step) throws IOException, InterruptedException, TimeoutException {
+        boolean first;
+        synchronized (this) {
+            Map<String, DeployStepExecution> m = new LinkedHashMap<String, DeployStepExecution>(snapshot());
+            m.put(step.getId(), step);
+            executions = Collections.unmodifiableMap(m);
+            first = sidecar == null;
+            sidecar = DeploySidecar.FILE_NAME;
+        }
+        DeployRunState.of(run).addPending(step.getId());
+        if (first) {
+            // build.xml only needs to know where to look
+            run.save();
         }
-        this.executions.add(step);
-        ids.add(step.getId());
-        run.save();
     }
 
     @Override
-    public synchronized DeployStepExecution getExecution(String id) throws InterruptedException, TimeoutException {
-        loadExecutions();
-        if (executions == null) {
-            return null;
+    public DeployStepExecution getExecution(String id) throws InterruptedException, TimeoutException {
+        DeployStepExecution e = snapshot().get(id);
+        if (e == null && !loaded) {
+            loadExecutions();
+            e = snapshot().get(id);
         }
-        for (DeployStepExecution e : executions) {
-            if (e.input.getId().equals(id))
-                return e;
-        }
-        return null;
+        return e;
     }
 
+    /**
+     * The executions known right now; those of a reloaded run show up once looked up, which this starts.
+     */
     @Override
-    public synchronized List<InputStepExecution> getExecutions() throws InterruptedException, TimeoutException {
-        loadExecutions();
-        if (executions == null) {
-            return Collections.emptyList();
+    public List<InputStepExecution> getExecutions() throws InterruptedException, TimeoutException {
+        if (!loaded && loading == null) {
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                @Override public void run() {
+                    try {
+                        loadExecutions();
+                    } catch (InterruptedException | TimeoutException x) {
+                        LOGGER.log(Level.WARNING, "failed to look up the deploys of " + run, x);
+                    }
+                }
+            });
         }
-        return new ArrayList<InputStepExecution>(executions);
+        return new ArrayList<InputStepExecution>(snapshot().values());
     }
 
     /**
      * Called when {@link DeployStepExecution} is completed to remove it from the active input list.
      */
-    public synchronized void remove(DeployStepExecution exec) throws IOException, InterruptedException, TimeoutException {
-        loadExecutions();
-        if (executions == null) {
-            throw new IOException("cannot load state");
+    public void remove(DeployStepExecution exec) throws IOException, InterruptedException, TimeoutException {
+        detach(exec);
+        DeployRunState.of(run).save();
+    }
+
+    /**
+     * Like {@link #remove} but leaves saving the sidecar to the caller.
+     *
+     * @return true if no deploy is pending in this action any more
+     */
+    boolean detach(DeployStepExecution exec) throws IOException, InterruptedException, TimeoutException {
+        synchronized (this) {
+            Map<String, DeployStepExecution> m = snapshot();
+            if (m.get(exec.getId()) == exec) {
+                m = new LinkedHashMap<String, DeployStepExecution>(m);
+                m.remove(exec.getId());
+                executions = Collections.unmodifiableMap(m);
+            }
         }
-        executions.remove(exec);
-        ids.remove(exec.getId());
-        run.save();
+        return DeployRunState.of(run).dropPending(exec.getId());
     }
 
     /**
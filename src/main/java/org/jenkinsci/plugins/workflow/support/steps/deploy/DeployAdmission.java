@@ -0,0 +1,230 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import jenkins.model.GlobalConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token-bucket rate limits on deploy triggers, per tenant and per tenant environment,
+ * so that a bulk release by one tenant cannot saturate LEO for everybody else.
+ *
+ * Limits come from {@link DeployGlobalConfiguration} on every call, so changes apply immediately.
+ */
+public final class DeployAdmission {
+
+    /** {@link #admit} result for a request which must be rejected. */
+    static final long REJECTED = -1;
+
+    /**
+     * Buckets kept before idle ones are dropped, along with the counters of their keys.
+     * A bucket is idle once it has refilled, when it is no different from a new one.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static /* not final */ int MAX_BUCKETS = Integer.getInteger(DeployAdmission.class.getName() + ".MAX_BUCKETS", 10000);
+
+    private static final DeployAdmission INSTANCE = new DeployAdmission();
+
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+    private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<String, Counters>();
+
+    private DeployAdmission() {}
+
+    public static DeployAdmission get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Takes a token from the tenant and the environment bucket of every target, all or none.
+     *
+     * @param requests one per target of the deploy
+     * @return 0 if the deploy may go ahead now, the nanoseconds to wait if it was queued,
+     *         or {@link #REJECTED} if it is over the limit and may not be queued
+     */
+    long admit(List<DeployRequest> requests) {
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        boolean queue = config.isQueueOverLimit();
+        long maxWait = queue ? TimeUnit.SECONDS.toNanos(config.getMaxQueueWait()) : 0;
+        // tokens to give back should a later target be rejected
+        List<TokenBucket> taken = new ArrayList<TokenBucket>();
+        long wait = 0;
+        for (DeployRequest request : requests) {
+            String tenantKey = request.tenantId;
+            String envKey = request.tenantId + '/' + request.env;
+
+            long tenantWait = bucket(tenantKey).take(config.getTenantRateLimit(), config.getRateLimitBurst(), maxWait);
+            if (tenantWait == REJECTED) {
+                refund(taken);
+                counters(tenantKey).rejected.incrementAndGet();
+                return REJECTED;
+            }
+            if (config.getTenantRateLimit() > 0) {
+                taken.add(bucket(tenantKey));
+            }
+            long envWait = bucket(envKey).take(config.getEnvRateLimit(), config.getRateLimitBurst(), maxWait);
+            if (envWait == REJECTED) {
+                refund(taken);
+                counters(envKey).rejected.incrementAndGet();
+                return REJECTED;
+            }
+            if (config.getEnvRateLimit() > 0) {
+                taken.add(bucket(envKey));
+            }
+            wait = Math.max(wait, Math.max(tenantWait, envWait));
+        }
+        for (DeployRequest request : requests) {
+            counters(request.tenantId).record(wait);
+            counters(request.tenantId + '/' + request.env).record(wait);
+        }
+        return wait;
+    }
+
+    private static void refund(List<TokenBucket> taken) {
+        for (TokenBucket bucket : taken) {
+            bucket.refund();
+        }
+    }
+
+    private TokenBucket bucket(String key) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_BUCKETS) {
+                evictIdle();
+            }
+            TokenBucket fresh = new TokenBucket();
+            bucket = buckets.putIfAbsent(key, fresh);
+            if (bucket == null) {
+                bucket = fresh;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Drops the buckets which have refilled, then the counters left without a bucket.
+     */
+    private void evictIdle() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, TokenBucket> e : buckets.entrySet()) {
+            if (e.getValue().isIdle(now)) {
+                buckets.remove(e.getKey(), e.getValue());
+            }
+        }
+        counters.keySet().retainAll(buckets.keySet());
+    }
+
+    int getBucketCount() {
+        return buckets.size();
+    }
+
+    private Counters counters(String key) {
+        Counters c = counters.get(key);
+        if (c == null) {
+            Counters fresh = new Counters();
+            c = counters.putIfAbsent(key, fresh);
+            if (c == null) {
+                c = fresh;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Live counters by tenant ({@code tenantId}) and tenant environment ({@code tenantId/env}).
+     */
+    public SortedMap<String, Counters> getCounters() {
+        return Collections.unmodifiableSortedMap(new TreeMap<String, Counters>(counters));
+    }
+
+    /**
+     * How many deploys a bucket let through, queued or turned away since startup.
+     */
+    public static final class Counters {
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong queued = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        private void record(long wait) {
+            if (wait > 0) {
+                queued.incrementAndGet();
+            } else {
+                admitted.incrementAndGet();
+            }
+        }
+
+        public long getAdmitted() {
+            return admitted.get();
+        }
+
+        public long getQueued() {
+            return queued.get();
+        }
+
+        public long getRejected() {
+            return rejected.get();
+        }
+    }
+
+    /**
+     * A bucket refilling at a per-minute rate up to {@code burst} tokens.
+     * Queued requests reserve a token in advance, which can take the balance below zero.
+     */
+    private static final class TokenBucket {
+        private double tokens = Double.NaN;
+        private long refilledAt;
+        /** The limits of the last {@link #take}. */
+        private long perMinute;
+        private int burst;
+
+        synchronized long take(long perMinute, int burst, long maxWaitNanos) {
+            this.perMinute = perMinute;
+            this.burst = burst;
+            if (perMinute <= 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            double perNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            if (Double.isNaN(tokens)) {
+                tokens = burst;
+            } else {
+                tokens = Math.min(burst, tokens + (now - refilledAt) * perNano);
+            }
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            long wait = (long) Math.ceil((1 - tokens) / perNano);
+            if (wait > maxWaitNanos) {
+                return REJECTED;
+            }
+            tokens -= 1;
+            return wait;
+        }
+
+        /**
+         * Whether the bucket is full again, or unlimited, and can be replaced by a new one.
+         */
+        synchronized boolean isIdle(long now) {
+            if (perMinute <= 0 || Double.isNaN(tokens)) {
+                return true;
+            }
+            double perNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            return tokens + (now - refilledAt) * perNano >= burst;
+        }
+
+        synchronized void refund() {
+            if (!Double.isNaN(tokens)) {
+                tokens += 1;
+            }
+        }
+    }
+}
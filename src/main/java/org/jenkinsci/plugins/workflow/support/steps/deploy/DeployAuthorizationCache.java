@@ -0,0 +1,135 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.AuthorizationStrategy;
+import hudson.security.SecurityRealm;
+import jenkins.model.Jenkins;
+import org.acegisecurity.Authentication;
+
+import javax.annotation.CheckForNull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers for {@link #TTL} seconds whether a user may submit or abort the deploys of a job,
+ * since LEO sends its bulk traffic through one service account and the permission checks would otherwise dominate.
+ *
+ * Everything is forgotten when Jenkins, a job or a user is saved, and when the security realm or authorization strategy is replaced.
+ */
+public final class DeployAuthorizationCache {
+
+    /** Seconds a decision is reused, 0 to disable the cache. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int TTL = Integer.getInteger(DeployAuthorizationCache.class.getName() + ".TTL", 10);
+
+    /** Decisions kept at most; the cache is simply dropped when it grows past this. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int MAX_DECISIONS = Integer.getInteger(DeployAuthorizationCache.class.getName() + ".MAX_DECISIONS", 10000);
+
+    private static final DeployAuthorizationCache INSTANCE = new DeployAuthorizationCache();
+
+    enum Action {
+        SUBMIT, CANCEL
+    }
+
+    /**
+     * The permission check the cache stands in front of.
+     */
+    interface Check {
+        boolean check();
+    }
+
+    private final ConcurrentMap<String, Decision> decisions = new ConcurrentHashMap<String, Decision>();
+
+    /** What the decisions were made under; compared by identity. */
+    private volatile SecurityRealm realm;
+    private volatile AuthorizationStrategy strategy;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private DeployAuthorizationCache() {}
+
+    public static DeployAuthorizationCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param submitter the submitters allowed by the step, which the decision depends on besides the user and job
+     */
+    boolean decide(Authentication a, Job<?, ?> job, Action action, @CheckForNull String submitter, Check check) {
+        if (TTL <= 0) {
+            return check.check();
+        }
+        Jenkins j = Jenkins.getActiveInstance();
+        if (j.getSecurityRealm() != realm || j.getAuthorizationStrategy() != strategy) {
+            invalidate();
+            realm = j.getSecurityRealm();
+            strategy = j.getAuthorizationStrategy();
+        }
+        String key = a.getName() + '\n' + job.getFullName() + '\n' + action + '\n' + submitter;
+        long now = System.nanoTime();
+        Decision d = decisions.get(key);
+        if (d != null && now - d.madeAt < TimeUnit.SECONDS.toNanos(TTL)) {
+            hits.incrementAndGet();
+            return d.allowed;
+        }
+        misses.incrementAndGet();
+        boolean allowed = check.check();
+        if (decisions.size() >= MAX_DECISIONS) {
+            decisions.clear();
+        }
+        decisions.put(key, new Decision(allowed, now));
+        return allowed;
+    }
+
+    void invalidate() {
+        decisions.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Share of checks answered from the cache since startup, between 0 and 1.
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    private static final class Decision {
+        private final boolean allowed;
+        private final long madeAt;
+
+        Decision(boolean allowed, long madeAt) {
+            this.allowed = allowed;
+            this.madeAt = madeAt;
+        }
+    }
+
+    @Extension
+    public static class SaveListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            // security settings, job level permissions and user groups all come with one of these
+            if (o instanceof Jenkins || o instanceof Item || o instanceof User) {
+                get().invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * LEO endpoints configured on a job or folder in place of those of {@link DeployGlobalConfiguration}.
+ */
+interface DeployCallbackOverride {
+
+    /**
+     * @return null to inherit
+     */
+    @CheckForNull
+    String getDeployCallback();
+
+    /**
+     * @return null to inherit
+     */
+    @CheckForNull
+    String getNoticeCallback();
+}
@@ -0,0 +1,57 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import net.sf.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A JSON POST to one of the LEO callback urls.
+ */
+public final class DeployCallbackRequest {
+    private final String url;
+    private final JSONObject body;
+    private final Map<String, String> headers;
+    private final boolean replayable;
+
+    public DeployCallbackRequest(@Nonnull String url, @Nonnull JSONObject body, @Nonnull Map<String, String> headers) {
+        this(url, body, headers, false);
+    }
+
+    /**
+     * @param replayable whether the request still makes sense after a restart, like a notice,
+     *                   so that it is kept in {@link PendingNotices} if Jenkins goes down before it is sent
+     */
+    public DeployCallbackRequest(@Nonnull String url, @Nonnull JSONObject body, @Nonnull Map<String, String> headers, boolean replayable) {
+        this.url = url;
+        this.body = body;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<String, String>(headers));
+        this.replayable = replayable;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public JSONObject getBody() {
+        return body;
+    }
+
+    /**
+     * Headers besides {@code Content-Type}, such as {@code LEO-USER}.
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public boolean isReplayable() {
+        return replayable;
+    }
+
+    @Override
+    public String toString() {
+        return "POST " + url + " " + body;
+    }
+}
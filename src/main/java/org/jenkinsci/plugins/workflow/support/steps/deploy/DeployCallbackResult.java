@@ -0,0 +1,100 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.CheckForNull;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * What LEO answered to a {@link DeployCallbackRequest}.
+ *
+ * A callback succeeded if LEO answered 200 with either an empty body or an {@code rtnCode} of {@code 000000}.
+ */
+public final class DeployCallbackResult {
+    private static final String RTN_CODE_OK = "000000";
+
+    private final int statusCode;
+    @CheckForNull
+    private final String body;
+    @CheckForNull
+    private final Throwable failure;
+
+    private DeployCallbackResult(int statusCode, @CheckForNull String body, @CheckForNull Throwable failure) {
+        this.statusCode = statusCode;
+        this.body = body;
+        this.failure = failure;
+    }
+
+    public static DeployCallbackResult of(int statusCode, @CheckForNull String body) {
+        return new DeployCallbackResult(statusCode, body, null);
+    }
+
+    /**
+     * The request could not be delivered or got no answer.
+     */
+    public static DeployCallbackResult failed(Throwable failure) {
+        return new DeployCallbackResult(0, null, failure);
+    }
+
+    /**
+     * HTTP status, 0 if there was no answer.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @CheckForNull
+    public String getBody() {
+        return body;
+    }
+
+    @CheckForNull
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * The body as JSON, null if it is empty or not a JSON object.
+     */
+    @CheckForNull
+    public JSONObject getJson() {
+        if (StringUtils.isEmpty(body)) {
+            return null;
+        }
+        try {
+            return JSONObject.fromObject(body);
+        } catch (JSONException x) {
+            return null;
+        }
+    }
+
+    public boolean isSuccess() {
+        if (statusCode != HttpServletResponse.SC_OK) {
+            return false;
+        }
+        if (StringUtils.isEmpty(body)) {
+            return true;
+        }
+        JSONObject json = getJson();
+        return json != null && RTN_CODE_OK.equals(json.optString("rtnCode"));
+    }
+
+    /**
+     * LEO's explanation of a failed call, if any.
+     */
+    @CheckForNull
+    public String getRtnMsg() {
+        JSONObject json = getJson();
+        return json == null ? null : json.optString("rtnMsg", null);
+    }
+
+    @Override
+    public String toString() {
+        if (failure != null) {
+            return "failed[" + failure + "]";
+        }
+        return statusCode + " " + body;
+    }
+}
@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Delivers deploy, notice and status callbacks to LEO.
+ *
+ * The implementation with the highest ordinal is used; {@link HttpCallbackTransport} is the default,
+ * and tests may register an {@link InMemoryCallbackTransport} in front of it.
+ */
+public abstract class DeployCallbackTransport implements ExtensionPoint {
+
+    /** Seconds callers wait for an answer before giving up on a callback. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static /* not final */ int TIMEOUT = Integer.getInteger(DeployCallbackTransport.class.getName() + ".TIMEOUT", 90);
+
+    /**
+     * Starts delivering a request.
+     *
+     * @return the answer, which callers may wait for or listen to; failures to deliver are reported through
+     *         {@link DeployCallbackResult#failed} rather than by failing the future
+     */
+    @Nonnull
+    public abstract ListenableFuture<DeployCallbackResult> send(@Nonnull DeployCallbackRequest request);
+
+    /**
+     * The answer to a request, failed with a {@link TimeoutException} and the request cancelled
+     * if there is none within {@link #TIMEOUT} seconds; for callers which listen rather than wait with a timeout.
+     */
+    static ListenableFuture<DeployCallbackResult> withTimeout(final ListenableFuture<DeployCallbackResult> answer) {
+        if (answer.isDone()) {
+            return answer;
+        }
+        final SettableFuture<DeployCallbackResult> bounded = SettableFuture.create();
+        final ScheduledFuture<?> expiry = Timer.get().schedule(new Runnable() {
+            @Override public void run() {
+                if (bounded.setException(new TimeoutException("no answer within " + TIMEOUT + " seconds"))) {
+                    answer.cancel(true);
+                }
+            }
+        }, TIMEOUT, TimeUnit.SECONDS);
+        Futures.addCallback(answer, new FutureCallback<DeployCallbackResult>() {
+            @Override public void onSuccess(DeployCallbackResult result) {
+                expiry.cancel(false);
+                bounded.set(result);
+            }
+
+            @Override public void onFailure(Throwable t) {
+                expiry.cancel(false);
+                bounded.setException(t);
+            }
+        });
+        return bounded;
+    }
+
+    public static DeployCallbackTransport get() {
+        ExtensionList<DeployCallbackTransport> all = Jenkins.getActiveInstance().getExtensionList(DeployCallbackTransport.class);
+        if (all.isEmpty()) {
+            throw new IllegalStateException("no DeployCallbackTransport registered");
+        }
+        return all.get(0);
+    }
+}
@@ -0,0 +1,135 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import com.google.common.collect.MapMaker;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the LEO endpoints of a job: its {@link DeployJobProperty}, then the {@link DeployFolderProperty}
+ * of the closest folder which has one, then {@link DeployGlobalConfiguration}.
+ * Folders are walked as any {@link ItemGroup} which is an {@link Item}, so nothing breaks without the Folders plugin.
+ *
+ * The overrides of every job and folder are cached, each level built from its parent's,
+ * so a deploy resolves in constant time however deep the folder tree.
+ * The cache is dropped whenever a job or folder is saved, moved or deleted.
+ */
+final class DeployCallbacks {
+
+    /** Keyed by job or folder, compared by identity. */
+    private static final ConcurrentMap<Object, Overrides> CACHE = new MapMaker().weakKeys().makeMap();
+
+    /** Entries from an older generation are stale even if a resolution racing with {@link #invalidate} put them back. */
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private DeployCallbacks() {}
+
+    static String deployCallback(Job<?, ?> job) {
+        String url = resolve(job).deployCallback;
+        return url != null ? url : GlobalConfiguration.all().get(DeployGlobalConfiguration.class).getDeployCallback();
+    }
+
+    static String noticeCallback(Job<?, ?> job) {
+        String url = resolve(job).noticeCallback;
+        return url != null ? url : GlobalConfiguration.all().get(DeployGlobalConfiguration.class).getNoticeCallback();
+    }
+
+    private static Overrides resolve(Job<?, ?> job) {
+        long generation = GENERATION.get();
+        Overrides o = CACHE.get(job);
+        if (o == null || o.generation != generation) {
+            o = resolve(job.getParent(), generation).with(job.getProperty(DeployJobProperty.class), generation);
+            CACHE.put(job, o);
+        }
+        return o;
+    }
+
+    private static Overrides resolve(ItemGroup<?> group, long generation) {
+        if (!(group instanceof Item)) {
+            return new Overrides(null, null, generation);
+        }
+        Overrides o = CACHE.get(group);
+        if (o == null || o.generation != generation) {
+            o = resolve(((Item) group).getParent(), generation).with(folderProperty(group), generation);
+            CACHE.put(group, o);
+        }
+        return o;
+    }
+
+    /**
+     * The {@link DeployFolderProperty} of a folder, if the Folders plugin is installed at all.
+     */
+    @CheckForNull
+    private static DeployCallbackOverride folderProperty(ItemGroup<?> group) {
+        Jenkins j = Jenkins.getInstance();
+        if (j == null || j.getPlugin("cloudbees-folder") == null) {
+            return null;
+        }
+        return DeployFolderProperty.of(group);
+    }
+
+    static void invalidate() {
+        GENERATION.incrementAndGet();
+        CACHE.clear();
+    }
+
+    private static final class Overrides {
+        @CheckForNull final String deployCallback;
+        @CheckForNull final String noticeCallback;
+        final long generation;
+
+        Overrides(@CheckForNull String deployCallback, @CheckForNull String noticeCallback, long generation) {
+            this.deployCallback = deployCallback;
+            this.noticeCallback = noticeCallback;
+            this.generation = generation;
+        }
+
+        Overrides with(@CheckForNull DeployCallbackOverride closer, long generation) {
+            if (closer == null) {
+                return new Overrides(deployCallback, noticeCallback, generation);
+            }
+            return new Overrides(closer.getDeployCallback() != null ? closer.getDeployCallback() : deployCallback,
+                    closer.getNoticeCallback() != null ? closer.getNoticeCallback() : noticeCallback, generation);
+        }
+    }
+
+    @Extension
+    public static class SaveListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            // builds are saved all the time, only configuration matters here
+            if (o instanceof Item) {
+                invalidate();
+            }
+        }
+    }
+
+    @Extension
+    public static class ItemChangeListener extends ItemListener {
+        @Override
+        public void onUpdated(Item item) {
+            invalidate();
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            invalidate();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidate();
+        }
+    }
+}
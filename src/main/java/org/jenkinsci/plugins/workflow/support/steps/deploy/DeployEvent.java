@@ -0,0 +1,118 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import net.sf.json.JSONObject;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Locale;
+
+/**
+ * A lifecycle event of a deploy step, handed to every {@link DeployLifecycleListener}.
+ *
+ * Only refers to the run by name so that a listener lagging behind does not keep it in memory.
+ */
+public final class DeployEvent {
+
+    public enum Type {
+        /** The step is waiting for LEO. */
+        READY,
+        /** LEO submitted the deploy and it is about to be triggered. */
+        SUBMITTED,
+        /** LEO accepted the deploy trigger. */
+        DEPLOYING,
+        /** LEO reported the deploy succeeded. */
+        SUCCESS,
+        /** The step was aborted, or the deploy failed. */
+        ABORT
+    }
+
+    private final Type type;
+    private final String jobFullName;
+    private final int runNumber;
+    private final String inputId;
+    private final String stepId;
+    private final String userId;
+    private final String userName;
+    private final long timestamp;
+
+    DeployEvent(Type type, String jobFullName, int runNumber, String inputId, String stepId,
+                @CheckForNull String userId, @CheckForNull String userName, long timestamp) {
+        this.type = type;
+        this.jobFullName = jobFullName;
+        this.runNumber = runNumber;
+        this.inputId = inputId;
+        this.stepId = stepId;
+        this.userId = userId;
+        this.userName = userName;
+        this.timestamp = timestamp;
+    }
+
+    @Nonnull
+    public Type getType() {
+        return type;
+    }
+
+    public String getJobFullName() {
+        return jobFullName;
+    }
+
+    public int getRunNumber() {
+        return runNumber;
+    }
+
+    public String getInputId() {
+        return inputId;
+    }
+
+    /**
+     * Id of the flow node running the step.
+     */
+    public String getStepId() {
+        return stepId;
+    }
+
+    /**
+     * @return the LEO user behind the event, if known
+     */
+    @CheckForNull
+    public String getUserId() {
+        return userId;
+    }
+
+    @CheckForNull
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Wall-clock time of the event in milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * The event in the shape of a LEO notice, e.g. {@code {"type":"ready","pipelineFullName":"folder/p","runId":12,…}}.
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("type", type.name().toLowerCase(Locale.ENGLISH));
+        json.put("timestamp", timestamp);
+        json.put("pipelineFullName", jobFullName);
+        json.put("runId", runNumber);
+        json.put("inputId", inputId);
+        json.put("stepId", stepId);
+        if (userId != null) {
+            json.put("userId", userId);
+        }
+        if (userName != null) {
+            json.put("userName", userName);
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + jobFullName + " #" + runNumber + " " + inputId;
+    }
+}
@@ -0,0 +1,118 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Run;
+
+import javax.annotation.CheckForNull;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the deploy and notice events of the last {@link #WINDOW} seconds, keyed by run, node, input id and event,
+ * so that a repeat is answered from memory instead of going through the step again.
+ *
+ * LEO retries deploy requests it did not get an answer for, and both {@code doAbortProcceed} and {@code stop()}
+ * may try to abort the same step; neither should reach the other side twice.
+ * At most {@link #MAX_EVENTS} events are kept, the oldest are forgotten first.
+ */
+public final class DeployEventDedup {
+
+    /** Seconds an event is remembered. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int WINDOW = Integer.getInteger(DeployEventDedup.class.getName() + ".WINDOW", 60);
+
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int MAX_EVENTS = Integer.getInteger(DeployEventDedup.class.getName() + ".MAX_EVENTS", 10000);
+
+    private static final DeployEventDedup INSTANCE = new DeployEventDedup();
+
+    /** In insertion order, which is also expiry order. */
+    private final LinkedHashMap<String, Event> events = new LinkedHashMap<String, Event>() {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Event> eldest) {
+            return size() > MAX_EVENTS;
+        }
+    };
+
+    private final AtomicLong duplicateRequests = new AtomicLong();
+    private final AtomicLong suppressedNotices = new AtomicLong();
+
+    private DeployEventDedup() {}
+
+    public static DeployEventDedup get() {
+        return INSTANCE;
+    }
+
+    static String key(Run<?, ?> run, String nodeId, String inputId, String event) {
+        return run.getParent().getFullName() + '#' + run.getNumber() + '#' + nodeId + '#' + inputId + '#' + event;
+    }
+
+    /**
+     * Records {@code event} unless the same event was seen within the window.
+     *
+     * @return null if the caller is the first and should handle the event, otherwise the earlier event
+     */
+    @CheckForNull
+    synchronized Event claim(String key, Event event) {
+        long window = TimeUnit.SECONDS.toNanos(WINDOW);
+        for (Iterator<Event> it = events.values().iterator(); it.hasNext();) {
+            if (event.seenAt - it.next().seenAt < window) {
+                break;
+            }
+            it.remove();
+        }
+        Event seen = events.get(key);
+        if (seen != null) {
+            return seen;
+        }
+        events.put(key, event);
+        return null;
+    }
+
+    /**
+     * Forgets an event which did not take effect, so that a retry is handled again.
+     */
+    synchronized void forget(String key, Event event) {
+        if (events.get(key) == event) {
+            events.remove(key);
+        }
+    }
+
+    void countDuplicateRequest() {
+        duplicateRequests.incrementAndGet();
+    }
+
+    void countSuppressedNotice() {
+        suppressedNotices.incrementAndGet();
+    }
+
+    /** Repeated deploy requests from LEO answered from memory since startup. */
+    public long getDuplicateRequests() {
+        return duplicateRequests.get();
+    }
+
+    /** Repeated notices which were not sent to LEO since startup. */
+    public long getSuppressedNotices() {
+        return suppressedNotices.get();
+    }
+
+    /**
+     * One remembered event, with the answer given to it once there is one.
+     */
+    static final class Event {
+        private final long seenAt = System.nanoTime();
+        private volatile int rtnCode;
+
+        /**
+         * @return the {@code STATUS_*} code a repeat is answered with, 0 while the first is still being handled
+         */
+        int getRtnCode() {
+            return rtnCode;
+        }
+
+        void setRtnCode(int rtnCode) {
+            this.rtnCode = rtnCode;
+        }
+    }
+}
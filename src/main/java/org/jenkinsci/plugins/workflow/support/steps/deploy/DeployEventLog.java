@@ -0,0 +1,231 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.Extension;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends every {@link DeployEvent} as one line of JSON to {@code $JENKINS_HOME/leo-events/events.ndjson},
+ * for sites which ship local files anyway and would rather not take one HTTP call per event.
+ * Enabled with {@link DeployGlobalConfiguration#isEventLog}, alongside or instead of the notice callback.
+ *
+ * Lines are queued and written by one thread, bypassing the bounded queue of other listeners so that no event is dropped;
+ * whatever queued up while a write was in progress goes out with the next one,
+ * so a burst of events costs a few writes and syncs rather than one each.
+ * The file is rotated to {@code events-<time>.ndjson} once it is larger than {@link #MAX_BYTES} or older than {@link #MAX_AGE} seconds.
+ */
+@Extension
+public class DeployEventLog extends DeployLifecycleListener {
+    private static final Logger LOGGER = Logger.getLogger(DeployEventLog.class.getName());
+
+    static final String DIR_NAME = "leo-events";
+    static final String FILE_NAME = "events.ndjson";
+
+    /** Size in bytes past which the file is rotated. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static /* not final */ long MAX_BYTES = Long.getLong(DeployEventLog.class.getName() + ".MAX_BYTES", 10 * 1024 * 1024);
+
+    /** Age in seconds past which the file is rotated. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ long MAX_AGE = Long.getLong(DeployEventLog.class.getName() + ".MAX_AGE", TimeUnit.HOURS.toSeconds(1));
+
+    /** Rotated files kept. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static /* not final */ int KEEP = Integer.getInteger(DeployEventLog.class.getName() + ".KEEP", 10);
+
+    /** Whether each write is synced to disk before the next one. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ boolean FORCE = Boolean.parseBoolean(System.getProperty(DeployEventLog.class.getName() + ".FORCE", "true"));
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Time stamp of rotated files, all of the same length. */
+    private static final String STAMP = "yyyyMMdd-HHmmss-SSS";
+    private static final int STAMP_LENGTH = STAMP.length();
+
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+
+    /** Whether a write is scheduled or running. */
+    private final AtomicBoolean writing = new AtomicBoolean();
+
+    private final ExecutorService writer;
+
+    /** Only touched by the writer. */
+    private FileChannel channel;
+    private long openedAt;
+
+    public DeployEventLog() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamingThreadFactory(new DaemonThreadFactory(), "DeployEventLog"));
+        pool.allowCoreThreadTimeOut(true);
+        writer = pool;
+    }
+
+    @Override
+    boolean queuesItself() {
+        return true;
+    }
+
+    @Override
+    public void onEvent(@Nonnull DeployEvent event) {
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        if (config == null || !config.isEventLog()) {
+            return;
+        }
+        lines.add(event.toJSON().toString() + '\n');
+        if (writing.compareAndSet(false, true)) {
+            writer.submit(new Runnable() {
+                @Override public void run() {
+                    drain();
+                }
+            });
+        }
+    }
+
+    private File dir() {
+        return new File(Jenkins.getActiveInstance().getRootDir(), DIR_NAME);
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<String>();
+        while (true) {
+            lines.drainTo(batch);
+            if (batch.isEmpty()) {
+                writing.set(false);
+                // something may have been queued after drainTo but before the flag was cleared
+                if (lines.isEmpty() || !writing.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                append(dir(), batch);
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "failed to write " + batch.size() + " deploy events", x);
+                close();
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes lines in one go, rotating first if due.
+     */
+    void append(File dir, List<String> batch) throws IOException {
+        StringBuilder b = new StringBuilder();
+        for (String line : batch) {
+            b.append(line);
+        }
+        ByteBuffer bytes = UTF_8.encode(b.toString());
+        long now = System.currentTimeMillis();
+        if (channel != null && (channel.size() + bytes.remaining() > MAX_BYTES || now - openedAt > TimeUnit.SECONDS.toMillis(MAX_AGE))) {
+            rotate(dir, now);
+        }
+        if (channel == null) {
+            File file = new File(dir, FILE_NAME);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("failed to create " + dir);
+            }
+            // a file left from before a restart is appended to, and rotated by size only
+            openedAt = file.isFile() ? file.lastModified() : now;
+            channel = new FileOutputStream(file, true).getChannel();
+        }
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        if (FORCE) {
+            channel.force(false);
+        }
+    }
+
+    private void rotate(File dir, long now) throws IOException {
+        close();
+        File file = new File(dir, FILE_NAME);
+        String stamp = new SimpleDateFormat(STAMP).format(new Date(now));
+        File rotated = new File(dir, "events-" + stamp + ".ndjson");
+        for (int i = 1; rotated.exists(); i++) {
+            rotated = new File(dir, "events-" + stamp + "-" + i + ".ndjson");
+        }
+        if (!file.renameTo(rotated)) {
+            throw new IOException("failed to rotate " + file + " to " + rotated);
+        }
+        File[] old = dir.listFiles();
+        if (old == null) {
+            return;
+        }
+        List<String> names = new ArrayList<String>();
+        for (File f : old) {
+            if (f.getName().startsWith("events-") && f.getName().endsWith(".ndjson")) {
+                names.add(f.getName());
+            }
+        }
+        // oldest first: by time stamp, then by the suffix of files rotated within the same millisecond
+        String[] sorted = names.toArray(new String[names.size()]);
+        Arrays.sort(sorted, new Comparator<String>() {
+            @Override public int compare(String a, String b) {
+                int c = stamp(a).compareTo(stamp(b));
+                return c != 0 ? c : Integer.compare(suffix(a), suffix(b));
+            }
+        });
+        for (int i = 0; i < sorted.length - KEEP; i++) {
+            File f = new File(dir, sorted[i]);
+            if (!f.delete()) {
+                LOGGER.log(Level.WARNING, "failed to delete {0}", f);
+            }
+        }
+    }
+
+    /** {@code <time>} of {@code events-<time>[-<n>].ndjson}. */
+    private static String stamp(String name) {
+        String s = name.substring("events-".length(), name.length() - ".ndjson".length());
+        return s.length() > STAMP_LENGTH ? s.substring(0, STAMP_LENGTH) : s;
+    }
+
+    /** {@code <n>} of {@code events-<time>-<n>.ndjson}, 0 if there is none. */
+    private static int suffix(String name) {
+        String s = name.substring("events-".length(), name.length() - ".ndjson".length());
+        if (s.length() <= STAMP_LENGTH + 1) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(s.substring(STAMP_LENGTH + 1));
+        } catch (NumberFormatException x) {
+            return 0;
+        }
+    }
+
+    void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException x) {
+                LOGGER.log(Level.FINE, null, x);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Progress of a deploy fanned out to several {@link DeployTarget}s, saved with the step.
+ *
+ * The deploy succeeds once {@code quorum} targets succeeded, and fails as soon as so many failed that the quorum is out of reach.
+ * Each target is settled by the first report LEO sends for it.
+ */
+final class DeployFanOut implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    enum Status {
+        DEPLOYING, SUCCEEDED, FAILED
+    }
+
+    enum Verdict {
+        PENDING, SUCCEEDED, FAILED
+    }
+
+    /** By {@link DeployTarget#key}, in the order of the step. */
+    private final LinkedHashMap<String, Status> targets = new LinkedHashMap<String, Status>();
+
+    private final int quorum;
+
+    /**
+     * @param quorum targets which must succeed, anything outside {@code 1..targets.size()} meaning all of them
+     */
+    DeployFanOut(List<DeployTarget> targets, int quorum) {
+        for (DeployTarget target : targets) {
+            this.targets.put(target.toString(), Status.DEPLOYING);
+        }
+        this.quorum = quorum <= 0 || quorum > this.targets.size() ? this.targets.size() : quorum;
+    }
+
+    synchronized boolean contains(String target) {
+        return targets.containsKey(target);
+    }
+
+    /**
+     * Settles a target unless it already is.
+     *
+     * @return whether this settled {@code target}, false if it was settled before or is not one of the targets
+     */
+    synchronized boolean record(String target, Status status) {
+        if (targets.get(target) != Status.DEPLOYING) {
+            return false;
+        }
+        targets.put(target, status);
+        return true;
+    }
+
+    synchronized Verdict verdict() {
+        int succeeded = count(Status.SUCCEEDED);
+        if (succeeded >= quorum) {
+            return Verdict.SUCCEEDED;
+        }
+        if (count(Status.FAILED) > targets.size() - quorum) {
+            return Verdict.FAILED;
+        }
+        return Verdict.PENDING;
+    }
+
+    private int count(Status status) {
+        int n = 0;
+        for (Status s : targets.values()) {
+            if (s == status) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    synchronized List<String> get(Status status) {
+        List<String> matching = new ArrayList<String>();
+        for (Map.Entry<String, Status> e : targets.entrySet()) {
+            if (e.getValue() == status) {
+                matching.add(e.getKey());
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * E.g. {@code succeeded on 2 of 3 targets (quorum 2), failed on web/prod-us}.
+     */
+    synchronized String summary() {
+        StringBuilder b = new StringBuilder("succeeded on ").append(count(Status.SUCCEEDED)).append(" of ").append(targets.size())
+                .append(" targets (quorum ").append(quorum).append(')');
+        List<String> failed = get(Status.FAILED);
+        if (!failed.isEmpty()) {
+            b.append(", failed on ").append(join(failed));
+        }
+        List<String> deploying = get(Status.DEPLOYING);
+        if (!deploying.isEmpty()) {
+            b.append(", still deploying ").append(join(deploying));
+        }
+        return b.toString();
+    }
+
+    static String join(List<String> targets) {
+        StringBuilder b = new StringBuilder();
+        for (String target : targets) {
+            if (b.length() > 0) {
+                b.append(", ");
+            }
+            b.append(target);
+        }
+        return b.toString();
+    }
+
+    synchronized JSONArray toJSON() {
+        JSONArray array = new JSONArray();
+        for (Map.Entry<String, Status> e : targets.entrySet()) {
+            JSONObject target = new JSONObject();
+            target.put("target", e.getKey());
+            target.put("status", e.getValue().name());
+            array.add(target);
+        }
+        return array;
+    }
+}
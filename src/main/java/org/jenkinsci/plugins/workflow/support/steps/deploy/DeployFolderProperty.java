@@ -0,0 +1,72 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import com.cloudbees.hudson.plugins.folder.AbstractFolderProperty;
+import com.cloudbees.hudson.plugins.folder.AbstractFolderPropertyDescriptor;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.ItemGroup;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Sends the deploys of every job in a folder, at any depth, to the folder's own LEO endpoints.
+ * Closer folders and the job itself take precedence.
+ * Only used if the Folders plugin, an optional dependency, is installed.
+ */
+public class DeployFolderProperty extends AbstractFolderProperty<AbstractFolder<?>> implements DeployCallbackOverride {
+
+    private String deployCallback;
+    private String noticeCallback;
+
+    @DataBoundConstructor
+    public DeployFolderProperty() {
+    }
+
+    @Override
+    public String getDeployCallback() {
+        return deployCallback;
+    }
+
+    @DataBoundSetter
+    public void setDeployCallback(String deployCallback) {
+        this.deployCallback = Util.fixEmptyAndTrim(deployCallback);
+    }
+
+    @Override
+    public String getNoticeCallback() {
+        return noticeCallback;
+    }
+
+    @DataBoundSetter
+    public void setNoticeCallback(String noticeCallback) {
+        this.noticeCallback = Util.fixEmptyAndTrim(noticeCallback);
+    }
+
+    /**
+     * @return null unless {@code group} is a folder with this property
+     */
+    @CheckForNull
+    static DeployFolderProperty of(ItemGroup<?> group) {
+        return group instanceof AbstractFolder ? ((AbstractFolder<?>) group).getProperties().get(DeployFolderProperty.class) : null;
+    }
+
+    @Extension(optional = true)
+    public static class DescriptorImpl extends AbstractFolderPropertyDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "LEO deploy endpoints";
+        }
+
+        @Override
+        public AbstractFolderProperty<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            DeployFolderProperty p = (DeployFolderProperty) super.newInstance(req, formData);
+            // nothing to keep unless an endpoint is overridden
+            return p.deployCallback == null && p.noticeCallback == null ? null : p;
+        }
+    }
+}
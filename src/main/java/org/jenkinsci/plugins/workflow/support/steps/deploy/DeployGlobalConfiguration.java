@@ -1,12 +1,20 @@
 package org.jenkinsci.plugins.workflow.support.steps.deploy;
 
 import hudson.Extension;
+import hudson.util.Secret;
 import jenkins.model.GlobalConfiguration;
 import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @Extension
@@ -21,6 +29,86 @@ public class DeployGlobalConfiguration extends GlobalConfiguration {
      * input start notice url
      */
     private String noticeCallback = "";
+    /**
+     * url taking the abort notices of steps stopped along with their builds in batches, see {@link DeployAborts}
+     */
+    private String noticeBatchCallback = "";
+    /**
+     * deploy status query url, used to reconcile in-flight deploys
+     */
+    private String statusCallback = "";
+    /**
+     * steps per deploy status query
+     */
+    private int statusBatchSize = 50;
+    /**
+     * whether to poll the status url for triggered deploys instead of waiting for LEO to proceed them
+     */
+    private boolean statusPolling;
+    /**
+     * seconds before a triggered deploy is first polled
+     */
+    private long pollInterval = 10;
+    /**
+     * longest wait between two polls of a deploy, in seconds
+     */
+    private long maxPollInterval = 300;
+    /**
+     * deploys per minute a tenant may trigger, 0 for no limit
+     */
+    private long tenantRateLimit;
+    /**
+     * deploys per minute a tenant may trigger in one environment, 0 for no limit
+     */
+    private long envRateLimit;
+    /**
+     * deploys which may be triggered at once before the rate limits apply
+     */
+    private int rateLimitBurst = 10;
+    /**
+     * whether to queue deploys over the rate limit instead of rejecting them
+     */
+    private boolean queueOverLimit;
+    /**
+     * longest a deploy may be queued by the rate limits, in seconds
+     */
+    private long maxQueueWait = 300;
+    /**
+     * limits on concurrent deploys
+     */
+    private List<DeploySlotRule> slotRules = new ArrayList<DeploySlotRule>();
+    /**
+     * comma separated environments whose deploys get a larger share of the deploy queue
+     */
+    private String productionEnvs = "prod";
+    /**
+     * one {@code tenantId=weight} per line, tenants not listed have weight 1
+     */
+    private String tenantWeights = "";
+    /**
+     * connections kept open to each LEO endpoint, 0 to open them on demand
+     */
+    private int warmConnections = 2;
+    /**
+     * one tenantId=token per line, accepted by {@link DeployWebhookAction} for any step of that tenant
+     */
+    private Secret webhookTokens;
+    /**
+     * append deploy events to JENKINS_HOME/leo-events/, see {@link DeployEventLog}
+     */
+    private boolean eventLog;
+    /**
+     * seconds a deploy may wait for submission before it is aborted, 0 to wait forever
+     */
+    private long pendingTimeout;
+    /**
+     * seconds a submitted deploy may wait for the rate limit and a free deploy slot before it is aborted, 0 to wait forever
+     */
+    private long queuedTimeout;
+    /**
+     * seconds a triggered deploy may wait for LEO to proceed before it is aborted, 0 to wait forever
+     */
+    private long deployingTimeout;
 
     public DeployGlobalConfiguration() {
         this.load();
@@ -36,6 +124,7 @@ public class DeployGlobalConfiguration extends GlobalConfiguration {
     public boolean configure(StaplerRequest req, JSONObject json) {
         req.bindJSON(this, json);
         this.save();
+        ConnectionManager.warmConfigured();
         return true;
     }
 
@@ -56,4 +145,274 @@ public class DeployGlobalConfiguration extends GlobalConfiguration {
     public void setNoticeCallback(String noticeCallback) {
         this.noticeCallback = noticeCallback;
     }
+
+    public String getNoticeBatchCallback() {
+        return noticeBatchCallback;
+    }
+
+    @DataBoundSetter
+    public void setNoticeBatchCallback(String noticeBatchCallback) {
+        this.noticeBatchCallback = noticeBatchCallback;
+    }
+
+    public String getStatusCallback() {
+        return statusCallback;
+    }
+
+    @DataBoundSetter
+    public void setStatusCallback(String statusCallback) {
+        this.statusCallback = statusCallback;
+    }
+
+    public int getStatusBatchSize() {
+        return statusBatchSize;
+    }
+
+    @DataBoundSetter
+    public void setStatusBatchSize(int statusBatchSize) {
+        this.statusBatchSize = Math.max(statusBatchSize, 1);
+    }
+
+    public boolean isStatusPolling() {
+        return statusPolling;
+    }
+
+    @DataBoundSetter
+    public void setStatusPolling(boolean statusPolling) {
+        this.statusPolling = statusPolling;
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    @DataBoundSetter
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = Math.max(pollInterval, 1);
+    }
+
+    public long getMaxPollInterval() {
+        return maxPollInterval;
+    }
+
+    @DataBoundSetter
+    public void setMaxPollInterval(long maxPollInterval) {
+        this.maxPollInterval = Math.max(maxPollInterval, 1);
+    }
+
+    public long getTenantRateLimit() {
+        return tenantRateLimit;
+    }
+
+    @DataBoundSetter
+    public void setTenantRateLimit(long tenantRateLimit) {
+        this.tenantRateLimit = Math.max(tenantRateLimit, 0);
+    }
+
+    public long getEnvRateLimit() {
+        return envRateLimit;
+    }
+
+    @DataBoundSetter
+    public void setEnvRateLimit(long envRateLimit) {
+        this.envRateLimit = Math.max(envRateLimit, 0);
+    }
+
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    @DataBoundSetter
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = Math.max(rateLimitBurst, 1);
+    }
+
+    public boolean isQueueOverLimit() {
+        return queueOverLimit;
+    }
+
+    @DataBoundSetter
+    public void setQueueOverLimit(boolean queueOverLimit) {
+        this.queueOverLimit = queueOverLimit;
+    }
+
+    public long getMaxQueueWait() {
+        return maxQueueWait;
+    }
+
+    @DataBoundSetter
+    public void setMaxQueueWait(long maxQueueWait) {
+        this.maxQueueWait = Math.max(maxQueueWait, 0);
+    }
+
+    public List<DeploySlotRule> getSlotRules() {
+        return slotRules == null ? Collections.<DeploySlotRule>emptyList() : Collections.unmodifiableList(slotRules);
+    }
+
+    @DataBoundSetter
+    public void setSlotRules(List<DeploySlotRule> slotRules) {
+        this.slotRules = slotRules == null ? new ArrayList<DeploySlotRule>() : new ArrayList<DeploySlotRule>(slotRules);
+        // raised or removed limits may let waiting deploys in
+        DeployScheduler.get().rulesChanged();
+    }
+
+    public String getProductionEnvs() {
+        return productionEnvs;
+    }
+
+    @DataBoundSetter
+    public void setProductionEnvs(String productionEnvs) {
+        this.productionEnvs = productionEnvs;
+    }
+
+    boolean isProduction(String env) {
+        if (productionEnvs == null) {
+            return false;
+        }
+        for (String production : productionEnvs.split(",")) {
+            if (production.trim().equalsIgnoreCase(env)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getTenantWeights() {
+        return tenantWeights;
+    }
+
+    @DataBoundSetter
+    public void setTenantWeights(String tenantWeights) {
+        this.tenantWeights = tenantWeights;
+    }
+
+    double getTenantWeight(String tenantId) {
+        if (tenantWeights != null) {
+            for (String line : tenantWeights.split("\\r?\\n")) {
+                int eq = line.indexOf('=');
+                if (eq > 0 && line.substring(0, eq).trim().equals(tenantId)) {
+                    try {
+                        double weight = Double.parseDouble(line.substring(eq + 1).trim());
+                        if (weight > 0) {
+                            return weight;
+                        }
+                    } catch (NumberFormatException x) {
+                        LOGGER.log(Level.WARNING, "invalid tenant weight: {0}", line);
+                    }
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Live rate limit counters, shown on the configuration page.
+     */
+    public SortedMap<String, DeployAdmission.Counters> getAdmissionCounters() {
+        return DeployAdmission.get().getCounters();
+    }
+
+    /**
+     * Repeated deploy requests and notices, shown on the configuration page.
+     */
+    public DeployEventDedup getEventDedup() {
+        return DeployEventDedup.get();
+    }
+
+    public boolean isEventLog() {
+        return eventLog;
+    }
+
+    @DataBoundSetter
+    public void setEventLog(boolean eventLog) {
+        this.eventLog = eventLog;
+    }
+
+    public Secret getWebhookTokens() {
+        return webhookTokens;
+    }
+
+    @DataBoundSetter
+    public void setWebhookTokens(Secret webhookTokens) {
+        this.webhookTokens = webhookTokens;
+    }
+
+    /**
+     * @return null if no webhook token is configured for the tenant
+     */
+    @CheckForNull
+    String getWebhookToken(String tenantId) {
+        String tokens = Secret.toString(webhookTokens);
+        for (String line : tokens.split("\\r?\\n")) {
+            int eq = line.indexOf('=');
+            if (eq > 0 && line.substring(0, eq).trim().equals(tenantId)) {
+                String token = line.substring(eq + 1).trim();
+                return token.isEmpty() ? null : token;
+            }
+        }
+        return null;
+    }
+
+    public int getWarmConnections() {
+        return warmConnections;
+    }
+
+    @DataBoundSetter
+    public void setWarmConnections(int warmConnections) {
+        this.warmConnections = Math.max(warmConnections, 0);
+    }
+
+    /**
+     * The configured LEO endpoints, whose connections are kept warm.
+     */
+    List<String> getCallbackEndpoints() {
+        List<String> endpoints = new ArrayList<String>();
+        for (String endpoint : new String[] {deployCallback, noticeCallback, statusCallback}) {
+            if (StringUtils.isNotBlank(endpoint)) {
+                endpoints.add(endpoint.trim());
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * Pooled connections to the LEO endpoints, shown on the configuration page.
+     */
+    public ConnectionManager getConnectionManager() {
+        return ConnectionManager.get();
+    }
+
+    /**
+     * Submit and abort permission checks, shown on the configuration page.
+     */
+    public DeployAuthorizationCache getAuthorizationCache() {
+        return DeployAuthorizationCache.get();
+    }
+
+    public long getPendingTimeout() {
+        return pendingTimeout;
+    }
+
+    @DataBoundSetter
+    public void setPendingTimeout(long pendingTimeout) {
+        this.pendingTimeout = Math.max(pendingTimeout, 0);
+    }
+
+    public long getQueuedTimeout() {
+        return queuedTimeout;
+    }
+
+    @DataBoundSetter
+    public void setQueuedTimeout(long queuedTimeout) {
+        this.queuedTimeout = Math.max(queuedTimeout, 0);
+    }
+
+    public long getDeployingTimeout() {
+        return deployingTimeout;
+    }
+
+    @DataBoundSetter
+    public void setDeployingTimeout(long deployingTimeout) {
+        this.deployingTimeout = Math.max(deployingTimeout, 0);
+    }
 }
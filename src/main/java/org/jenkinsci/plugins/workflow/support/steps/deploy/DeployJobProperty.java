@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Sends the deploys of one job to its own LEO endpoints.
+ */
+public class DeployJobProperty extends JobProperty<Job<?, ?>> implements DeployCallbackOverride {
+
+    private String deployCallback;
+    private String noticeCallback;
+
+    @DataBoundConstructor
+    public DeployJobProperty() {
+    }
+
+    @Override
+    public String getDeployCallback() {
+        return deployCallback;
+    }
+
+    @DataBoundSetter
+    public void setDeployCallback(String deployCallback) {
+        this.deployCallback = Util.fixEmptyAndTrim(deployCallback);
+    }
+
+    @Override
+    public String getNoticeCallback() {
+        return noticeCallback;
+    }
+
+    @DataBoundSetter
+    public void setNoticeCallback(String noticeCallback) {
+        this.noticeCallback = Util.fixEmptyAndTrim(noticeCallback);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends JobPropertyDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "LEO deploy endpoints";
+        }
+
+        @Override
+        public JobProperty<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            DeployJobProperty p = (DeployJobProperty) super.newInstance(req, formData);
+            // nothing to keep unless an endpoint is overridden
+            return p.deployCallback == null && p.noticeCallback == null ? null : p;
+        }
+    }
+}
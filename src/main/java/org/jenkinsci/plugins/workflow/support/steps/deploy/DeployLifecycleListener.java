@@ -0,0 +1,102 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.ExtensionPoint;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives the lifecycle events of every deploy step, e.g. to notify people or update a dashboard, without going through LEO.
+ *
+ * Each listener is called on its own thread, in the order the events happened,
+ * so a slow listener neither delays the step nor the other listeners.
+ * A listener falling more than {@link #QUEUE} events behind loses the newest ones,
+ * except for {@link DeployEventLog}, which queues events for its own writer and is called directly.
+ */
+public abstract class DeployLifecycleListener implements ExtensionPoint {
+    private static final Logger LOGGER = Logger.getLogger(DeployLifecycleListener.class.getName());
+
+    /** Events kept for each listener while it is busy. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int QUEUE = Integer.getInteger(DeployLifecycleListener.class.getName() + ".QUEUE", 1000);
+
+    /** One single threaded executor per listener; guarded by the class. */
+    private static final Map<DeployLifecycleListener, ExecutorService> dispatchers = new WeakHashMap<DeployLifecycleListener, ExecutorService>();
+
+    private static final AtomicLong dropped = new AtomicLong();
+
+    public abstract void onEvent(@Nonnull DeployEvent event);
+
+    /**
+     * Whether {@link #onEvent} only queues the event for a thread of the listener's own,
+     * so that it is called directly and loses nothing to the {@link #QUEUE} limit.
+     */
+    boolean queuesItself() {
+        return false;
+    }
+
+    private static synchronized ExecutorService dispatcher(DeployLifecycleListener listener) {
+        ExecutorService executor = dispatchers.get(listener);
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(QUEUE),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "DeployLifecycleListener " + listener.getClass().getName()));
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            dispatchers.put(listener, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Hands an event to every listener; returns without waiting for any of them.
+     */
+    static void fireAll(final DeployEvent event) {
+        Jenkins j = Jenkins.getInstance();
+        if (j == null) {
+            return;
+        }
+        for (final DeployLifecycleListener listener : j.getExtensionList(DeployLifecycleListener.class)) {
+            if (listener.queuesItself()) {
+                try {
+                    listener.onEvent(event);
+                } catch (RuntimeException x) {
+                    LOGGER.log(Level.WARNING, "failed to deliver " + event + " to " + listener, x);
+                }
+                continue;
+            }
+            try {
+                dispatcher(listener).execute(new Runnable() {
+                    @Override public void run() {
+                        try {
+                            listener.onEvent(event);
+                        } catch (RuntimeException x) {
+                            LOGGER.log(Level.WARNING, "failed to deliver " + event + " to " + listener, x);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException x) {
+                dropped.incrementAndGet();
+                LOGGER.log(Level.WARNING, "{0} is more than {1} events behind, dropping {2}", new Object[] {listener, QUEUE, event});
+            }
+        }
+    }
+
+    /**
+     * Events no listener saw since startup because it was too far behind.
+     */
+    static long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.security.ACL;
+import jenkins.util.Timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Settles deploys which were in flight when the controller went down.
+ *
+ * Every {@link DeployStepExecution} resumed in {@link DeployState#SUBMITTED} or {@link DeployState#DEPLOYING}
+ * registers here; shortly after the first one, all registered steps are checked against LEO together
+ * through {@link DeployStatusClient}. Steps LEO does not know the outcome of keep waiting for a callback.
+ */
+final class DeployReconciler {
+    private static final Logger LOGGER = Logger.getLogger(DeployReconciler.class.getName());
+
+    /** Seconds to collect resumed steps before querying LEO. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int COLLECT_DELAY = Integer.getInteger(DeployReconciler.class.getName() + ".COLLECT_DELAY", 5);
+
+    private static final DeployReconciler INSTANCE = new DeployReconciler();
+
+    private List<DeployStepExecution> resumed = new ArrayList<DeployStepExecution>();
+
+    private boolean scheduled;
+
+    private DeployReconciler() {}
+
+    static DeployReconciler get() {
+        return INSTANCE;
+    }
+
+    synchronized void add(DeployStepExecution execution) {
+        resumed.add(execution);
+        if (!scheduled) {
+            scheduled = true;
+            Timer.get().schedule(new Runnable() {
+                @Override public void run() {
+                    // the query blocks for as long as LEO takes, keep it off the shared timer
+                    CallbackExecutor.get().submit(new Runnable() {
+                        @Override public void run() {
+                            ACL.impersonate(ACL.SYSTEM, new Runnable() {
+                                @Override public void run() {
+                                    reconcile();
+                                }
+                            });
+                        }
+                    });
+                }
+            }, COLLECT_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    private void reconcile() {
+        List<DeployStepExecution> batch;
+        synchronized (this) {
+            batch = resumed;
+            resumed = new ArrayList<DeployStepExecution>();
+            scheduled = false;
+        }
+        if (!DeployStatusClient.isConfigured()) {
+            LOGGER.log(Level.FINE, "no deploy status callback configured, {0} resumed deploys keep waiting", batch.size());
+            return;
+        }
+        int settled = 0;
+        for (Map.Entry<DeployStepExecution, DeployStatusClient.Status> entry : DeployStatusClient.query(batch).entrySet()) {
+            try {
+                if (entry.getKey().applyRemoteStatus(entry.getValue())) {
+                    settled++;
+                }
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.WARNING, "failed to reconcile " + entry.getKey().getId() + " in " + entry.getKey().getRun(), x);
+            }
+        }
+        LOGGER.log(Level.INFO, "reconciled {0} of {1} resumed deploys with LEO", new Object[] {settled, batch.size()});
+    }
+}
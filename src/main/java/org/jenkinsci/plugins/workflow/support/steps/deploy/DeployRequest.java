@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * The parameters LEO sends to trigger a deploy.
+ */
+final class DeployRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String tenantId;
+    final String projectId;
+    final String appId;
+    final String tplId;
+    final String env;
+    final String userId;
+    final String userName;
+    final String nodeId;
+
+    DeployRequest(String tenantId, String projectId, String appId, String tplId, String env, String userId, String userName, String nodeId) {
+        this.tenantId = tenantId;
+        this.projectId = projectId;
+        this.appId = appId;
+        this.tplId = tplId;
+        this.env = env;
+        this.userId = userId;
+        this.userName = userName;
+        this.nodeId = nodeId;
+    }
+
+    static DeployRequest from(Map<String, Object> params) {
+        return new DeployRequest(string(params, "tenantId"), string(params, "projectId"), string(params, "appId"),
+                string(params, "tplId"), string(params, "env"), string(params, "userId"), string(params, "userName"),
+                string(params, "nodeId"));
+    }
+
+    /**
+     * The same request aimed at one of the targets of a {@link DeployStep}.
+     */
+    DeployRequest withTarget(DeployTarget target) {
+        return new DeployRequest(tenantId, projectId, appId, target.getTplId(), target.getEnv(), userId, userName, nodeId);
+    }
+
+    private static String string(Map<String, Object> params, String key) {
+        return params.get(key) == null ? "" : params.get(key).toString();
+    }
+
+    /**
+     * Whether every parameter needed to call the deploy url is present.
+     */
+    boolean isComplete() {
+        return StringUtils.isNotEmpty(tenantId) && StringUtils.isNotEmpty(projectId) && StringUtils.isNotEmpty(appId)
+                && StringUtils.isNotEmpty(env)
+                && StringUtils.isNotEmpty(tplId)
+                && StringUtils.isNotEmpty(userId)
+                && StringUtils.isNotEmpty(userName)
+                && StringUtils.isNotEmpty(nodeId);
+    }
+}
@@ -0,0 +1,213 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import com.google.common.collect.MapMaker;
+import hudson.model.Action;
+import hudson.model.Result;
+import hudson.model.Run;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deploy bookkeeping shared by the deploy steps of one run.
+ *
+ * Caches the run's {@link DeployAction} and keeps the run's {@link DeployingAction}s by node id.
+ * Pending and deploying steps are persisted in the run's {@link DeploySidecar} rather than in {@code build.xml},
+ * which only changes when the {@link DeployAction} comes or goes; the {@link DeployingAction}s are contributed
+ * to the run by {@link DeployingActionFactory}.
+ * All run action changes of one settlement go through {@link #settle} as one batch.
+ * Steps keep a reference to their holder; the run is only weakly referenced from here.
+ */
+final class DeployRunState {
+    private static final Logger LOGGER = Logger.getLogger(DeployRunState.class.getName());
+
+    private static final ConcurrentMap<Run<?, ?>, DeployRunState> STATES = new MapMaker().weakKeys().weakValues().makeMap();
+
+    private final Run<?, ?> run;
+
+    private DeployAction action;
+
+    /** Read from the build directory on first use, e.g. after a restart. */
+    private DeploySidecar sidecar;
+
+    private Map<String, DeployingAction> deploying;
+
+    private DeployRunState(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    static DeployRunState of(Run<?, ?> run) {
+        DeployRunState state = STATES.get(run);
+        if (state == null) {
+            DeployRunState fresh = new DeployRunState(run);
+            state = STATES.putIfAbsent(run, fresh);
+            if (state == null) {
+                state = fresh;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Gets the {@link DeployAction} of the run, adding one if there is none.
+     */
+    synchronized DeployAction getDeployAction() {
+        if (action == null) {
+            action = run.getAction(DeployAction.class);
+            if (action == null) {
+                run.addAction(action = new DeployAction());
+            }
+        }
+        return action;
+    }
+
+    private DeploySidecar sidecar() {
+        if (sidecar == null) {
+            sidecar = DeploySidecar.load(run.getRootDir());
+            if (sidecar == null) {
+                sidecar = migrate();
+            }
+            deploying = new LinkedHashMap<String, DeployingAction>();
+            for (String nodeId : sidecar.deploying) {
+                deploying.put(nodeId, new DeployingAction(Result.NOT_BUILT).withMessage(nodeId));
+            }
+        }
+        return sidecar;
+    }
+
+    /**
+     * Moves state kept in {@code build.xml} by older versions into a new sidecar, saved right away;
+     * the run drops it from {@code build.xml} the next time it is saved.
+     */
+    private DeploySidecar migrate() {
+        DeploySidecar fresh = DeploySidecar.empty(run.getRootDir());
+        List<Action> legacy = new ArrayList<Action>();
+        // not getAction(Class), which would ask DeployingActionFactory, i.e. come back here
+        for (Action a : run.getActions()) {
+            if (a instanceof DeployAction) {
+                fresh.pending.addAll(((DeployAction) a).takeLegacyIds());
+            } else if (a instanceof DeployingAction) {
+                fresh.deploying.add(((DeployingAction) a).getMessage());
+                legacy.add(a);
+            }
+        }
+        if (!legacy.isEmpty()) {
+            run.getActions().removeAll(legacy);
+        }
+        if (!fresh.pending.isEmpty() || !fresh.deploying.isEmpty()) {
+            // before the run is saved without them
+            try {
+                fresh.save();
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "failed to save the deploy state migrated from " + run, x);
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     * Input ids of the steps pending in the {@link DeployAction}.
+     */
+    synchronized List<String> getPendingIds() {
+        return Collections.unmodifiableList(sidecar().pending);
+    }
+
+    synchronized void addPending(String id) throws IOException {
+        if (!sidecar().pending.contains(id)) {
+            sidecar.pending.add(id);
+            sidecar.save();
+        }
+    }
+
+    /**
+     * Forgets a pending step without saving; see {@link #settle}.
+     *
+     * @return true if no step is pending any more
+     */
+    synchronized boolean dropPending(String id) {
+        sidecar().pending.remove(id);
+        return sidecar.pending.isEmpty();
+    }
+
+    synchronized void save() throws IOException {
+        sidecar().save();
+    }
+
+    /**
+     * Records that the deploy of the node named by the message of {@code a} is running in LEO.
+     */
+    synchronized void addDeploying(DeployingAction a) throws IOException {
+        sidecar();
+        deploying.put(a.getMessage(), a);
+        sidecar.deploying.remove(a.getMessage());
+        sidecar.deploying.add(a.getMessage());
+        sidecar.save();
+    }
+
+    synchronized Collection<DeployingAction> getDeployingActions() {
+        sidecar();
+        return new ArrayList<DeployingAction>(deploying.values());
+    }
+
+    /**
+     * Detaches a settled step: removes it from the {@link DeployAction} and forgets the deploy of its node,
+     * drops the {@link DeployAction} once no step is left in it, and adds {@code toAdd}.
+     * The sidecar is saved; the run only if its actions changed.
+     */
+    synchronized void settle(DeployStepExecution exec, String nodeId, Collection<? extends Action> toAdd) throws IOException, InterruptedException, TimeoutException {
+        sidecar();
+        deploying.remove(nodeId);
+        sidecar.deploying.remove(nodeId);
+        DeployAction a = action != null ? action : run.getAction(DeployAction.class);
+        DeployAction removed = null;
+        try {
+            if (a == null) {
+                dropPending(exec.getId());
+            } else if (a.detach(exec)) {
+                removed = a;
+                action = null;
+            }
+        } finally {
+            boolean saveRun = replaceActions(removed, toAdd);
+            sidecar.save();
+            if (saveRun) {
+                run.save();
+            }
+        }
+    }
+
+    /**
+     * Swaps {@code removed} for the first of {@code added} in place, so that the run's actions change in one step
+     * and no reader sees the {@link DeployAction} gone before what replaces it is there.
+     *
+     * @return whether the run's actions changed
+     */
+    private boolean replaceActions(@CheckForNull Action removed, Collection<? extends Action> added) {
+        List<Action> actions = run.getActions();
+        List<Action> rest = new ArrayList<Action>(added);
+        boolean changed = !rest.isEmpty();
+        if (removed != null) {
+            int i = actions.indexOf(removed);
+            if (i >= 0 && !rest.isEmpty()) {
+                actions.set(i, rest.remove(0));
+            } else {
+                actions.remove(removed);
+            }
+            changed = true;
+        }
+        if (!rest.isEmpty()) {
+            actions.addAll(rest);
+        }
+        return changed;
+    }
+}
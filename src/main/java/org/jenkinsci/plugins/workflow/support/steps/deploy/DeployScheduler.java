@@ -0,0 +1,301 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.GlobalConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sits between {@link DeployStepExecution#deploy} and the deploy callback, holding deploys back while the
+ * {@link DeploySlotRule}s they fall under have no free slot.
+ *
+ * Waiting deploys are served by weighted fair queuing: the production and the other deploys of each tenant are two flows,
+ * whose deploys get virtual finish times spaced by the inverse of the flow's weight, the tenant's weight times
+ * {@link #PRODUCTION_WEIGHT} for production. So a tenant queueing hundreds of deploys cannot starve one queueing a few,
+ * and production goes ahead more often without holding back everything else for as long as it keeps coming.
+ *
+ * A deploy fanned out to several {@link DeployTarget}s takes the slots of every target at once, and gives each target's
+ * back as soon as that target is done; whatever is left is released when the step settles.
+ *
+ * Deploys let in from the queue are triggered on a small pool of the scheduler's own rather than {@link jenkins.util.Timer}.
+ * The queue itself lives in memory: {@link DeployStepExecution#onResume} puts the deploys which were waiting back into it.
+ */
+final class DeployScheduler {
+    private static final Logger LOGGER = Logger.getLogger(DeployScheduler.class.getName());
+
+    /** Threads triggering deploys let in from the queue. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int THREADS = Integer.getInteger(DeployScheduler.class.getName() + ".THREADS", 4);
+
+    /** Seconds resumed deploys wait before queueing again, so that the deploys still running re-occupy their slots first. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static /* not final */ int RESUME_DELAY = Integer.getInteger(DeployScheduler.class.getName() + ".RESUME_DELAY", 5);
+
+    /** How many times the share of the other deploys of a tenant its production deploys get while both wait. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int PRODUCTION_WEIGHT = Integer.getInteger(DeployScheduler.class.getName() + ".PRODUCTION_WEIGHT", 4);
+
+    private static final DeployScheduler INSTANCE = new DeployScheduler();
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    /** Slot keys held by each running deploy, by {@link DeployTarget#key}. */
+    private final Map<DeployStepExecution, Map<String, List<String>>> running = new IdentityHashMap<DeployStepExecution, Map<String, List<String>>>();
+    private final Map<String, Integer> used = new HashMap<String, Integer>();
+    private final List<Waiter> waiting = new ArrayList<Waiter>();
+    /** Virtual finish time of the last deploy queued by each flow, production ones keyed by tenant plus {@code |production}. */
+    private final Map<String, Double> lastFinish = new HashMap<String, Double>();
+    private double virtualTime;
+    private long sequence;
+
+    private DeployScheduler() {
+        executor = new ScheduledThreadPoolExecutor(Math.max(THREADS, 1), new NamingThreadFactory(new DaemonThreadFactory(), "DeployScheduler"));
+        executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static DeployScheduler get() {
+        return INSTANCE;
+    }
+
+    private static DeployGlobalConfiguration config() {
+        return GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+    }
+
+    /**
+     * Takes the slots for every target of a deploy, or queues it until they are all free.
+     *
+     * @param requests one per target, all for the same tenant
+     * @param onGranted run as {@link ACL#SYSTEM} on the scheduler's pool once a queued deploy gets its slots
+     * @return 0 if the slots were taken and the deploy may go ahead now, otherwise its 1-based queue position
+     */
+    synchronized int acquire(DeployStepExecution execution, List<DeployRequest> requests, Runnable onGranted) {
+        Map<String, List<String>> slots = slotsFor(requests);
+        if (isFree(slots)) {
+            take(execution, slots);
+            return 0;
+        }
+        String tenantId = requests.get(0).tenantId;
+        boolean production = false;
+        for (DeployRequest request : requests) {
+            production |= config().isProduction(request.env);
+        }
+        String flow = production ? tenantId + "|production" : tenantId;
+        double weight = config().getTenantWeight(tenantId) * (production ? Math.max(PRODUCTION_WEIGHT, 1) : 1);
+        Double previous = lastFinish.get(flow);
+        double finish = Math.max(virtualTime, previous == null ? 0 : previous) + 1 / weight;
+        lastFinish.put(flow, finish);
+        Waiter waiter = new Waiter(execution, slots, finish, sequence++, onGranted);
+        waiting.add(waiter);
+        Collections.sort(waiting);
+        return waiting.indexOf(waiter) + 1;
+    }
+
+    /**
+     * Re-registers the slots of a deploy which was already running before a restart.
+     */
+    synchronized void occupy(DeployStepExecution execution, List<DeployRequest> requests) {
+        if (!running.containsKey(execution)) {
+            take(execution, slotsFor(requests));
+        }
+    }
+
+    /**
+     * Frees the slots of one target of a running deploy, e.g. once LEO reported on it, and lets waiting deploys in.
+     */
+    synchronized void release(DeployStepExecution execution, String target) {
+        Map<String, List<String>> held = running.get(execution);
+        if (held == null) {
+            return;
+        }
+        List<String> slots = held.remove(target);
+        if (held.isEmpty()) {
+            running.remove(execution);
+        }
+        if (slots != null) {
+            free(slots);
+            dispatch();
+        }
+    }
+
+    /**
+     * Frees the slots of a settled deploy, or drops it from the queue, and lets waiting deploys in.
+     */
+    synchronized void release(DeployStepExecution execution) {
+        Map<String, List<String>> held = running.remove(execution);
+        if (held != null) {
+            for (List<String> slots : held.values()) {
+                free(slots);
+            }
+        }
+        for (Iterator<Waiter> it = waiting.iterator(); it.hasNext();) {
+            if (it.next().execution == execution) {
+                it.remove();
+            }
+        }
+        if (waiting.isEmpty()) {
+            // nobody is behind, so fairness can start over
+            lastFinish.clear();
+            virtualTime = 0;
+        }
+        dispatch();
+    }
+
+    /**
+     * Lets in whatever waiting deploys the current {@link DeploySlotRule}s allow.
+     */
+    synchronized void rulesChanged() {
+        dispatch();
+    }
+
+    /**
+     * 1-based position of a deploy in the queue, 0 if it is not waiting.
+     */
+    synchronized int getPosition(DeployStepExecution execution) {
+        for (int i = 0; i < waiting.size(); i++) {
+            if (waiting.get(i).execution == execution) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private void dispatch() {
+        for (Iterator<Waiter> it = waiting.iterator(); it.hasNext();) {
+            final Waiter waiter = it.next();
+            if (!isFree(waiter.slots)) {
+                continue;
+            }
+            it.remove();
+            take(waiter.execution, waiter.slots);
+            virtualTime = Math.max(virtualTime, waiter.finish);
+            later(new Runnable() {
+                @Override public void run() {
+                    try {
+                        waiter.onGranted.run();
+                    } catch (RuntimeException x) {
+                        LOGGER.log(Level.WARNING, "failed to start queued deploy " + waiter.execution.getId(), x);
+                        release(waiter.execution);
+                    }
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs a task on the scheduler's pool as {@link ACL#SYSTEM}, for deploys going on to {@link #acquire} or to LEO.
+     */
+    void later(final Runnable task, long delay, TimeUnit unit) {
+        executor.schedule(new Runnable() {
+            @Override public void run() {
+                ACL.impersonate(ACL.SYSTEM, task);
+            }
+        }, delay, unit);
+    }
+
+    private Map<String, List<String>> slotsFor(List<DeployRequest> requests) {
+        List<DeploySlotRule> rules = config().getSlotRules();
+        Map<String, List<String>> slots = new LinkedHashMap<String, List<String>>();
+        for (DeployRequest request : requests) {
+            List<String> keys = new ArrayList<String>();
+            for (DeploySlotRule rule : rules) {
+                if (rule.appliesTo(request) && !keys.contains(rule.slotKey(request))) {
+                    keys.add(rule.slotKey(request));
+                }
+            }
+            slots.put(DeployTarget.key(request.tplId, request.env), keys);
+        }
+        return slots;
+    }
+
+    /**
+     * Whether every slot is free for as many deploys as the targets need, under the rules as they are now.
+     * A deploy needing more of a slot than its limit may still have it to itself, or it would wait forever.
+     */
+    private boolean isFree(Map<String, List<String>> slots) {
+        Map<String, Integer> needed = new HashMap<String, Integer>();
+        for (List<String> keys : slots.values()) {
+            for (String slot : keys) {
+                Integer n = needed.get(slot);
+                needed.put(slot, n == null ? 1 : n + 1);
+            }
+        }
+        List<DeploySlotRule> rules = config().getSlotRules();
+        for (Map.Entry<String, Integer> e : needed.entrySet()) {
+            Integer n = used.get(e.getKey());
+            if (n != null && n + e.getValue() > limitOf(rules, e.getKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The lowest limit of the rules a slot falls under, none if they were all removed since it was taken.
+     */
+    private static int limitOf(List<DeploySlotRule> rules, String slot) {
+        int limit = Integer.MAX_VALUE;
+        for (DeploySlotRule rule : rules) {
+            if (slot.startsWith(rule.scope())) {
+                limit = Math.min(limit, rule.getMaxConcurrent());
+            }
+        }
+        return limit;
+    }
+
+    private void take(DeployStepExecution execution, Map<String, List<String>> slots) {
+        for (List<String> keys : slots.values()) {
+            for (String slot : keys) {
+                Integer n = used.get(slot);
+                used.put(slot, n == null ? 1 : n + 1);
+            }
+        }
+        running.put(execution, new HashMap<String, List<String>>(slots));
+    }
+
+    private void free(List<String> slots) {
+        for (String slot : slots) {
+            Integer n = used.get(slot);
+            if (n == null || n <= 1) {
+                used.remove(slot);
+            } else {
+                used.put(slot, n - 1);
+            }
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        private final DeployStepExecution execution;
+        private final Map<String, List<String>> slots;
+        private final double finish;
+        private final long sequence;
+        private final Runnable onGranted;
+
+        private Waiter(DeployStepExecution execution, Map<String, List<String>> slots, double finish, long sequence, Runnable onGranted) {
+            this.execution = execution;
+            this.slots = slots;
+            this.finish = finish;
+            this.sequence = sequence;
+            this.onGranted = onGranted;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            int c = Double.compare(finish, o.finish);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+}
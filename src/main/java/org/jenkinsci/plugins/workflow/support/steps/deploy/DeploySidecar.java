@@ -0,0 +1,99 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.util.AtomicFileWriter;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deploy lifecycle state of a run, kept next to {@code build.xml} so that changing it does not rewrite the whole build:
+ * the input ids of the pending deploy steps, and the ids of the nodes whose deploy is running in LEO.
+ *
+ * The file is a few hundred bytes of JSON, replaced atomically on every change and deleted once nothing is pending.
+ */
+final class DeploySidecar {
+    private static final Logger LOGGER = Logger.getLogger(DeploySidecar.class.getName());
+
+    static final String FILE_NAME = "leo-deploy.json";
+
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    final List<String> pending = new CopyOnWriteArrayList<String>();
+
+    final List<String> deploying = new CopyOnWriteArrayList<String>();
+
+    private DeploySidecar(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the sidecar of a build directory.
+     *
+     * @return null if there is none yet
+     */
+    static DeploySidecar load(File buildDir) {
+        DeploySidecar sidecar = new DeploySidecar(new File(buildDir, FILE_NAME));
+        if (!sidecar.file.isFile()) {
+            return null;
+        }
+        try {
+            JSONObject json = JSONObject.fromObject(FileUtils.readFileToString(sidecar.file, "UTF-8"));
+            if (json.optInt("version") != VERSION) {
+                LOGGER.log(Level.WARNING, "ignoring {0} of unknown version", sidecar.file);
+                return empty(buildDir);
+            }
+            sidecar.pending.addAll(strings(json.optJSONArray("pending")));
+            sidecar.deploying.addAll(strings(json.optJSONArray("deploying")));
+        } catch (IOException | JSONException x) {
+            LOGGER.log(Level.WARNING, "failed to read " + sidecar.file, x);
+        }
+        return sidecar;
+    }
+
+    static DeploySidecar empty(File buildDir) {
+        return new DeploySidecar(new File(buildDir, FILE_NAME));
+    }
+
+    private static List<String> strings(JSONArray array) {
+        List<String> strings = new CopyOnWriteArrayList<String>();
+        if (array != null) {
+            for (Object o : array) {
+                strings.add(CompactForm.intern(o.toString()));
+            }
+        }
+        return strings;
+    }
+
+    /**
+     * Replaces the file with the current state, or deletes it if nothing is left.
+     */
+    void save() throws IOException {
+        if (pending.isEmpty() && deploying.isEmpty()) {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("failed to delete " + file);
+            }
+            return;
+        }
+        JSONObject json = new JSONObject();
+        json.put("version", VERSION);
+        json.put("pending", JSONArray.fromObject(pending));
+        json.put("deploying", JSONArray.fromObject(deploying));
+        AtomicFileWriter w = new AtomicFileWriter(file, "UTF-8");
+        try {
+            w.write(json.toString());
+            w.commit();
+        } finally {
+            w.abort();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Limits how many deploys may run at once in an environment, per project or per application,
+ * for example "at most 3 concurrent prod deploys per project".
+ */
+public class DeploySlotRule extends AbstractDescribableImpl<DeploySlotRule> {
+
+    /**
+     * environment the rule applies to, {@code *} for every environment
+     */
+    private final String env;
+    /**
+     * whether slots are counted per application rather than per project
+     */
+    private final boolean perApp;
+    private final int maxConcurrent;
+
+    @DataBoundConstructor
+    public DeploySlotRule(String env, boolean perApp, int maxConcurrent) {
+        this.env = Util.fixEmptyAndTrim(env) == null ? "*" : env.trim();
+        this.perApp = perApp;
+        this.maxConcurrent = Math.max(maxConcurrent, 1);
+    }
+
+    public String getEnv() {
+        return env;
+    }
+
+    public boolean isPerApp() {
+        return perApp;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    boolean appliesTo(DeployRequest request) {
+        return "*".equals(env) || env.equalsIgnoreCase(request.env);
+    }
+
+    /**
+     * What the rule limits, the same for rules which differ only in {@link #getMaxConcurrent}.
+     */
+    String scope() {
+        return env + (perApp ? "|app|" : "|project|");
+    }
+
+    /**
+     * Identifies the slots a request competes for under this rule, starting with its {@link #scope}.
+     */
+    String slotKey(DeployRequest request) {
+        String key = scope() + request.tenantId + '/' + request.projectId;
+        return perApp ? key + '/' + request.appId : key;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<DeploySlotRule> {
+        @Override
+        public String getDisplayName() {
+            return "Deploy slot rule";
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import net.sf.json.JSONObject;
+
+import javax.annotation.CheckForNull;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One timed phase of a deploy step, handed to every {@link DeploySpanExporter} once ended.
+ */
+public final class DeploySpan {
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final String name;
+    private final long startMillis;
+    private volatile long endMillis;
+    private volatile boolean error;
+    private final Map<String, String> attributes = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+    DeploySpan(String traceId, String spanId, @CheckForNull String parentSpanId, String name, long startMillis) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.startMillis = startMillis;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return null for the root span of a step
+     */
+    @CheckForNull
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return 0 while the span has not ended
+     */
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    public boolean isError() {
+        return error;
+    }
+
+    public Map<String, String> getAttributes() {
+        synchronized (attributes) {
+            return new LinkedHashMap<String, String>(attributes);
+        }
+    }
+
+    DeploySpan attribute(String key, @CheckForNull Object value) {
+        if (value != null) {
+            attributes.put(key, value.toString());
+        }
+        return this;
+    }
+
+    DeploySpan error(@CheckForNull Object cause) {
+        error = true;
+        return attribute("error", cause);
+    }
+
+    /**
+     * Ends the span and exports it; only the first call has an effect.
+     */
+    void end() {
+        synchronized (this) {
+            if (endMillis != 0) {
+                return;
+            }
+            endMillis = Math.max(System.currentTimeMillis(), startMillis);
+        }
+        DeploySpanExporter.exportAll(this);
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("traceId", traceId);
+        json.put("spanId", spanId);
+        if (parentSpanId != null) {
+            json.put("parentSpanId", parentSpanId);
+        }
+        json.put("name", name);
+        json.put("start", startMillis);
+        json.put("end", endMillis);
+        json.put("error", error);
+        json.put("attributes", getAttributes());
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return name + '[' + traceId + '/' + spanId + ", " + (endMillis - startMillis) + " ms]";
+    }
+}
@@ -0,0 +1,33 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.ExtensionPoint;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nonnull;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives the spans of every deploy step as they end, e.g. to ship them to a tracing backend.
+ *
+ * Exporters are called on the thread which ended the span, so they should hand slow work off.
+ */
+public abstract class DeploySpanExporter implements ExtensionPoint {
+    private static final Logger LOGGER = Logger.getLogger(DeploySpanExporter.class.getName());
+
+    public abstract void export(@Nonnull DeploySpan span);
+
+    static void exportAll(DeploySpan span) {
+        Jenkins j = Jenkins.getInstance();
+        if (j == null) {
+            return;
+        }
+        for (DeploySpanExporter exporter : j.getExtensionList(DeploySpanExporter.class)) {
+            try {
+                exporter.export(span);
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.WARNING, "failed to export " + span + " through " + exporter, x);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+/**
+ * Lifecycle of a {@link DeployStepExecution}.
+ *
+ * <pre>
+ * READY -&gt; SUBMITTED -&gt; DEPLOYING -&gt; SUCCEEDED
+ *   |          |            |
+ *   +----------+------------+-------&gt; ABORTED
+ * </pre>
+ *
+ * Every move is a compare-and-set on the step's {@link Outcome}, so of several concurrent requests exactly one wins.
+ */
+public enum DeployState {
+    /** Waiting for somebody to submit the deploy. */
+    READY,
+    /** Submitted, the deploy request to LEO is in flight. */
+    SUBMITTED,
+    /** LEO accepted the deploy and has not proceeded yet. */
+    DEPLOYING,
+    /** LEO proceeded, the step completed normally. */
+    SUCCEEDED,
+    /** Aborted by a user, by LEO or by a failed deploy request. */
+    ABORTED;
+
+    /**
+     * Whether the step has completed one way or the other.
+     */
+    public boolean isSettled() {
+        return this == SUCCEEDED || this == ABORTED;
+    }
+
+    /**
+     * Whether a deploy has been triggered and not settled yet.
+     */
+    public boolean isInProgress() {
+        return this == SUBMITTED || this == DEPLOYING;
+    }
+}
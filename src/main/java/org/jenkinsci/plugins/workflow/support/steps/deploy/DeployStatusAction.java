@@ -0,0 +1,52 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Cheap status endpoint for LEO to poll, e.g.
+ * {@code GET /leo-deploy-status/?job=folder/p&run=12&input=Deploy} answering {@code {"state":"DEPLOYING","settled":false}}.
+ *
+ * Served from {@link DeployStatusRegistry} with an {@code ETag}, so unchanged polls sent with {@code If-None-Match} get a 304.
+ */
+@Extension
+public class DeployStatusAction implements RootAction {
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return "leo-deploy-status";
+    }
+
+    public HttpResponse doIndex(@QueryParameter(required = true) String job, @QueryParameter(required = true) int run,
+                                @QueryParameter(required = true) String input) throws InterruptedException {
+        // only finds jobs the caller may read
+        Job<?, ?> j = Jenkins.getActiveInstance().getItemByFullName(job, Job.class);
+        if (j == null) {
+            return HttpResponses.notFound();
+        }
+        DeployStatusRegistry.Snapshot snapshot;
+        try {
+            snapshot = DeployStatusRegistry.get().lookup(j, run, input);
+        } catch (TimeoutException x) {
+            return HttpResponses.status(503);
+        }
+        return snapshot == null ? HttpResponses.notFound() : snapshot;
+    }
+}
@@ -0,0 +1,173 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asks LEO how triggered deploys are doing through {@link DeployGlobalConfiguration#getStatusCallback()}.
+ *
+ * Steps are sent in batches of {@link DeployGlobalConfiguration#getStatusBatchSize()}, all batches in parallel.
+ * The request body is {@code {"steps":[{runId, inputId, stepId, pipelineName, pipelineFullName}, ...]}} and LEO
+ * answers with the same keys plus a {@code status} of {@code success}, {@code failed} or {@code deploying} in
+ * {@code data}.
+ */
+final class DeployStatusClient {
+    private static final Logger LOGGER = Logger.getLogger(DeployStatusClient.class.getName());
+
+    /** Seconds to wait for all batches of one query, at most {@link DeployCallbackTransport#TIMEOUT}. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int QUERY_TIMEOUT = Integer.getInteger(DeployStatusClient.class.getName() + ".QUERY_TIMEOUT", 120);
+
+    /**
+     * What LEO knows about a deploy.
+     */
+    enum Status {
+        SUCCESS, FAILED, DEPLOYING, UNKNOWN
+    }
+
+    private DeployStatusClient() {}
+
+    @CheckForNull
+    private static String statusCallback() {
+        return StringUtils.trimToNull(GlobalConfiguration.all().get(DeployGlobalConfiguration.class).getStatusCallback());
+    }
+
+    static boolean isConfigured() {
+        return statusCallback() != null;
+    }
+
+    /**
+     * Queries LEO for every given step, blocking until all batches answered or timed out.
+     *
+     * @return the status of each step, {@link Status#UNKNOWN} for those LEO did not report on
+     */
+    static Map<DeployStepExecution, Status> query(Collection<DeployStepExecution> executions) {
+        Map<DeployStepExecution, Status> result = new IdentityHashMap<DeployStepExecution, Status>();
+        for (DeployStepExecution execution : executions) {
+            result.put(execution, Status.UNKNOWN);
+        }
+        String url = statusCallback();
+        if (url == null || executions.isEmpty()) {
+            return result;
+        }
+        int batchSize = Math.max(GlobalConfiguration.all().get(DeployGlobalConfiguration.class).getStatusBatchSize(), 1);
+        List<DeployStepExecution> all = new ArrayList<DeployStepExecution>(executions);
+        // the transport sends every batch on its own threads, we only wait for the answers
+        List<Future<DeployCallbackResult>> batches = new ArrayList<Future<DeployCallbackResult>>();
+        List<List<DeploySpan>> batchSpans = new ArrayList<List<DeploySpan>>();
+        for (int from = 0; from < all.size(); from += batchSize) {
+            JSONArray steps = new JSONArray();
+            List<DeploySpan> spans = new ArrayList<DeploySpan>();
+            for (DeployStepExecution execution : all.subList(from, Math.min(from + batchSize, all.size()))) {
+                steps.add(describe(execution));
+                spans.add(execution.span("status query").attribute("url", url));
+            }
+            // one request for many steps can only name one of their spans as its parent, the others point to it
+            String traceparent = DeployTrace.traceparent(spans.get(0));
+            for (DeploySpan span : spans) {
+                span.attribute("batch", traceparent);
+            }
+            JSONObject body = new JSONObject();
+            body.put("steps", steps);
+            batches.add(DeployCallbackTransport.get().send(new DeployCallbackRequest(url, body, Collections.singletonMap("traceparent", traceparent))));
+            batchSpans.add(spans);
+        }
+        Map<String, Status> reported = new HashMap<String, Status>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.min(QUERY_TIMEOUT, DeployCallbackTransport.TIMEOUT));
+        for (int i = 0; i < batches.size(); i++) {
+            Future<DeployCallbackResult> batch = batches.get(i);
+            DeployCallbackResult answer;
+            try {
+                answer = batch.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException | TimeoutException x) {
+                LOGGER.log(Level.WARNING, "deploy status query to " + url + " failed", x);
+                batch.cancel(true);
+                end(batchSpans.get(i), x);
+                continue;
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                for (int j = i; j < batches.size(); j++) {
+                    batches.get(j).cancel(true);
+                    end(batchSpans.get(j), "interrupted");
+                }
+                break;
+            }
+            if (!answer.isSuccess()) {
+                LOGGER.log(Level.WARNING, "deploy status query to {0} failed: {1}", new Object[] {url, answer});
+                end(batchSpans.get(i), answer.getFailure() != null ? answer.getFailure() : answer.getRtnMsg());
+                continue;
+            }
+            end(batchSpans.get(i), null);
+            reported.putAll(parse(answer.getJson()));
+        }
+        for (DeployStepExecution execution : executions) {
+            Status status = reported.get(key(execution.getRun().getParent().getFullName(), execution.getRun().getNumber(), execution.getStepId()));
+            if (status != null) {
+                result.put(execution, status);
+            }
+        }
+        return result;
+    }
+
+    private static void end(List<DeploySpan> spans, @CheckForNull Object error) {
+        for (DeploySpan span : spans) {
+            if (error != null) {
+                span.error(error);
+            }
+            span.end();
+        }
+    }
+
+    private static JSONObject describe(DeployStepExecution execution) {
+        JSONObject step = new JSONObject();
+        step.put("runId", execution.getRun().getNumber());
+        step.put("inputId", execution.getId());
+        step.put("stepId", execution.getStepId());
+        step.put("pipelineName", execution.getRun().getParent().getName());
+        step.put("pipelineFullName", execution.getRun().getParent().getFullName());
+        return step;
+    }
+
+    private static String key(String pipelineFullName, int runId, String stepId) {
+        return pipelineFullName + '#' + runId + '#' + stepId;
+    }
+
+    private static Map<String, Status> parse(@CheckForNull JSONObject response) {
+        Map<String, Status> statuses = new HashMap<String, Status>();
+        if (response == null || !(response.opt("data") instanceof JSONArray)) {
+            return statuses;
+        }
+        for (Object o : response.getJSONArray("data")) {
+            if (!(o instanceof JSONObject)) {
+                continue;
+            }
+            JSONObject step = (JSONObject) o;
+            Status status;
+            try {
+                status = Status.valueOf(step.optString("status").toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException x) {
+                status = Status.UNKNOWN;
+            }
+            statuses.put(key(step.optString("pipelineFullName"), step.optInt("runId"), step.optString("stepId")), status);
+        }
+        return statuses;
+    }
+}
@@ -0,0 +1,174 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.security.ACL;
+import jenkins.model.GlobalConfiguration;
+import jenkins.util.Timer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asks LEO how triggered deploys are doing, for LEO deployments which cannot reach Jenkins to call {@code proceed}.
+ *
+ * One task polls for every step in {@link DeployState#DEPLOYING}: each tick, the steps which are due are queried together
+ * through {@link DeployStatusClient}, and settled through {@link DeployStepExecution#applyRemoteStatus}.
+ * A step still deploying, or one LEO could not tell about, waits twice as long before its next poll,
+ * up to {@link DeployGlobalConfiguration#getMaxPollInterval}.
+ */
+final class DeployStatusPoller {
+    private static final Logger LOGGER = Logger.getLogger(DeployStatusPoller.class.getName());
+
+    /** Resolution of the poller in milliseconds. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ long TICK_MILLIS = Long.getLong(DeployStatusPoller.class.getName() + ".TICK_MILLIS", 1000);
+
+    private static final DeployStatusPoller INSTANCE = new DeployStatusPoller();
+
+    /** Guarded by this. */
+    private final Map<DeployStepExecution, Backoff> polled = new IdentityHashMap<DeployStepExecution, Backoff>();
+
+    private boolean started;
+
+    /** Whether a poll is running, so that a slow LEO does not pile up queries; guarded by this. */
+    private boolean polling;
+
+    private DeployStatusPoller() {}
+
+    static DeployStatusPoller get() {
+        return INSTANCE;
+    }
+
+    private static DeployGlobalConfiguration config() {
+        return GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+    }
+
+    /**
+     * Starts polling for a step which entered {@link DeployState#DEPLOYING}; a no-op unless polling is enabled.
+     */
+    synchronized void add(DeployStepExecution execution) {
+        DeployGlobalConfiguration config = config();
+        if (!config.isStatusPolling()) {
+            return;
+        }
+        if (!polled.containsKey(execution)) {
+            polled.put(execution, new Backoff(TimeUnit.SECONDS.toNanos(config.getPollInterval()), System.nanoTime()));
+        }
+        if (!started) {
+            Timer.get().scheduleWithFixedDelay(new Runnable() {
+                @Override public void run() {
+                    try {
+                        tick();
+                    } catch (RuntimeException x) {
+                        LOGGER.log(Level.WARNING, "deploy status poll failed", x);
+                    }
+                }
+            }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+            started = true;
+        }
+    }
+
+    synchronized void remove(DeployStepExecution execution) {
+        polled.remove(execution);
+    }
+
+    synchronized boolean isPolled(DeployStepExecution execution) {
+        return polled.containsKey(execution);
+    }
+
+    private void tick() {
+        final List<DeployStepExecution> due = new ArrayList<DeployStepExecution>();
+        synchronized (this) {
+            if (polling || polled.isEmpty()) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Map.Entry<DeployStepExecution, Backoff> e : polled.entrySet()) {
+                if (now - e.getValue().next >= 0) {
+                    due.add(e.getKey());
+                }
+            }
+            if (due.isEmpty()) {
+                return;
+            }
+            polling = true;
+        }
+        // the query blocks for as long as LEO takes, keep it off the shared timer
+        CallbackExecutor.get().submit(new Runnable() {
+            @Override public void run() {
+                ACL.impersonate(ACL.SYSTEM, new Runnable() {
+                    @Override public void run() {
+                        try {
+                            poll(due);
+                        } finally {
+                            synchronized (DeployStatusPoller.this) {
+                                polling = false;
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void poll(List<DeployStepExecution> due) {
+        if (!DeployStatusClient.isConfigured()) {
+            LOGGER.log(Level.FINE, "no deploy status callback configured, not polling {0} deploys", due.size());
+            backOff(due);
+            return;
+        }
+        List<DeployStepExecution> pending = new ArrayList<DeployStepExecution>();
+        for (Map.Entry<DeployStepExecution, DeployStatusClient.Status> entry : DeployStatusClient.query(due).entrySet()) {
+            DeployStepExecution execution = entry.getKey();
+            try {
+                if (execution.applyRemoteStatus(entry.getValue()) || !execution.getState().isInProgress()) {
+                    remove(execution);
+                } else {
+                    pending.add(execution);
+                }
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.WARNING, "failed to apply polled status of " + execution.getId() + " in " + execution.getRun(), x);
+                pending.add(execution);
+            }
+        }
+        backOff(pending);
+    }
+
+    private synchronized void backOff(List<DeployStepExecution> executions) {
+        long max = TimeUnit.SECONDS.toNanos(config().getMaxPollInterval());
+        long now = System.nanoTime();
+        for (DeployStepExecution execution : executions) {
+            Backoff backoff = polled.get(execution);
+            if (backoff != null) {
+                backoff.grow(max, now);
+            }
+        }
+    }
+
+    /**
+     * When a step is next polled.
+     */
+    static final class Backoff {
+        long interval;
+        long next;
+
+        Backoff(long interval, long now) {
+            this.interval = Math.max(interval, 1);
+            this.next = now + this.interval;
+        }
+
+        /**
+         * Doubles the interval up to {@code max}, with some jitter so that steps triggered together do not stay in lockstep.
+         */
+        void grow(long max, long now) {
+            interval = Math.max(Math.min(interval * 2, max), 1);
+            long jitter = interval / 10;
+            next = now + interval - jitter + (jitter > 0 ? ThreadLocalRandom.current().nextLong(2 * jitter) : 0);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import com.google.common.util.concurrent.SettableFuture;
+import hudson.model.Job;
+import hudson.model.Run;
+import jenkins.util.Timer;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.annotation.CheckForNull;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest status of each deploy step, published on every state transition so that polls are answered
+ * without going through {@link DeployAction#getExecution}.
+ *
+ * Snapshots of settled steps are kept for {@link #RETENTION} seconds so that LEO sees the final state.
+ */
+final class DeployStatusRegistry {
+
+    /** Seconds a settled step stays in the registry. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int RETENTION = Integer.getInteger(DeployStatusRegistry.class.getName() + ".RETENTION", 600);
+
+    private static final DeployStatusRegistry INSTANCE = new DeployStatusRegistry();
+
+    private final ConcurrentMap<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+
+    /** Lookups which missed the registry and are loading the step from its run. */
+    private final ConcurrentMap<String, SettableFuture<Snapshot>> loading = new ConcurrentHashMap<String, SettableFuture<Snapshot>>();
+
+    /** Distinguishes versions handed out before and after a restart. */
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    private final AtomicLong versions = new AtomicLong();
+
+    static DeployStatusRegistry get() {
+        return INSTANCE;
+    }
+
+    private static String key(String job, int run, String inputId) {
+        return job + '#' + run + '#' + inputId;
+    }
+
+    /**
+     * Records the current state of a step; publishing an unchanged state keeps the existing version.
+     *
+     * Transitions racing each other may call this out of order, so the state is read here rather than passed in,
+     * and read again once published: whoever publishes last publishes the latest state. A settled snapshot is never replaced.
+     */
+    Snapshot publish(DeployStepExecution execution) {
+        Run<?, ?> run = execution.getRun();
+        final String key = key(run.getParent().getFullName(), run.getNumber(), execution.getId());
+        while (true) {
+            DeployState state = execution.getState();
+            Snapshot current = snapshots.get(key);
+            Snapshot published;
+            if (current != null && (current.state == state || current.state.isSettled())) {
+                published = current;
+            } else {
+                Snapshot next = new Snapshot(state, epoch + '-' + versions.incrementAndGet());
+                if (current == null ? snapshots.putIfAbsent(key, next) != null : !snapshots.replace(key, current, next)) {
+                    continue;
+                }
+                if (state.isSettled()) {
+                    final Snapshot settled = next;
+                    Timer.get().schedule(new Runnable() {
+                        @Override public void run() {
+                            snapshots.remove(key, settled);
+                        }
+                    }, RETENTION, TimeUnit.SECONDS);
+                }
+                published = next;
+            }
+            if (published.state.isSettled() || execution.getState() == published.state) {
+                return published;
+            }
+        }
+    }
+
+    /**
+     * Finds the status of a step. Misses, e.g. right after a restart, fall back to loading the step from its run;
+     * concurrent misses for the same step share one load.
+     *
+     * @return null if the run has no such pending step and none settled recently
+     */
+    @CheckForNull
+    Snapshot lookup(Job<?, ?> job, int number, String inputId) throws InterruptedException, TimeoutException {
+        String key = key(job.getFullName(), number, inputId);
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        SettableFuture<Snapshot> load = SettableFuture.create();
+        SettableFuture<Snapshot> existing = loading.putIfAbsent(key, load);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (ExecutionException x) {
+                return null;
+            }
+        }
+        try {
+            Run<?, ?> run = job.getBuildByNumber(number);
+            DeployAction action = run == null ? null : run.getAction(DeployAction.class);
+            DeployStepExecution execution = action == null ? null : action.getExecution(inputId);
+            snapshot = execution == null ? null : publish(execution);
+            load.set(snapshot);
+            return snapshot;
+        } catch (InterruptedException | TimeoutException | RuntimeException x) {
+            load.setException(x);
+            throw x;
+        } finally {
+            loading.remove(key, load);
+        }
+    }
+
+    /**
+     * An immutable status; answers {@code If-None-Match} polls for the same version with 304.
+     */
+    static final class Snapshot implements HttpResponse {
+        private final DeployState state;
+        private final String etag;
+        private final String body;
+
+        private Snapshot(DeployState state, String version) {
+            this.state = state;
+            this.etag = '"' + version + '"';
+            JSONObject json = new JSONObject();
+            json.put("state", state.name());
+            json.put("settled", state.isSettled());
+            this.body = json.toString();
+        }
+
+        DeployState getState() {
+            return state;
+        }
+
+        String getETag() {
+            return etag;
+        }
+
+        @Override
+        public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException {
+            rsp.setHeader("ETag", etag);
+            rsp.setHeader("Cache-Control", "no-cache");
+            if (matches(req.getHeader("If-None-Match"))) {
+                rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            rsp.setStatus(HttpServletResponse.SC_OK);
+            rsp.setContentType("application/json;charset=UTF-8");
+            rsp.getWriter().print(body);
+        }
+
+        private boolean matches(@CheckForNull String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
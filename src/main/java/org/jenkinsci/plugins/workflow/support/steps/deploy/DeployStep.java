@@ -12,6 +12,12 @@ import org.jenkinsci.plugins.workflow.support.steps.input.InputStep;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -54,6 +60,16 @@ public class DeployStep extends InputStep {
      */
     private String ok;
 
+    /**
+     * Templates and environments to deploy to at once, empty to deploy to the one LEO asks for.
+     */
+    private List<DeployTarget> targets = Collections.emptyList();
+
+    /**
+     * How many of {@link #targets} must succeed, 0 for all of them.
+     */
+    private int quorum;
+
     @DataBoundConstructor
     public DeployStep(String message) {
         super(message);
@@ -143,6 +159,25 @@ public class DeployStep extends InputStep {
         return this.message;
     }
 
+    public List<DeployTarget> getTargets() {
+        // null when read from the default form of older versions
+        return targets == null ? Collections.<DeployTarget>emptyList() : targets;
+    }
+
+    @DataBoundSetter
+    public void setTargets(List<DeployTarget> targets) {
+        this.targets = targets == null ? Collections.<DeployTarget>emptyList() : targets;
+    }
+
+    public int getQuorum() {
+        return quorum;
+    }
+
+    @DataBoundSetter
+    public void setQuorum(int quorum) {
+        this.quorum = Math.max(quorum, 0);
+    }
+
     /** @deprecated */
     @Deprecated
     public boolean canSubmit() {
@@ -166,6 +201,86 @@ public class DeployStep extends InputStep {
     }
 
 
+    /**
+     * Program state is written in the compact {@link SerializedForm}, which skips the copies of the fields kept by {@link InputStep};
+     * the default form is only ever read, from state saved by older versions.
+     */
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
+    /**
+     * Versioned externalized form holding what a resumed step needs.
+     */
+    static final class SerializedForm implements Externalizable {
+        private static final long serialVersionUID = 1L;
+
+        /** Version 2 added the targets and their quorum. */
+        private static final byte VERSION = 2;
+
+        private DeployStep step;
+
+        public SerializedForm() {}
+
+        SerializedForm(DeployStep step) {
+            this.step = step;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(VERSION);
+            CompactForm.writeString(out, step.message);
+            CompactForm.writeString(out, step.getId());
+            CompactForm.writeString(out, step.submitter);
+            CompactForm.writeString(out, step.submitterParameter);
+            CompactForm.writeString(out, step.ok);
+            boolean hasParameters = step.parameters != null && !step.parameters.isEmpty();
+            out.writeBoolean(hasParameters);
+            if (hasParameters) {
+                out.writeObject(step.parameters);
+            }
+            List<DeployTarget> targets = step.getTargets();
+            out.writeInt(targets.size());
+            for (DeployTarget target : targets) {
+                CompactForm.writeString(out, target.getTplId());
+                CompactForm.writeString(out, target.getEnv());
+            }
+            out.writeInt(step.quorum);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            byte version = in.readByte();
+            if (version < 1 || version > VERSION) {
+                throw new InvalidObjectException("unsupported DeployStep form " + version);
+            }
+            step = new DeployStep(CompactForm.readString(in));
+            step.id = CompactForm.readString(in);
+            step.submitter = CompactForm.readString(in);
+            step.submitterParameter = CompactForm.readString(in);
+            step.ok = CompactForm.readString(in);
+            if (in.readBoolean()) {
+                step.parameters = (List<ParameterDefinition>) in.readObject();
+            }
+            if (version >= 2) {
+                int size = in.readInt();
+                if (size > 0) {
+                    List<DeployTarget> targets = new ArrayList<DeployTarget>(size);
+                    for (int i = 0; i < size; i++) {
+                        targets.add(new DeployTarget(CompactForm.readString(in), CompactForm.readString(in)));
+                    }
+                    step.targets = targets;
+                }
+                step.quorum = in.readInt();
+            }
+        }
+
+        private Object readResolve() {
+            return step;
+        }
+    }
+
     @Override
     public DescriptorImpl getDescriptor() {
         return new DescriptorImpl();
@@ -1,6 +1,9 @@
 package org.jenkinsci.plugins.workflow.support.steps.deploy;
 
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Inject;
 import hudson.FilePath;
 import hudson.Util;
@@ -9,22 +12,16 @@ import hudson.model.*;
 import hudson.security.ACL;
 import hudson.security.SecurityRealm;
 import hudson.util.HttpResponses;
+import jenkins.model.CauseOfInterruption;
 import jenkins.model.GlobalConfiguration;
 import jenkins.model.IdStrategy;
 import jenkins.model.Jenkins;
-import jenkins.util.Timer;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.acegisecurity.Authentication;
 import org.acegisecurity.GrantedAuthority;
 import org.apache.commons.collections.map.HashedMap;
 import org.apache.commons.lang.StringUtils;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.steps.FlowInterruptedException;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
@@ -33,10 +30,10 @@ import org.jenkinsci.plugins.workflow.support.steps.input.ApproverAction;
 import org.jenkinsci.plugins.workflow.support.steps.input.InputStepExecution;
 import org.jenkinsci.plugins.workflow.support.steps.input.POSTHyperlinkNote;
 import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.interceptor.RequirePOST;
-import org.springframework.util.CollectionUtils;
 
 import javax.annotation.CheckForNull;
 import javax.servlet.ServletException;
@@ -44,7 +41,12 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -60,11 +62,19 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
     private static final String NOTICE_SUCCESS = "success";
     private static final String NOTICE_ABORT = "abort";
 
-    private static final int STATUS_DEPLOYING = 999999;
-    private static final int STATUS_NOT_SUBMIT = 999998;
-    private static final int STATUS_ABORTED = 999997;
+    /** A deploy is already in progress. */
+    static final int STATUS_DEPLOYING = 999999;
+    /** Nothing has been submitted that could proceed. */
+    static final int STATUS_NOT_SUBMIT = 999998;
+    /** The step has already been settled. */
+    static final int STATUS_ABORTED = 999997;
+    /** The tenant is over its deploy rate limit, retry later. */
+    static final int STATUS_THROTTLED = 999996;
+    /** The deploy was accepted and will be triggered once the rate limit allows. */
+    static final int STATUS_QUEUED = 999995;
 
-    private static ConnectionManager connectionFactory = new ConnectionManager();
+    private static final AtomicReferenceFieldUpdater<DeployStepExecution, Outcome> OUTCOME =
+            AtomicReferenceFieldUpdater.newUpdater(DeployStepExecution.class, Outcome.class, "outcome");
 
     @StepContextParameter private transient Run run;
 
@@ -73,9 +83,43 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
     @StepContextParameter private transient FlowNode node;
 
     /**
-     * Result of the deploy.
+     * Result of the deploy, null while {@link DeployState#READY}.
+     * Only ever changed through {@link #OUTCOME} so that concurrent requests cannot both win a transition.
      */
-    private Outcome outcome;
+    private volatile Outcome outcome;
+
+    /**
+     * Wall-clock time at which {@link DeployWatchdog} gives up on the current phase, 0 if there is none.
+     */
+    private long deadline;
+
+    private transient DeployWatchdog.Deadline watchdog;
+
+    private transient DeployRunState runState;
+
+    /** Null in program state saved by older versions, in which case a new trace starts on resume. */
+    private DeployTrace trace;
+
+    /** Whether the submitted deploy waits in {@link DeployScheduler} for a slot, so that it can take its place again after a restart. */
+    private volatile boolean waitingForSlot;
+
+    /** Wall-clock time until which the deploy rate limit holds the submitted deploy back, 0 if it does not. */
+    private volatile long rateLimitedUntil;
+
+    /** Progress of each target once a step with {@link DeployStep#getTargets} has been triggered. */
+    private volatile DeployFanOut fanOut;
+
+    /** Id of this step under {@link DeployWebhookAction}; null in program state saved by older versions. */
+    private String webhookId;
+
+    /** Digest of the token minted for the webhook of this step. */
+    private volatile String webhookTokenDigest;
+
+    /** Tenant LEO first submitted the deploy for, whose webhook token is accepted from then on; null before. */
+    private volatile String tenantId;
+
+    /** The token itself, only known until the {@code ready} notice has carried it to LEO. */
+    private transient String webhookToken;
 
     @Inject(optional=true)
     DeployStep input;
@@ -89,8 +133,31 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
         }
     }
 
+    private synchronized DeployTrace trace() {
+        if (trace == null) {
+            trace = DeployTrace.start();
+        }
+        return trace;
+    }
+
+    /**
+     * Starts a span of this step for a request made on its behalf elsewhere, such as a status query.
+     */
+    DeploySpan span(String name) {
+        return trace().child(name);
+    }
+
     @Override
     public boolean start() throws Exception {
+        DeploySpan span = trace().child("start");
+        try {
+            return doStart();
+        } finally {
+            span.end();
+        }
+    }
+
+    private boolean doStart() throws Exception {
         // record this deploy
         getPauseAction().add(this);
 
@@ -109,19 +176,82 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
             // TODO would be even cooler to embed the parameter form right in the build log (hiding it after submission)
             listener.getLogger().println(HyperlinkNote.encodeTo(baseUrl, "Deploy requested"));
         }
+        webhookId = DeployWebhookAction.mint();
+        webhookToken = DeployWebhookAction.mint();
+        webhookTokenDigest = DeployWebhookAction.digest(webhookToken);
+        DeployWebhookAction.register(webhookId, this);
         // callback deploy start event
         postNoticeCallback(NOTICE_READY, null, null);
+        webhookToken = null;
+        DeployStatusRegistry.get().publish(this);
+        armWatchdog(DeployWatchdog.Phase.PENDING);
         return false;
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        DeployStatusRegistry.get().publish(this);
+        if (webhookId != null && !getState().isSettled()) {
+            DeployWebhookAction.register(webhookId, this);
+        }
+        Outcome o = outcome;
+        if (getState().isInProgress() && !isQueued()) {
+            // LEO may have finished while we were down
+            DeployReconciler.get().add(this);
+        }
+        if (o != null && o.getState() == DeployState.SUBMITTED && isQueued() && o.getNormal() instanceof Map) {
+            // the queues did not survive the restart, take a place in them again
+            final Outcome submitted = o;
+            final List<DeployRequest> requests = requests(DeployRequest.from((Map<String, Object>) o.getNormal()));
+            long delay = Math.max(rateLimitedUntil - System.currentTimeMillis(), TimeUnit.SECONDS.toMillis(DeployScheduler.RESUME_DELAY));
+            DeployScheduler.get().later(new Runnable() {
+                @Override public void run() {
+                    schedule(submitted, requests);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        if (o != null && o.getState() == DeployState.DEPLOYING && o.getNormal() instanceof Map) {
+            List<DeployRequest> requests = new ArrayList<DeployRequest>(requests(DeployRequest.from((Map<String, Object>) o.getNormal())));
+            DeployFanOut fanOut = this.fanOut;
+            if (fanOut != null) {
+                // targets LEO already reported on gave their slots back
+                List<String> deploying = fanOut.get(DeployFanOut.Status.DEPLOYING);
+                for (Iterator<DeployRequest> it = requests.iterator(); it.hasNext();) {
+                    DeployRequest request = it.next();
+                    if (!deploying.contains(DeployTarget.key(request.tplId, request.env))) {
+                        it.remove();
+                    }
+                }
+            }
+            DeployScheduler.get().occupy(this, requests);
+        }
+        if (getState() == DeployState.DEPLOYING) {
+            DeployStatusPoller.get().add(this);
+        }
+        DeployWatchdog.Phase phase = currentPhase();
+        if (phase == null) {
+            return;
+        }
+        synchronized (this) {
+            if (deadline > 0) {
+                watchdog = DeployWatchdog.get().arm(this, phase, deadline);
+                return;
+            }
+        }
+        // the deadline was not saved with the program, start counting again
+        armWatchdog(phase);
+    }
+
     @Override
     public void stop(Throwable cause) throws Exception {
         // JENKINS-37154: we might be inside the VM thread, so do not do anything which might block on the VM thread
-        Timer.get().submit(new Runnable() {
+        // and keep off the Timer, a mass abort brings hundreds of these at once
+        DeployAborts.get().submit(new Runnable() {
             @Override public void run() {
                 ACL.impersonate(ACL.SYSTEM, new Runnable() {
                     @Override public void run() {
-                        doAbort(null);
+                        abortProceed(null, true);
                     }
                 });
             }
@@ -133,6 +263,13 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
         return input.getId();
     }
 
+    /**
+     * Id of the flow node running this step, as sent to LEO in {@code stepId}.
+     */
+    String getStepId() {
+        return node.getId();
+    }
+
     @Override
     public DeployStep getInput() {
         return input;
@@ -148,17 +285,67 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
      */
     @Override
     public boolean isSettled() {
-        return outcome!=null && !outcome.isDeployed();
+        return getState() != DeployState.READY;
+    }
+
+    /**
+     * Moves {@link #outcome} from {@code expect} to {@code update} and publishes the new state to {@link DeployStatusRegistry}.
+     */
+    private boolean transition(@CheckForNull Outcome expect, @CheckForNull Outcome update) {
+        if (!OUTCOME.compareAndSet(this, expect, update)) {
+            return false;
+        }
+        DeployStatusRegistry.get().publish(this);
+        return true;
+    }
+
+    /**
+     * @return null if this step has no webhook
+     */
+    @CheckForNull
+    String getWebhookTokenDigest() {
+        return webhookTokenDigest;
+    }
+
+    /**
+     * Replaces the token of the step by one sent with a {@code ready} notice replayed after a restart,
+     * since the token sent first never reached LEO and is not kept.
+     */
+    void reissueWebhookToken(String digest) {
+        webhookTokenDigest = digest;
+    }
+
+    /**
+     * @return null until LEO has submitted the deploy
+     */
+    @CheckForNull
+    String getTenantId() {
+        return tenantId;
+    }
+
+    /**
+     * Current lifecycle state of this step.
+     */
+    public DeployState getState() {
+        return stateOf(outcome);
+    }
+
+    private static DeployState stateOf(@CheckForNull Outcome o) {
+        return o == null ? DeployState.READY : o.getState();
     }
 
     /**
      * Gets the {@link DeployAction} that this step should be attached to.
      */
     private DeployAction getPauseAction() {
-        DeployAction a = run.getAction(DeployAction.class);
-        if (a==null)
-            run.addAction(a=new DeployAction());
-        return a;
+        return runState().getDeployAction();
+    }
+
+    private DeployRunState runState() {
+        if (runState == null) {
+            runState = DeployRunState.of(run);
+        }
+        return runState;
     }
 
     @Override
@@ -206,125 +393,330 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
     @Override
     public HttpResponse proceed(@CheckForNull Map<String,Object> params) {
         if (params != null && params.get("deploy") != null && StringUtils.isNotEmpty(params.get("deploy").toString())) {
-            return deploy(params);
-        } else if (outcome == null || !outcome.isSubmitted()){
-//            return HttpResponses.error(STATUS_NOT_SUBMIT, "This deploy is not submitted, params error.");
-            return new CustomHttpResponses().status(200, STATUS_NOT_SUBMIT);
-//            throw new Failure("This deploy is not submitted.");
+            String key = DeployEventDedup.key(run, node.getId(), getId(), "deploy");
+            DeployEventDedup.Event event = new DeployEventDedup.Event();
+            DeployEventDedup.Event seen = DeployEventDedup.get().claim(key, event);
+            if (seen != null) {
+                // a retry by LEO, answer it like the request it repeats without touching the step
+                DeployEventDedup.get().countDuplicateRequest();
+                return new StatusResponse(seen.getRtnCode() != 0 ? seen.getRtnCode() : STATUS_DEPLOYING);
+            }
+            DeploySpan span = trace().child("submit");
+            HttpResponse rsp = null;
+            try {
+                StaplerRequest req = Stapler.getCurrentRequest();
+                if (req != null) {
+                    span.attribute("leo.traceparent", req.getHeader("traceparent"));
+                }
+                rsp = deploy(params);
+                if (rsp instanceof StatusResponse) {
+                    span.attribute("rtnCode", ((StatusResponse) rsp).getRtnCode());
+                }
+                return rsp;
+            } finally {
+                span.end();
+                int rtnCode = rsp instanceof StatusResponse ? ((StatusResponse) rsp).getRtnCode()
+                        : getState() == DeployState.ABORTED ? STATUS_ABORTED : STATUS_DEPLOYING;
+                if (rsp == null || rtnCode == STATUS_THROTTLED) {
+                    // the step went back to READY, so the retry LEO makes later must get through
+                    DeployEventDedup.get().forget(key, event);
+                } else {
+                    event.setRtnCode(rtnCode);
+                }
+            }
+        }
+        DeployFanOut fanOut = this.fanOut;
+        if (fanOut != null && params != null && params.get("tplId") != null && params.get("env") != null && getState().isInProgress()) {
+            HttpResponse rsp = reportTarget(fanOut, params);
+            if (rsp != null) {
+                return rsp;
+            }
+        }
+        Outcome current;
+        Outcome settled;
+        do {
+            current = outcome;
+            DeployState state = stateOf(current);
+            if (state == DeployState.READY) {
+                return new StatusResponse(STATUS_NOT_SUBMIT);
+            } else if (state.isSettled()) {
+                return new StatusResponse(STATUS_ABORTED);
+            }
+            settled = new Outcome(current.getNormal(), null, DeployState.SUCCEEDED);
+        } while (!transition(current, settled));
+
+        DeploySpan span = trace().child("proceed");
+        try {
+            return succeed(settled, params);
+        } finally {
+            span.end();
         }
+    }
+
+    private HttpResponse succeed(Outcome settled, @CheckForNull Map<String,Object> params) {
         User user = User.current();
         log("Deploy succeed.");
 
         String userId = null;
         String userName = null;
-        if (outcome != null && outcome.getNormal() != null) {
-            userId = ((Map<String, Object>)outcome.getNormal()).get("userId") == null ? null : ((Map<String, Object>)outcome.getNormal()).get("userId").toString();
-            userName = ((Map<String, Object>)outcome.getNormal()).get("userName") == null ? null : ((Map<String, Object>)outcome.getNormal()).get("userName").toString();
+        if (settled.getNormal() != null) {
+            userId = ((Map<String, Object>)settled.getNormal()).get("userId") == null ? null : ((Map<String, Object>)settled.getNormal()).get("userId").toString();
+            userName = ((Map<String, Object>)settled.getNormal()).get("userName") == null ? null : ((Map<String, Object>)settled.getNormal()).get("userName").toString();
         }
         // callback input success event
         postNoticeCallback(NOTICE_SUCCESS, userId, userName);
 
         String approverId = null;
+        ApproverAction approverAction = null;
         if (user != null){
             approverId = user.getId();
-            run.addAction(new ApproverAction(approverId));
+            approverAction = new ApproverAction(approverId);
 //            listener.getLogger().println("Deploy succeed by " + hudson.console.ModelHyperlinkNote.encodeTo(user));
             listener.getLogger().println("Deploy succeed by " + userName);
         }
         node.addAction(new DeploySubmittedAction(approverId, params));
-        outcome = new Outcome(outcome.getNormal(), null, true, true, true);
-
-        // remove DeployAction from run
-        run.getActions().remove(getPauseAction());
-        // remove DeployingAction from run
-        List<DeployingAction> deployingActionList = run.getActions(DeployingAction.class);
-        if (!CollectionUtils.isEmpty(deployingActionList)) {
-            for (DeployingAction deployingAction : deployingActionList) {
-                if (node.getId().equals(deployingAction.getMessage())) {
-                    run.getActions().remove(deployingAction);
-                }
-            }
-        }
 
-        postSettlement();
-        getContext().onSuccess(outcome.getNormal());
+        // drops DeployAction and DeployingAction from run along with adding ApproverAction
+        postSettlement(approverAction);
+        getContext().onSuccess(settled.getNormal());
         return HttpResponses.ok();
     }
 
     private HttpResponse deploy(@CheckForNull Map<String,Object> params) {
-        if (outcome != null) {
-//            throw new Failure("This deploy is submitted or is deployed");
-//            return HttpResponses.error(STATUS_DEPLOYING, "Do not allow the operation in the release.");
-//            return HttpResponses.status(STATUS_DEPLOYING);
-            return new CustomHttpResponses().status(200, STATUS_DEPLOYING);
+        Object v;
+        if (params != null && params.size() == 1) {
+            v = params.values().iterator().next();
+        } else {
+            // kept until the step settles, so share the ids repeated across steps
+            v = params == null ? null : CompactForm.compact(params);
+        }
+        Outcome submitted = new Outcome(v, null, DeployState.SUBMITTED);
+        if (!transition(null, submitted)) {
+            // somebody else already triggered (or settled) this deploy
+            return new StatusResponse(STATUS_DEPLOYING);
         }
-        outcome = new Outcome(null, null, null, true, null);
 
         //            log("Deployed by " + hudson.console.ModelHyperlinkNote.encodeTo(user));
-        String tenantId = params.get("tenantId") == null ? "" : params.get("tenantId").toString();
-        String projectId = params.get("projectId") == null ? "" : params.get("projectId").toString();
-        String appId = params.get("appId") == null ? "" : params.get("appId").toString();
-        String userId = params.get("userId") == null ? "" : params.get("userId").toString();
-        String userName = params.get("userName") == null ? "" : params.get("userName").toString();
-        String nodeId = params.get("nodeId") == null ? "" : params.get("nodeId").toString();
-        listener.getLogger().println("Deployed by " + userName);
-        String tplId = params.get("tplId") == null ? "" : params.get("tplId").toString();
-        String env = params.get("env") == null ? "" : params.get("env").toString();
-        if (StringUtils.isEmpty(tenantId) || StringUtils.isEmpty(projectId) || StringUtils.isEmpty(appId)
-                || StringUtils.isEmpty(env)
-                || StringUtils.isEmpty(tplId)
-                || StringUtils.isEmpty(userId)
-                || StringUtils.isEmpty(userName)
-                || StringUtils.isEmpty(nodeId)) {
+        // a fanned out deploy is admitted and scheduled as each of its targets
+        final List<DeployRequest> requests = requests(DeployRequest.from(params));
+        DeployRequest request = requests.get(0);
+        listener.getLogger().println("Deployed by " + request.userName);
+        if (!isComplete(requests)) {
             log("Params error, curl deploy url error.");
             LOGGER.warning("Params error, curl deploy url error. params: " + params.toString());
             preAbortCheck();
             FlowInterruptedException e = new FlowInterruptedException(Result.ABORTED, new ParamErrorRejection("Parmas error"));
-            outcome = new Outcome(null,e, null, true, null);
-            postSettlement();
+            if (!transition(submitted, new Outcome(null, e, DeployState.ABORTED))) {
+                return new StatusResponse(STATUS_ABORTED);
+            }
+            postSettlement(null);
             getContext().onFailure(e);
             return HttpResponses.ok();
         }
+        long wait = DeployAdmission.get().admit(requests);
+        if (wait == DeployAdmission.REJECTED) {
+            log("Deploy rejected, tenant %s is over its deploy rate limit for %s.", request.tenantId, request.env);
+            // back to READY so that LEO can retry later, perhaps for another tenant
+            transition(submitted, null);
+            return new StatusResponse(STATUS_THROTTLED);
+        }
+        if (tenantId == null) {
+            // whoever got a submission admitted first decides which tenant's webhook token this step accepts
+            tenantId = request.tenantId;
+        }
+        if (wait > 0) {
+            log("Deploy queued for %d seconds by the deploy rate limit of tenant %s.", TimeUnit.NANOSECONDS.toSeconds(wait), request.tenantId);
+            rateLimitedUntil = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(wait);
+            armWatchdog(DeployWatchdog.Phase.QUEUED);
+            final Outcome queued = submitted;
+            DeployScheduler.get().later(new Runnable() {
+                @Override public void run() {
+                    schedule(queued, requests);
+                }
+            }, wait, TimeUnit.NANOSECONDS);
+            return new StatusResponse(STATUS_QUEUED);
+        }
+        return schedule(submitted, requests);
+    }
+
+    /**
+     * The request for each target of this step, or just {@code request} if it has none.
+     */
+    private List<DeployRequest> requests(DeployRequest request) {
+        List<DeployTarget> targets = targets();
+        if (targets.isEmpty()) {
+            return Collections.singletonList(request);
+        }
+        List<DeployRequest> requests = new ArrayList<DeployRequest>(targets.size());
+        for (DeployTarget target : targets) {
+            requests.add(request.withTarget(target));
+        }
+        return requests;
+    }
+
+    /**
+     * Whether the submitted deploy is held back by the rate limit or by {@link DeployScheduler}, rather than sent to LEO.
+     */
+    private boolean isQueued() {
+        return waitingForSlot || rateLimitedUntil > 0;
+    }
+
+    private static boolean isComplete(List<DeployRequest> requests) {
+        for (DeployRequest request : requests) {
+            if (!request.isComplete()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Passes an admitted deploy through {@link DeployScheduler}, triggering it now or once a slot is free for every target.
+     */
+    private HttpResponse schedule(final Outcome submitted, final List<DeployRequest> requests) {
+        if (outcome != submitted) {
+            // aborted while queued
+            return new StatusResponse(STATUS_ABORTED);
+        }
+        waitingForSlot = true;
+        rateLimitedUntil = 0;
+        int position = DeployScheduler.get().acquire(this, requests, new Runnable() {
+            @Override public void run() {
+                log("Deploy slot is free, starting the deploy.");
+                triggerDeploy(submitted, requests);
+            }
+        });
+        if (position == 0) {
+            return triggerDeploy(submitted, requests);
+        }
+        synchronized (this) {
+            // unless it got a slot meanwhile, in which case triggerDeploy arms the next phase after this
+            if (waitingForSlot && (watchdog == null || watchdog.getPhase() != DeployWatchdog.Phase.QUEUED)) {
+                armWatchdog(DeployWatchdog.Phase.QUEUED);
+            }
+        }
+        log("Deploy waiting for a free deploy slot, position %d in queue.", position);
+        return new StatusResponse(STATUS_QUEUED);
+    }
+
+    /**
+     * REST endpoint telling LEO where a deploy stands, e.g. {@code {"state":"SUBMITTED","position":2}}.
+     * The position is 0 unless the deploy waits for a slot.
+     */
+    public HttpResponse doQueue() {
+        JSONObject json = new JSONObject();
+        json.put("state", getState().name());
+        json.put("position", DeployScheduler.get().getPosition(this));
+        DeployFanOut fanOut = this.fanOut;
+        if (fanOut != null) {
+            json.put("targets", fanOut.toJSON());
+        }
+        return new JsonResponse(json);
+    }
+
+    /**
+     * Sends an admitted deploy to LEO, calling the deploy url of every target at once.
+     * The step moves out of {@link DeployState#SUBMITTED} once LEO answered, see {@link #deployAnswered};
+     * the caller does not wait for that unless the answers are already in.
+     */
+    private HttpResponse triggerDeploy(final Outcome submitted, final List<DeployRequest> requests) {
+        DeployRequest request = requests.get(0);
+        waitingForSlot = false;
+        if (outcome != submitted) {
+            // aborted while queued
+            DeployScheduler.get().release(this);
+            return new StatusResponse(STATUS_ABORTED);
+        }
         // callback deploy submitted event
-        postNoticeCallback(NOTICE_SUBMITTED, userId, userName);
+        postNoticeCallback(NOTICE_SUBMITTED, request.userId, request.userName);
 
-        // curl input url
-        String deployUrl = GlobalConfiguration.all().get(DeployGlobalConfiguration.class).getDeployCallback();
-        String url = MessageFormat.format(deployUrl, tenantId, projectId, appId, tplId, env);
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("runId", run.getNumber());
-        jsonObject.put("nodeId", nodeId);
-        jsonObject.put("inputId", getId());
-        jsonObject.put("stepId", node.getId());
-        jsonObject.put("pipelineId", run.getParent().getName());
-        jsonObject.put("devopsId", run.getParent().getParent() == null ? "" : run.getParent().getParent().getFullName());
         log("Deploy envent start");
-        Boolean result = post(url, jsonObject, userId, userName);
+        final List<DeployTarget> targets = targets();
+        if (!targets.isEmpty()) {
+            // before the calls go out, LEO may report on a target as soon as it accepted it
+            this.fanOut = new DeployFanOut(targets, input.getQuorum());
+        }
+        final CauseOfInterruption rejection = new Rejection(User.current());
+        final List<DeploySpan> spans = new ArrayList<DeploySpan>();
+        final List<ListenableFuture<DeployCallbackResult>> answers = new ArrayList<ListenableFuture<DeployCallbackResult>>();
+        for (int i = 0; i < requests.size(); i++) {
+            DeploySpan span = trace().child(targets.isEmpty() ? "deploy trigger" : "deploy trigger " + targets.get(i));
+            spans.add(span);
+            answers.add(DeployCallbackTransport.withTimeout(DeployCallbackTransport.get().send(deployCallback(span, requests.get(i)))));
+        }
+        ListenableFuture<List<DeployCallbackResult>> all = Futures.successfulAsList(answers);
+        if (all.isDone()) {
+            return deployAnswered(submitted, request, rejection, spans, answers);
+        }
+        all.addListener(new Runnable() {
+            @Override public void run() {
+                ACL.impersonate(ACL.SYSTEM, new Runnable() {
+                    @Override public void run() {
+                        try {
+                            deployAnswered(submitted, requests.get(0), rejection, spans, answers);
+                        } catch (RuntimeException x) {
+                            LOGGER.log(Level.WARNING, "failed to handle the answer to the deploy of " + getId() + " in " + run, x);
+                        }
+                    }
+                });
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return HttpResponses.ok();
+    }
+
+    /**
+     * Moves out of {@link DeployState#SUBMITTED} according to what LEO answered to the deploy calls,
+     * on whichever thread brought in the last answer. Targets LEO did not accept count as failed.
+     */
+    private HttpResponse deployAnswered(Outcome submitted, DeployRequest request, CauseOfInterruption rejection,
+                                        List<DeploySpan> spans, List<? extends Future<DeployCallbackResult>> answers) {
+        boolean result;
+        CauseOfInterruption cause;
+        DeployFanOut fanOut = this.fanOut;
+        if (fanOut == null) {
+            result = answered(spans.get(0), answers.get(0));
+            cause = rejection;
+        } else {
+            List<DeployTarget> targets = targets();
+            for (int i = 0; i < targets.size(); i++) {
+                if (!answered(spans.get(i), answers.get(i))) {
+                    log("Deploy to %s could not be started.", targets.get(i));
+                    if (fanOut.record(targets.get(i).toString(), DeployFanOut.Status.FAILED)) {
+                        DeployScheduler.get().release(this, targets.get(i).toString());
+                    }
+                }
+            }
+            result = fanOut.verdict() != DeployFanOut.Verdict.FAILED;
+            cause = new TargetsFailedRejection(fanOut.get(DeployFanOut.Status.FAILED));
+        }
         if (result) {
+            if (!transition(submitted, new Outcome(submitted.getNormal(), null, DeployState.DEPLOYING))) {
+                // LEO already proceeded, or the step was aborted, while the request was in flight
+                LOGGER.log(Level.FINE, "{0} in {1} settled while deploying", new Object[] {getId(), run});
+                return HttpResponses.ok();
+            }
             DeployingAction deployingAction = new DeployingAction(Result.NOT_BUILT);
             deployingAction = deployingAction.withMessage(node.getId());
             node.addAction(deployingAction);
-            run.addAction(deployingAction);
-            Object v;
-            if (params != null && params.size() == 1) {
-                v = params.values().iterator().next();
-            } else {
-                v = params;
+            try {
+                runState().addDeploying(deployingAction);
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "failed to record deploying state of " + run, x);
             }
-            outcome = new Outcome(v, null, false, true, null);
+            armWatchdog(DeployWatchdog.Phase.DEPLOYING);
+            DeployStatusPoller.get().add(this);
+            fire(DeployEvent.Type.DEPLOYING, request.userId, request.userName);
             return HttpResponses.ok();
         } else {
             log("Deploy error.");
+            FlowInterruptedException e = new FlowInterruptedException(Result.ABORTED, cause);
+            if (!transition(submitted, new Outcome(null, e, DeployState.ABORTED))) {
+                return new StatusResponse(STATUS_ABORTED);
+            }
             // callback deploy abort event
-            postNoticeCallback(NOTICE_ABORT, userId, userName);
+            postNoticeCallback(NOTICE_ABORT, request.userId, request.userName);
 
-            FlowInterruptedException e = new FlowInterruptedException(Result.ABORTED, new Rejection(User.current()));
-            if (outcome == null) {
-                outcome = new Outcome(null, e, null, null, true);
-            } else {
-                outcome = new Outcome(null,e, outcome.isDeployed(), outcome.isSubmitted(), true);
-            }
-            postSettlement();
+            postSettlement(null);
             getContext().onFailure(e);
 
             // TODO: record this decision to FlowNode
@@ -332,6 +724,87 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
         }
     }
 
+    /**
+     * Ends the span of a callback which has been answered.
+     *
+     * @return whether LEO accepted it
+     */
+    private boolean answered(DeploySpan span, Future<DeployCallbackResult> answer) {
+        try {
+            boolean result = answer(span, answer, 0);
+            if (!result) {
+                span.error("callback failed");
+            }
+            return result;
+        } finally {
+            span.end();
+        }
+    }
+
+    private List<DeployTarget> targets() {
+        return input == null ? Collections.<DeployTarget>emptyList() : input.getTargets();
+    }
+
+    /**
+     * The call of the deploy url for {@code request}, within {@code span}.
+     */
+    private DeployCallbackRequest deployCallback(DeploySpan span, DeployRequest request) {
+        // curl input url
+        String deployUrl = DeployCallbacks.deployCallback(run.getParent());
+        String url = MessageFormat.format(deployUrl, request.tenantId, request.projectId, request.appId, request.tplId, request.env);
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("runId", run.getNumber());
+        jsonObject.put("nodeId", request.nodeId);
+        jsonObject.put("inputId", getId());
+        jsonObject.put("stepId", node.getId());
+        jsonObject.put("pipelineId", run.getParent().getName());
+        jsonObject.put("devopsId", run.getParent().getParent() == null ? "" : run.getParent().getParent().getFullName());
+        span.attribute("url", url);
+        return callback(span, false, url, jsonObject, request.userId, request.userName, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Records what LEO reports for one target of a fanned out deploy, settling the step once the verdict is in.
+     *
+     * @return null if the report settles the step as a success, which the caller then does
+     */
+    @CheckForNull
+    private HttpResponse reportTarget(DeployFanOut fanOut, Map<String,Object> params) {
+        String target = DeployTarget.key(params.get("tplId").toString(), params.get("env").toString());
+        boolean failed = "failed".equals(params.get("status"));
+        if (!fanOut.contains(target)) {
+            LOGGER.log(Level.WARNING, "{0} is not a target of {1} in {2}", new Object[] {target, getId(), run});
+            return new StatusResponse(STATUS_NOT_SUBMIT);
+        }
+        // a repeated report, or one for a target whose deploy call failed, has no slot left to give back
+        if (fanOut.record(target, failed ? DeployFanOut.Status.FAILED : DeployFanOut.Status.SUCCEEDED)) {
+            DeployScheduler.get().release(this, target);
+            log("Deploy to %s %s.", target, failed ? "failed" : "succeeded");
+        }
+        DeployFanOut.Verdict verdict = fanOut.verdict();
+        if (verdict == DeployFanOut.Verdict.PENDING) {
+            return HttpResponses.ok();
+        }
+        log("Deploy %s.", fanOut.summary());
+        if (verdict == DeployFanOut.Verdict.SUCCEEDED) {
+            return null;
+        }
+        FlowInterruptedException e = new FlowInterruptedException(Result.FAILURE, new TargetsFailedRejection(fanOut.get(DeployFanOut.Status.FAILED)));
+        Outcome current;
+        do {
+            current = outcome;
+            if (stateOf(current).isSettled()) {
+                return new StatusResponse(STATUS_ABORTED);
+            }
+        } while (!transition(current, new Outcome(null, e, DeployState.ABORTED)));
+        DeploySpan span = trace().child("abort");
+        try {
+            return abort(current, e, null, false);
+        } finally {
+            span.end();
+        }
+    }
+
     @Deprecated
     @SuppressWarnings("unchecked")
     public HttpResponse proceed(Object v) {
@@ -375,52 +848,57 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
     }
 
     public HttpResponse doAbortProcceed(@CheckForNull Map<String,Object> params) {
+        return abortProceed(params, false);
+    }
+
+    /**
+     * @param stopping whether the build is being stopped, in which case the abort notice goes out with a batch of {@link DeployAborts}
+     */
+    private HttpResponse abortProceed(@CheckForNull Map<String,Object> params, boolean stopping) {
         preAbortCheck();
-        if (outcome!=null && outcome.isAborted()) {
-//            throw new Failure("This deploy has been already given");
-            return new CustomHttpResponses().status(200, STATUS_ABORTED);
-//            HttpResponses.error(STATUS_ABORTED, "This deploy has been already given");
-        }
-        if (userCancelFlag(params)  && outcome!=null && (outcome.isSubmitted() || outcome.isDeployed())) {
-            // 用户点击取消
-//            return HttpResponses.error(STATUS_DEPLOYING, "Do not allow the operation in the release.");
-//            return HttpResponses.status(STATUS_DEPLOYING);
-            return new CustomHttpResponses().status(200, STATUS_DEPLOYING);
+        FlowInterruptedException e = new FlowInterruptedException(Result.ABORTED, new Rejection(User.current()));
+        Outcome current;
+        do {
+            current = outcome;
+            DeployState state = stateOf(current);
+            if (state.isSettled()) {
+                return new StatusResponse(STATUS_ABORTED);
+            }
+            if (userCancelFlag(params) && state.isInProgress()) {
+                // 用户点击取消
+                return new StatusResponse(STATUS_DEPLOYING);
+            }
+        } while (!transition(current, new Outcome(null, e, DeployState.ABORTED)));
+
+        DeploySpan span = trace().child("abort");
+        try {
+            return abort(current, e, params, stopping);
+        } finally {
+            span.end();
         }
+    }
+
+    private HttpResponse abort(@CheckForNull Outcome current, FlowInterruptedException e, @CheckForNull Map<String,Object> params, boolean stopping) {
         String userId = null;
         String userName = null;
-        if (outcome != null && outcome.getNormal() != null) {
-            userId = ((Map<String, Object>)outcome.getNormal()).get("userId") == null ? null : ((Map<String, Object>)outcome.getNormal()).get("userId").toString();
-            userName = ((Map<String, Object>)outcome.getNormal()).get("userName") == null ? null : ((Map<String, Object>)outcome.getNormal()).get("userName").toString();
+        if (current != null && current.getNormal() != null) {
+            userId = ((Map<String, Object>)current.getNormal()).get("userId") == null ? null : ((Map<String, Object>)current.getNormal()).get("userId").toString();
+            userName = ((Map<String, Object>)current.getNormal()).get("userName") == null ? null : ((Map<String, Object>)current.getNormal()).get("userName").toString();
         } else {
             if (params != null) {
                 userId = params.get("userId") == null ? null : params.get("userId").toString();
                 userName = params.get("userName") == null ? null : params.get("userName").toString();
             }
         }
-        FlowInterruptedException e = new FlowInterruptedException(Result.ABORTED, new Rejection(User.current()));
-        if (outcome == null) {
-            outcome = new Outcome(null, e, null, null, true);
+        // callback deploy abort event
+        if (stopping) {
+            queueAbortNotice(userId, userName);
         } else {
-            outcome = new Outcome(null,e, outcome.isDeployed(), outcome.isSubmitted(), true);
+            postNoticeCallback(NOTICE_ABORT, userId, userName);
         }
 
-        // callback deploy abort event
-        postNoticeCallback(NOTICE_ABORT, userId, userName);
-
         // TODO: record this decision to FlowNode
-        run.getActions().remove(getPauseAction());
-        // remove DeployingAction from run
-        List<DeployingAction> deployingActionList = run.getActions(DeployingAction.class);
-        if (!CollectionUtils.isEmpty(deployingActionList)) {
-            for (DeployingAction deployingAction : deployingActionList) {
-                if (node.getId().equals(deployingAction.getMessage())) {
-                    run.getActions().remove(deployingAction);
-                }
-            }
-        }
-
-        postSettlement();
+        postSettlement(null);
         getContext().onFailure(e);
         return HttpResponses.ok();
     }
@@ -443,7 +921,7 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
      */
     @Override
     public void preSubmissionCheck() {
-        if (outcome!=null && outcome.isDeployed())
+        if (getState() == DeployState.SUCCEEDED)
             throw new Failure("This deploy has been already given");
         if (!canSubmit()) {
             if (input.getSubmitter() != null) {
@@ -454,10 +932,119 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
         }
     }
 
-    private void postSettlement() {
+    /**
+     * Which {@link DeployWatchdog} phase this step is in, or null if none applies.
+     */
+    @CheckForNull
+    DeployWatchdog.Phase currentPhase() {
+        switch (getState()) {
+            case READY:
+                return DeployWatchdog.Phase.PENDING;
+            case SUBMITTED:
+                return isQueued() ? DeployWatchdog.Phase.QUEUED : null;
+            case DEPLOYING:
+                return DeployWatchdog.Phase.DEPLOYING;
+            default:
+                return null;
+        }
+    }
+
+    private synchronized void armWatchdog(DeployWatchdog.Phase phase) {
+        disarmWatchdog();
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        long ttl;
+        switch (phase) {
+            case PENDING:
+                ttl = config.getPendingTimeout();
+                break;
+            case QUEUED:
+                ttl = config.getQueuedTimeout();
+                break;
+            default:
+                ttl = config.getDeployingTimeout();
+        }
+        if (ttl > 0) {
+            deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl);
+            watchdog = DeployWatchdog.get().arm(this, phase, deadline);
+        }
+    }
+
+    private synchronized void disarmWatchdog() {
+        if (watchdog != null) {
+            watchdog.cancel();
+            watchdog = null;
+        }
+        deadline = 0;
+    }
+
+    /**
+     * Called by {@link DeployWatchdog} once the deadline of {@code phase} has passed.
+     *
+     * @param status what LEO reported for a {@link DeployWatchdog.Phase#DEPLOYING} step, asked along with the other steps
+     *               expiring at the same time, or null if LEO was not asked or does not know
+     */
+    void onWatchdogExpired(DeployWatchdog.Phase phase, @CheckForNull DeployStatusClient.Status status) {
+        if (currentPhase() != phase) {
+            // settled or moved on in the meantime
+            return;
+        }
+        if (phase == DeployWatchdog.Phase.PENDING) {
+            log("Deploy was not submitted in time, aborting.");
+        } else if (phase == DeployWatchdog.Phase.QUEUED) {
+            log("Deploy was still queued when its time ran out, aborting.");
+        } else {
+            if (status == DeployStatusClient.Status.DEPLOYING) {
+                log("LEO reports the deploy is still running.");
+                armWatchdog(DeployWatchdog.Phase.DEPLOYING);
+                return;
+            }
+            if (status != null && applyRemoteStatus(status)) {
+                return;
+            }
+            log("LEO did not report the deploy result in time, aborting.");
+        }
+        try {
+            doAbortProcceed(null);
+        } catch (RuntimeException x) {
+            LOGGER.log(Level.WARNING, "failed to abort expired deploy " + getId() + " in " + run, x);
+        }
+    }
+
+    /**
+     * Settles a triggered deploy according to what LEO reported out of band.
+     *
+     * @return true if the step was settled
+     */
+    boolean applyRemoteStatus(DeployStatusClient.Status status) {
+        if (!getState().isInProgress()) {
+            return false;
+        }
+        switch (status) {
+            case SUCCESS:
+                log("LEO reports the deploy succeeded.");
+                return !(proceed((Map<String, Object>) null) instanceof StatusResponse);
+            case FAILED:
+                log("LEO reports the deploy failed.");
+                return !(doAbortProcceed(null) instanceof StatusResponse);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param toAdd an action to add to the run in the same batch as the removal of this step's actions, or null
+     */
+    private void postSettlement(@CheckForNull Action toAdd) {
+        trace().root("leoDeploy").attribute("job", run.getParent().getFullName()).attribute("run", run.getNumber())
+                .attribute("inputId", getId()).attribute("state", getState()).end();
+        disarmWatchdog();
+        DeployStatusPoller.get().remove(this);
+        if (webhookId != null) {
+            DeployWebhookAction.unregister(webhookId, this);
+        }
+        DeployScheduler.get().release(this);
         try {
-            getPauseAction().remove(this);
-            run.save();
+            runState().settle(this, node.getId(), toAdd == null ? Collections.<Action>emptyList() : Collections.singletonList(toAdd));
         } catch (IOException | InterruptedException | TimeoutException x) {
             LOGGER.log(Level.WARNING, "failed to remove DeployAction from " + run, x);
         } finally {
@@ -474,12 +1061,22 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
     }
 
     private boolean canCancel() {
-        return !Jenkins.getActiveInstance().isUseSecurity() || getRun().getParent().hasPermission(Job.CANCEL);
+        return DeployAuthorizationCache.get().decide(Jenkins.getAuthentication(), getRun().getParent(), DeployAuthorizationCache.Action.CANCEL, null,
+                new DeployAuthorizationCache.Check() {
+                    @Override public boolean check() {
+                        return !Jenkins.getActiveInstance().isUseSecurity() || getRun().getParent().hasPermission(Job.CANCEL);
+                    }
+                });
     }
 
     private boolean canSubmit() {
-        Authentication a = Jenkins.getAuthentication();
-        return canSettle(a);
+        final Authentication a = Jenkins.getAuthentication();
+        return DeployAuthorizationCache.get().decide(a, getRun().getParent(), DeployAuthorizationCache.Action.SUBMIT, input.getSubmitter(),
+                new DeployAuthorizationCache.Check() {
+                    @Override public boolean check() {
+                        return canSettle(a);
+                    }
+                });
     }
 
     /**
@@ -583,14 +1180,23 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
         }
     }
 
+    /**
+     * Tells every {@link DeployLifecycleListener}, whether or not LEO is notified.
+     */
+    private void fire(DeployEvent.Type type, @CheckForNull String userId, @CheckForNull String userName) {
+        DeployLifecycleListener.fireAll(new DeployEvent(type, run.getParent().getFullName(), run.getNumber(), getId(), node.getId(),
+                userId, userName, System.currentTimeMillis()));
+    }
+
     /**
      *
      * @param type ready、success、abort
      * @return
      */
     public Boolean postNoticeCallback(String type, String userId, String userName)  {
+        fire(DeployEvent.Type.valueOf(type.toUpperCase(Locale.ENGLISH)), userId, userName);
         // callback deploy start event
-        String noticeCallback = GlobalConfiguration.all().get(DeployGlobalConfiguration.class).getNoticeCallback();
+        String noticeCallback = DeployCallbacks.noticeCallback(run.getParent());
         try {
             if (StringUtils.isEmpty(noticeCallback)) {
                 log("Notice envent url param error.");
@@ -604,6 +1210,63 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
                 return true;
             }
         }
+        final String key = DeployEventDedup.key(run, node.getId(), getId(), "notice " + type);
+        final DeployEventDedup.Event event = new DeployEventDedup.Event();
+        if (DeployEventDedup.get().claim(key, event) != null) {
+            LOGGER.log(Level.FINE, "suppressed repeated {0} notice of {1} in {2}", new Object[] {type, getId(), run});
+            DeployEventDedup.get().countSuppressedNotice();
+            return true;
+        }
+        Map<String, String> extraHeaders = NOTICE_READY.equals(type) && webhookToken != null
+                ? Collections.singletonMap(DeployWebhookAction.TOKEN_HEADER, webhookToken) : Collections.<String, String>emptyMap();
+        final DeploySpan span = trace().child("notice " + type).attribute("url", noticeCallback);
+        final ListenableFuture<DeployCallbackResult> answer = DeployCallbackTransport.withTimeout(
+                DeployCallbackTransport.get().send(callback(span, true, noticeCallback, noticeBody(type), userId, userName, extraHeaders)));
+        // nobody waits on a notice, a failed one only has to be counted and allowed again
+        answer.addListener(new Runnable() {
+            @Override public void run() {
+                if (!answered(span, answer)) {
+                    DeployEventDedup.get().forget(key, event);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return true;
+    }
+
+    /**
+     * Like {@link #postNoticeCallback} for {@code abort}, but leaves sending it to {@link DeployAborts}.
+     */
+    private void queueAbortNotice(@CheckForNull String userId, @CheckForNull String userName) {
+        fire(DeployEvent.Type.ABORT, userId, userName);
+        String noticeCallback = DeployCallbacks.noticeCallback(run.getParent());
+        if (StringUtils.isEmpty(noticeCallback)) {
+            log("Notice envent url param error.");
+            return;
+        }
+        String key = DeployEventDedup.key(run, node.getId(), getId(), "notice " + NOTICE_ABORT);
+        DeployEventDedup.Event event = new DeployEventDedup.Event();
+        if (DeployEventDedup.get().claim(key, event) != null) {
+            LOGGER.log(Level.FINE, "suppressed repeated {0} notice of {1} in {2}", new Object[] {NOTICE_ABORT, getId(), run});
+            DeployEventDedup.get().countSuppressedNotice();
+            return;
+        }
+        log("Notice envent queued, type is " + NOTICE_ABORT);
+        JSONObject body = noticeBody(NOTICE_ABORT);
+        // a batch has no room for the LEO-USER header of each notice, so it is in the body as well
+        if (!StringUtils.isEmpty(userId)) {
+            body.put("userId", userId);
+        }
+        if (!StringUtils.isEmpty(userName)) {
+            body.put("userName", userName);
+        }
+        DeploySpan span = trace().child("notice " + NOTICE_ABORT).attribute("url", noticeCallback);
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("LEO-USER", leoUser(userId, userName).toString());
+        headers.put("traceparent", DeployTrace.traceparent(span));
+        DeployAborts.get().notice(noticeCallback, body, headers, span, key, event);
+    }
+
+    private JSONObject noticeBody(String type) {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put("type", type);
         jsonObject.put("runId", run.getNumber());
@@ -612,7 +1275,15 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
         jsonObject.put("pipelineName", run.getParent().getName());
         jsonObject.put("pipelineFullName", run.getParent().getFullName());
         jsonObject.put("submitter", input == null ? "" : input.getSubmitter());
-        return post(noticeCallback, jsonObject, userId, userName);
+        if (NOTICE_READY.equals(type) && webhookToken != null) {
+            String rootUrl = Jenkins.getActiveInstance().getRootUrl();
+            if (rootUrl != null) {
+                jsonObject.put("webhook", rootUrl + DeployWebhookAction.URL_NAME + '/' + webhookId + '/');
+            }
+            // the token itself goes in a header, which is neither logged nor kept for replay
+            jsonObject.put("webhookId", webhookId);
+        }
+        return jsonObject;
     }
 
     /**
@@ -623,52 +1294,94 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
      * @return
      */
     public Boolean post(String url, JSONObject jsonObject, String userId, String userName) {
-        CloseableHttpResponse response = null;
+        return post("callback", false, url, jsonObject, userId, userName, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Posts to LEO within a span named {@code spanName}, passing that span on as the {@code traceparent}.
+     *
+     * @param replayable see {@link DeployCallbackRequest#isReplayable}
+     * @param extraHeaders sent but never logged
+     */
+    private Boolean post(String spanName, boolean replayable, String url, JSONObject jsonObject, String userId, String userName,
+                         Map<String, String> extraHeaders) {
+        DeploySpan span = trace().child(spanName).attribute("url", url);
         try {
-            // 从连接池中获得HttpClient
-            CloseableHttpClient httpClient = connectionFactory.getHttpClient();
-            HttpPost httpPost = new HttpPost(url);
-            httpPost.setHeader("Content-Type","application/json;charset=utf-8");
-            JSONObject leoUserJsonObject = new JSONObject();
-            if (!StringUtils.isEmpty(userId)) {
-                leoUserJsonObject.put("userId", userId);
-            }
-            if (!StringUtils.isEmpty(userName)) {
-                leoUserJsonObject.put("userName", userName);
-            }
-            httpPost.setHeader("LEO-USER", leoUserJsonObject.toString());
-            LOGGER.log(Level.INFO, "Deploy step post url is " + url);
-            LOGGER.log(Level.INFO, "Deploy step post header LEO-USER is " + leoUserJsonObject.toString());
-            LOGGER.log(Level.INFO, "Deploy step post body is " + jsonObject.toString());
-
-            StringEntity postingString = new StringEntity(jsonObject.toString(),"utf-8");
-            httpPost.setEntity(postingString);
-            response = httpClient.execute(httpPost);
-            log("Response status code is " + response.getStatusLine().getStatusCode());
-            if (response.getStatusLine().getStatusCode() == HttpServletResponse.SC_OK) {
-                //获取返回值
-                HttpEntity entity = response.getEntity();
-                String message = EntityUtils.toString(entity, "UTF-8");
-                LOGGER.log(Level.WARNING, "Response entity is " + message);
-                if (StringUtils.isNotEmpty(message)) {
-                    JSONObject result = JSONObject.fromObject(message);
-                    if (!"000000".equals(result.getString("rtnCode"))) {
-                        log("Response error message is " + result.getString("rtnMsg"));
-                        return  false;
-                    }
-                }
-                return true;
+            Boolean result = send(span, replayable, url, jsonObject, userId, userName, extraHeaders);
+            if (!result) {
+                span.error("callback failed");
             }
-        } catch (Exception e) {
-            log("curl deploy url error, " + run, e);
+            return result;
         } finally {
-            if (response != null) {
-                try {
-                    response.close();
-                } catch (IOException e) {
-                    LOGGER.log(Level.WARNING, "failed to close closeableHttpResponse from " + run, e);
-                }
+            span.end();
+        }
+    }
+
+    private Boolean send(DeploySpan span, boolean replayable, String url, JSONObject jsonObject, String userId, String userName,
+                         Map<String, String> extraHeaders) {
+        DeployCallbackRequest request = callback(span, replayable, url, jsonObject, userId, userName, extraHeaders);
+        return answer(span, DeployCallbackTransport.get().send(request), TimeUnit.SECONDS.toNanos(DeployCallbackTransport.TIMEOUT));
+    }
+
+    private DeployCallbackRequest callback(DeploySpan span, boolean replayable, String url, JSONObject jsonObject, String userId, String userName,
+                                           Map<String, String> extraHeaders) {
+        JSONObject leoUserJsonObject = leoUser(userId, userName);
+        Map<String, String> headers = new HashMap<String, String>(extraHeaders);
+        headers.put("LEO-USER", leoUserJsonObject.toString());
+        headers.put("traceparent", DeployTrace.traceparent(span));
+        LOGGER.log(Level.INFO, "Deploy step post url is " + url);
+        LOGGER.log(Level.INFO, "Deploy step post header LEO-USER is " + leoUserJsonObject.toString());
+        LOGGER.log(Level.INFO, "Deploy step post body is " + jsonObject.toString());
+        return new DeployCallbackRequest(url, jsonObject, headers, replayable);
+    }
+
+    /**
+     * The {@code LEO-USER} header of a callback.
+     */
+    private static JSONObject leoUser(@CheckForNull String userId, @CheckForNull String userName) {
+        JSONObject leoUserJsonObject = new JSONObject();
+        if (!StringUtils.isEmpty(userId)) {
+            leoUserJsonObject.put("userId", userId);
+        }
+        if (!StringUtils.isEmpty(userName)) {
+            leoUserJsonObject.put("userName", userName);
+        }
+        return leoUserJsonObject;
+    }
+
+    /**
+     * Waits for what LEO answered to a callback.
+     *
+     * @return whether LEO accepted it
+     */
+    private Boolean answer(DeploySpan span, Future<DeployCallbackResult> answer, long timeoutNanos) {
+        // the transport does the I/O on its own thread, stop it once we give up waiting
+        DeployCallbackResult result;
+        try {
+            result = answer.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            answer.cancel(true);
+            Thread.currentThread().interrupt();
+            log("curl deploy url interrupted, " + run);
+            return false;
+        } catch (ExecutionException | TimeoutException | CancellationException e) {
+            answer.cancel(true);
+            log("curl deploy url error, " + run + ", " + e);
+            return false;
+        }
+        if (result.getFailure() != null) {
+            log("curl deploy url error, " + run + ", " + result.getFailure());
+            return false;
+        }
+        log("Response status code is " + result.getStatusCode());
+        span.attribute("status", result.getStatusCode());
+        if (result.getStatusCode() == HttpServletResponse.SC_OK) {
+            LOGGER.log(Level.WARNING, "Response entity is " + result.getBody());
+            if (!result.isSuccess()) {
+                log("Response error message is " + result.getRtnMsg());
+                return false;
             }
+            return true;
         }
         return false;
     }
@@ -676,18 +1389,47 @@ public class DeployStepExecution extends InputStepExecution implements ModelObje
 
     private static final long serialVersionUID = 1L;
 
-    class CustomHttpResponses {
-        public org.kohsuke.stapler.HttpResponses.HttpResponseException status(final int code, final int rtnCode) {
-            return new org.kohsuke.stapler.HttpResponses.HttpResponseException() {
-                @Override
-                public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException, ServletException {
-                    rsp.setStatus(code);
-                    rsp.setContentType("application/json;charset=UTF-8");
-                    Map<String, Object> rtnMessage = new HashedMap();
-                    rtnMessage.put("code", rtnCode);
-                    rsp.getWriter().println(rtnMessage);
-                }
-            };
+    /**
+     * A 200 response with a JSON body.
+     */
+    static final class JsonResponse implements HttpResponse {
+        private final JSONObject json;
+
+        JsonResponse(JSONObject json) {
+            this.json = json;
+        }
+
+        @Override
+        public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException, ServletException {
+            rsp.setStatus(HttpServletResponse.SC_OK);
+            rsp.setContentType("application/json;charset=UTF-8");
+            rsp.getWriter().print(json.toString());
+        }
+    }
+
+    /**
+     * A 200 response carrying one of the {@code STATUS_*} codes, telling LEO why a request was not applied.
+     */
+    static final class StatusResponse extends org.kohsuke.stapler.HttpResponses.HttpResponseException {
+        private static final long serialVersionUID = 1L;
+
+        private final int rtnCode;
+
+        StatusResponse(int rtnCode) {
+            this.rtnCode = rtnCode;
+        }
+
+        int getRtnCode() {
+            return rtnCode;
+        }
+
+        @Override
+        public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException, ServletException {
+            rsp.setStatus(HttpServletResponse.SC_OK);
+            rsp.setContentType("application/json;charset=UTF-8");
+            Map<String, Object> rtnMessage = new HashedMap();
+            rtnMessage.put("code", rtnCode);
+            rsp.getWriter().println(rtnMessage);
         }
     }
 }
@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.Serializable;
+
+/**
+ * One of several templates and environments a single {@link DeployStep} deploys to,
+ * e.g. {@code leoDeploy message: 'go?', targets: [[tplId: 'web', env: 'prod-eu'], [tplId: 'web', env: 'prod-us']]}.
+ */
+public class DeployTarget extends AbstractDescribableImpl<DeployTarget> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String tplId;
+    private final String env;
+
+    @DataBoundConstructor
+    public DeployTarget(String tplId, String env) {
+        this.tplId = Util.fixNull(tplId).trim();
+        this.env = Util.fixNull(env).trim();
+    }
+
+    public String getTplId() {
+        return tplId;
+    }
+
+    public String getEnv() {
+        return env;
+    }
+
+    static String key(String tplId, String env) {
+        return tplId + '/' + env;
+    }
+
+    @Override
+    public String toString() {
+        return key(tplId, env);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<DeployTarget> {
+        @Override
+        public String getDisplayName() {
+            return "Deploy target";
+        }
+    }
+}
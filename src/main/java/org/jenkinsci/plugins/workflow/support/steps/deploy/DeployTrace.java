@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Trace of one deploy step, from its start until it settles.
+ *
+ * Kept with the program state so that a deploy resumed after a restart continues the same trace.
+ * Every span is a child of the root span, which covers the whole step and is exported when it settles.
+ */
+final class DeployTrace implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String traceId;
+    private final String rootSpanId;
+    private final long startMillis;
+
+    private DeployTrace(String traceId, String rootSpanId, long startMillis) {
+        this.traceId = traceId;
+        this.rootSpanId = rootSpanId;
+        this.startMillis = startMillis;
+    }
+
+    static DeployTrace start() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new DeployTrace(hex(random.nextLong()) + hex(random.nextLong()), newSpanId(), System.currentTimeMillis());
+    }
+
+    String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Starts a span for one phase of the step.
+     */
+    DeploySpan child(String name) {
+        return new DeploySpan(traceId, newSpanId(), rootSpanId, name, System.currentTimeMillis());
+    }
+
+    /**
+     * The span covering the whole step, to be ended when it settles.
+     */
+    DeploySpan root(String name) {
+        return new DeploySpan(traceId, rootSpanId, null, name, startMillis);
+    }
+
+    /**
+     * W3C trace context naming {@code span} as the parent of whatever LEO does with a request.
+     */
+    static String traceparent(DeploySpan span) {
+        return "00-" + span.getTraceId() + '-' + span.getSpanId() + "-01";
+    }
+
+    private static String newSpanId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return hex(id);
+    }
+
+    private static String hex(long l) {
+        String s = Long.toHexString(l);
+        return "0000000000000000".substring(s.length()) + s;
+    }
+}
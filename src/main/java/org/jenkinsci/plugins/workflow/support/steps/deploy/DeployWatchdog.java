@@ -0,0 +1,206 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.security.ACL;
+import jenkins.util.Timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Enforces the time-to-live of deploy steps which wait for a submission or for LEO to report back.
+ *
+ * All deadlines share a single hashed wheel ticked by {@link Timer}: arming and cancelling are O(1),
+ * and each tick only visits one bucket, so tens of thousands of pending steps cost next to nothing.
+ * Deadlines are absolute wall-clock times so that {@link DeployStepExecution#onResume} can re-arm them
+ * from program state after a restart.
+ * The deadlines of a tick expire together on {@link CallbackExecutor}, asking LEO about the deploying steps among them in one query.
+ */
+final class DeployWatchdog {
+    private static final Logger LOGGER = Logger.getLogger(DeployWatchdog.class.getName());
+
+    /** Resolution of the wheel in milliseconds. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ long TICK_MILLIS = Long.getLong(DeployWatchdog.class.getName() + ".TICK_MILLIS", 1000);
+
+    private static final int WHEEL_SIZE = 512;
+
+    private static final DeployWatchdog INSTANCE = new DeployWatchdog();
+
+    /**
+     * The lifecycle phase a deadline applies to.
+     */
+    enum Phase {
+        /** Waiting for somebody to submit the deploy. */
+        PENDING,
+        /** Submitted, but held back by the deploy rate limit or in {@link DeployScheduler} until a slot is free. */
+        QUEUED,
+        /** Waiting for LEO to call back after the deploy was triggered. */
+        DEPLOYING
+    }
+
+    /** Deadlines armed since the last tick; drained by the tick task only. */
+    private final Queue<Deadline> incoming = new ConcurrentLinkedQueue<Deadline>();
+
+    /** Only touched by the tick task. */
+    private final List<List<Deadline>> wheel = new ArrayList<List<Deadline>>(WHEEL_SIZE);
+
+    private final long startMillis = System.currentTimeMillis();
+
+    /** Next tick to process; only touched by the tick task. */
+    private long tick;
+
+    private boolean started;
+
+    private DeployWatchdog() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<Deadline>());
+        }
+    }
+
+    static DeployWatchdog get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Schedules {@link DeployStepExecution#onWatchdogExpired} to be called once {@code deadlineMillis} has passed.
+     *
+     * @return a handle which must be cancelled when the step leaves {@code phase}
+     */
+    Deadline arm(DeployStepExecution execution, Phase phase, long deadlineMillis) {
+        Deadline d = new Deadline(execution, phase, deadlineMillis);
+        incoming.add(d);
+        ensureStarted();
+        return d;
+    }
+
+    private synchronized void ensureStarted() {
+        if (!started) {
+            Timer.get().scheduleWithFixedDelay(new Runnable() {
+                @Override public void run() {
+                    try {
+                        advance();
+                    } catch (RuntimeException x) {
+                        LOGGER.log(Level.WARNING, "deploy watchdog tick failed", x);
+                    }
+                }
+            }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+            started = true;
+        }
+    }
+
+    /**
+     * Processes every tick up to the current time, catching up if the {@link Timer} was late.
+     */
+    private void advance() {
+        long target = (System.currentTimeMillis() - startMillis) / TICK_MILLIS;
+        while (tick <= target) {
+            transferIncoming();
+            expireBucket(wheel.get((int) (tick % WHEEL_SIZE)));
+            tick++;
+        }
+    }
+
+    private void transferIncoming() {
+        Deadline d;
+        while ((d = incoming.poll()) != null) {
+            if (d.cancelled) {
+                continue;
+            }
+            long due = Math.max(d.deadlineMillis - startMillis, 0) / TICK_MILLIS;
+            if (due < tick) {
+                due = tick;
+            }
+            d.rounds = (due - tick) / WHEEL_SIZE;
+            wheel.get((int) (due % WHEEL_SIZE)).add(d);
+        }
+    }
+
+    private void expireBucket(List<Deadline> bucket) {
+        final List<Deadline> expired = new ArrayList<Deadline>();
+        for (Iterator<Deadline> it = bucket.iterator(); it.hasNext();) {
+            Deadline d = it.next();
+            if (d.cancelled) {
+                it.remove();
+            } else if (d.rounds > 0) {
+                d.rounds--;
+            } else {
+                it.remove();
+                expired.add(d);
+            }
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        // steps abort through notice callbacks and deploying ones ask LEO first, so keep that off the tick task and the shared timer
+        CallbackExecutor.get().submit(new Runnable() {
+            @Override public void run() {
+                ACL.impersonate(ACL.SYSTEM, new Runnable() {
+                    @Override public void run() {
+                        expire(expired);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Expires the deadlines of one tick, asking LEO about all the deploying steps among them in one query.
+     */
+    void expire(List<Deadline> expired) {
+        List<DeployStepExecution> deploying = new ArrayList<DeployStepExecution>();
+        for (Deadline d : expired) {
+            if (!d.cancelled && d.phase == Phase.DEPLOYING && d.execution.currentPhase() == Phase.DEPLOYING) {
+                deploying.add(d.execution);
+            }
+        }
+        Map<DeployStepExecution, DeployStatusClient.Status> statuses = deploying.isEmpty() || !DeployStatusClient.isConfigured()
+                ? Collections.<DeployStepExecution, DeployStatusClient.Status>emptyMap() : DeployStatusClient.query(deploying);
+        for (Deadline d : expired) {
+            if (d.cancelled) {
+                continue;
+            }
+            try {
+                d.execution.onWatchdogExpired(d.phase, statuses.get(d.execution));
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.WARNING, "failed to expire the deadline of " + d.execution.getId(), x);
+            }
+        }
+    }
+
+    /**
+     * A pending deadline; cancelled entries are dropped lazily when their bucket comes around.
+     */
+    static final class Deadline {
+        private final DeployStepExecution execution;
+        private final Phase phase;
+        private final long deadlineMillis;
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Deadline(DeployStepExecution execution, Phase phase, long deadlineMillis) {
+            this.execution = execution;
+            this.phase = phase;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        Phase getPhase() {
+            return phase;
+        }
+
+        long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.UnprotectedRootAction;
+import hudson.security.ACL;
+import hudson.security.csrf.CrumbExclusion;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import javax.annotation.CheckForNull;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Webhook for LEO to settle a step without walking {@code /job/…/N/deploy/<id>/}, e.g.
+ * {@code POST /leo-webhook/<webhookId>/proceed} with {@code Authorization: Bearer <token>} and the deploy parameters as a JSON object.
+ *
+ * Steps are found through a controller-wide index of their webhook ids, so neither the run nor its {@link DeployAction} is loaded.
+ * The token is either the one minted for the step and sent in the {@link #TOKEN_HEADER} of its {@code ready} notice,
+ * minted afresh if that notice is replayed after a restart,
+ * or, once LEO has submitted the deploy, the one configured for the tenant it was submitted for, see {@link DeployGlobalConfiguration#getWebhookTokens}.
+ * A tenant named in the request itself is never trusted.
+ * Once authenticated, the request is processed as {@link ACL#SYSTEM}.
+ */
+@Extension
+public class DeployWebhookAction implements UnprotectedRootAction {
+
+    static final String URL_NAME = "leo-webhook";
+
+    /** Header of the {@code ready} notice carrying the token of the step. */
+    static final String TOKEN_HEADER = "LEO-WEBHOOK-TOKEN";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** Steps which accept webhook calls, by webhook id. */
+    private static final ConcurrentMap<String, DeployStepExecution> INDEX = new ConcurrentHashMap<String, DeployStepExecution>();
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    /**
+     * Digests of tokens minted for {@code ready} notices replayed after a restart, by webhook id, until their step is registered.
+     */
+    private static final ConcurrentMap<String, String> REISSUED = new ConcurrentHashMap<String, String>();
+
+    static void register(String webhookId, DeployStepExecution execution) {
+        INDEX.put(webhookId, execution);
+        adopt(webhookId, execution);
+    }
+
+    /**
+     * Mints a token for a {@code ready} notice replayed by {@link PendingNotices}, which do not keep the one it was first sent with.
+     * Its step takes it now if it is registered already, or else once it is resumed.
+     */
+    static String reissue(String webhookId) {
+        String token = mint();
+        REISSUED.put(webhookId, digest(token));
+        DeployStepExecution execution = INDEX.get(webhookId);
+        if (execution != null) {
+            adopt(webhookId, execution);
+        }
+        return token;
+    }
+
+    private static void adopt(String webhookId, DeployStepExecution execution) {
+        String digest = REISSUED.remove(webhookId);
+        if (digest != null) {
+            execution.reissueWebhookToken(digest);
+        }
+    }
+
+    static void unregister(String webhookId, DeployStepExecution execution) {
+        INDEX.remove(webhookId, execution);
+    }
+
+    static int size() {
+        return INDEX.size();
+    }
+
+    /**
+     * A fresh random id or token.
+     */
+    static String mint() {
+        byte[] bytes = new byte[24];
+        RANDOM.nextBytes(bytes);
+        return Util.toHexString(bytes);
+    }
+
+    /**
+     * What is kept of a token to check it later.
+     */
+    static String digest(String token) {
+        return Util.toHexString(sha256(token));
+    }
+
+    private static byte[] sha256(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException x) {
+            throw new AssertionError(x);
+        }
+    }
+
+    /**
+     * Compares digests in constant time.
+     */
+    private static boolean matches(String token, @CheckForNull String digest) {
+        return digest != null && MessageDigest.isEqual(sha256(token), Util.fromHexString(digest));
+    }
+
+    public Hook getDynamic(String webhookId) {
+        DeployStepExecution execution = INDEX.get(webhookId);
+        return execution == null ? null : new Hook(execution);
+    }
+
+    /**
+     * The webhook of one step.
+     */
+    public static final class Hook {
+        private final DeployStepExecution execution;
+
+        Hook(DeployStepExecution execution) {
+            this.execution = execution;
+        }
+
+        @RequirePOST
+        public HttpResponse doProceed(StaplerRequest req) throws IOException {
+            Map<String, Object> params = params(req);
+            if (params == null) {
+                return HttpResponses.error(HttpServletResponse.SC_BAD_REQUEST, "expected a JSON object");
+            }
+            if (!authenticate(req)) {
+                return HttpResponses.forbidden();
+            }
+            SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+            try {
+                return execution.proceed(params);
+            } finally {
+                SecurityContextHolder.setContext(old);
+            }
+        }
+
+        @RequirePOST
+        public HttpResponse doAbort(StaplerRequest req) throws IOException {
+            Map<String, Object> params = params(req);
+            if (params == null) {
+                return HttpResponses.error(HttpServletResponse.SC_BAD_REQUEST, "expected a JSON object");
+            }
+            if (!authenticate(req)) {
+                return HttpResponses.forbidden();
+            }
+            SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+            try {
+                return execution.doAbortProcceed(params);
+            } finally {
+                SecurityContextHolder.setContext(old);
+            }
+        }
+
+        private boolean authenticate(StaplerRequest req) {
+            String header = req.getHeader("Authorization");
+            if (header == null || !header.startsWith("Bearer ")) {
+                return false;
+            }
+            String token = header.substring("Bearer ".length()).trim();
+            if (matches(token, execution.getWebhookTokenDigest())) {
+                return true;
+            }
+            // only the step's own token until it is bound to a tenant
+            String tenantId = execution.getTenantId();
+            if (tenantId == null) {
+                return false;
+            }
+            String tenantToken = GlobalConfiguration.all().get(DeployGlobalConfiguration.class).getWebhookToken(tenantId);
+            return tenantToken != null && matches(token, digest(tenantToken));
+        }
+
+        /**
+         * Reads the body as the parameters of the step.
+         *
+         * @return null if it is not a JSON object
+         */
+        @CheckForNull
+        private static Map<String, Object> params(StaplerRequest req) throws IOException {
+            String body = IOUtils.toString(req.getInputStream(), "UTF-8");
+            Map<String, Object> params = new HashMap<String, Object>();
+            if (body.trim().isEmpty()) {
+                return params;
+            }
+            JSONObject json;
+            try {
+                json = JSONObject.fromObject(body);
+            } catch (JSONException x) {
+                return null;
+            }
+            for (Object key : json.keySet()) {
+                Object value = json.get(key);
+                params.put(key.toString(), value instanceof String ? value : value.toString());
+            }
+            return params;
+        }
+    }
+
+    /**
+     * The webhook is authenticated by its token, not a crumb.
+     */
+    @Extension
+    public static class CrumbExclusionImpl extends CrumbExclusion {
+        @Override
+        public boolean process(HttpServletRequest req, HttpServletResponse rsp, FilterChain chain) throws IOException, ServletException {
+            String pathInfo = req.getPathInfo();
+            if (pathInfo != null && pathInfo.startsWith('/' + URL_NAME + '/')) {
+                chain.doFilter(req, rsp);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Run;
+import jenkins.model.TransientActionFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Contributes the {@link DeployingAction}s of a run from its {@link DeployRunState}, so they are not saved in {@code build.xml}.
+ */
+@Extension
+public class DeployingActionFactory extends TransientActionFactory<Run> {
+
+    @Override
+    public Class<Run> type() {
+        return Run.class;
+    }
+
+    @Override
+    public Collection<? extends Action> createFor(Run target) {
+        // runs without pending deploys are the common case, so do not touch the disk for them
+        for (Action a : target.getActions()) {
+            if (a instanceof DeployAction) {
+                return DeployRunState.of(target).getDeployingActions();
+            }
+        }
+        return Collections.emptySet();
+    }
+}
@@ -0,0 +1,151 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.Extension;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends spans as JSON lines to {@code $JENKINS_HOME/logs/leo-deploy-spans.log}.
+ * Off unless {@code -Dorg.jenkinsci.plugins.workflow.support.steps.deploy.FileSpanExporter.ENABLED=true}.
+ *
+ * Like {@link DeployEventLog}, lines are queued and written by one thread of its own,
+ * so the thread ending a span, often one serving LEO, never waits on the disk.
+ * Whatever is still queued is written when Jenkins shuts down.
+ */
+@Extension
+public class FileSpanExporter extends DeploySpanExporter {
+    private static final Logger LOGGER = Logger.getLogger(FileSpanExporter.class.getName());
+
+    @SuppressWarnings("FieldMayBeFinal")
+    static /* not final */ boolean ENABLED = Boolean.getBoolean(FileSpanExporter.class.getName() + ".ENABLED");
+
+    /** Seconds to wait at shutdown for the writer to catch up. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static /* not final */ int CLOSE_TIMEOUT = Integer.getInteger(FileSpanExporter.class.getName() + ".CLOSE_TIMEOUT", 10);
+
+    static final String FILE_NAME = "logs/leo-deploy-spans.log";
+
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+
+    /** Whether a write is scheduled or running. */
+    private final AtomicBoolean writing = new AtomicBoolean();
+
+    private final ThreadPoolExecutor executor;
+
+    /** Only touched by the writer, or at shutdown once it is done. */
+    private Writer writer;
+
+    public FileSpanExporter() {
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamingThreadFactory(new DaemonThreadFactory(), "FileSpanExporter"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void export(DeploySpan span) {
+        if (!ENABLED) {
+            return;
+        }
+        lines.add(span.toJSON().toString() + '\n');
+        if (writing.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override public void run() {
+                        drain();
+                    }
+                });
+            } catch (RejectedExecutionException x) {
+                // shutting down, close() writes what is queued
+                writing.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<String>();
+        while (true) {
+            lines.drainTo(batch);
+            if (batch.isEmpty()) {
+                writing.set(false);
+                // something may have been queued after drainTo but before the flag was cleared
+                if (lines.isEmpty() || !writing.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<String> batch) {
+        try {
+            if (writer == null) {
+                File file = new File(Jenkins.getActiveInstance().getRootDir(), FILE_NAME);
+                if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                    throw new IOException("failed to create " + file.getParentFile());
+                }
+                writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+            }
+            for (String line : batch) {
+                writer.write(line);
+            }
+            writer.flush();
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to record " + batch.size() + " spans", x);
+        }
+    }
+
+    /**
+     * Lets the writer finish, writes whatever is still queued and closes the file.
+     */
+    void close() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+            LOGGER.log(Level.WARNING, "span writer did not finish within {0} seconds", CLOSE_TIMEOUT);
+            return;
+        }
+        List<String> rest = new ArrayList<String>();
+        lines.drainTo(rest);
+        if (!rest.isEmpty()) {
+            write(rest);
+        }
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException x) {
+                LOGGER.log(Level.FINE, null, x);
+            }
+            writer = null;
+        }
+    }
+
+    @Terminator
+    public static void terminate() throws InterruptedException {
+        Jenkins j = Jenkins.getInstance();
+        if (j == null) {
+            return;
+        }
+        for (FileSpanExporter exporter : j.getExtensionList(FileSpanExporter.class)) {
+            exporter.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import hudson.Extension;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Posts callbacks through the pooled {@link ConnectionManager} client, on a {@link CallbackExecutor} thread.
+ */
+@Extension(ordinal = -1000)
+public class HttpCallbackTransport extends DeployCallbackTransport {
+    private static final Logger LOGGER = Logger.getLogger(HttpCallbackTransport.class.getName());
+
+    private final ListeningExecutorService executor;
+
+    public HttpCallbackTransport() {
+        this(CallbackExecutor.get());
+    }
+
+    HttpCallbackTransport(ExecutorService executor) {
+        this.executor = MoreExecutors.listeningDecorator(executor);
+    }
+
+    @Override
+    public ListenableFuture<DeployCallbackResult> send(final DeployCallbackRequest request) {
+        return executor.submit(new Callable<DeployCallbackResult>() {
+            @Override public DeployCallbackResult call() {
+                return execute(request);
+            }
+        });
+    }
+
+    DeployCallbackResult execute(DeployCallbackRequest request) {
+        ConnectionManager manager = ConnectionManager.get();
+        if (!manager.begin(request)) {
+            PendingNotices.defer(Collections.singleton(request));
+            return DeployCallbackResult.failed(new IOException("Jenkins is shutting down, "
+                    + (request.isReplayable() ? "sending after the restart" : "not sent") + ": " + request));
+        }
+        CloseableHttpResponse response = null;
+        try {
+            HttpPost httpPost = new HttpPost(request.getUrl());
+            httpPost.setHeader("Content-Type", "application/json;charset=utf-8");
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                httpPost.setHeader(header.getKey(), header.getValue());
+            }
+            httpPost.setEntity(new StringEntity(request.getBody().toString(), "utf-8"));
+            response = manager.getHttpClient().execute(httpPost);
+            HttpEntity entity = response.getEntity();
+            return DeployCallbackResult.of(response.getStatusLine().getStatusCode(), entity == null ? null : EntityUtils.toString(entity, "UTF-8"));
+        } catch (IOException | RuntimeException x) {
+            return DeployCallbackResult.failed(x);
+        } finally {
+            manager.end(request);
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException x) {
+                    LOGGER.log(Level.WARNING, "failed to close callback response from " + request.getUrl(), x);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import jenkins.util.Timer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers callbacks in memory, without sockets, so the deploy lifecycle can be exercised quickly and deterministically.
+ *
+ * Faults can be injected: a fixed latency, a rate of dropped requests which never get an answer,
+ * and a rate of answers whose {@code rtnCode} is missing.
+ * Not registered by default; add it to the {@link DeployCallbackTransport} extension list to use it.
+ */
+public class InMemoryCallbackTransport extends DeployCallbackTransport {
+
+    /**
+     * Produces the answer to a request which was neither dropped nor malformed.
+     */
+    public interface Responder {
+        DeployCallbackResult respond(DeployCallbackRequest request);
+    }
+
+    private static final Responder OK = new Responder() {
+        @Override public DeployCallbackResult respond(DeployCallbackRequest request) {
+            return DeployCallbackResult.of(200, "{\"rtnCode\":\"000000\",\"rtnMsg\":\"ok\"}");
+        }
+    };
+
+    private final List<DeployCallbackRequest> requests = new CopyOnWriteArrayList<DeployCallbackRequest>();
+    private volatile Responder responder = OK;
+    private volatile long latencyMillis;
+    private volatile double dropRate;
+    private volatile double malformedRate;
+
+    @Override
+    public ListenableFuture<DeployCallbackResult> send(final DeployCallbackRequest request) {
+        requests.add(request);
+        final SettableFuture<DeployCallbackResult> result = SettableFuture.create();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (dropRate > 0 && random.nextDouble() < dropRate) {
+            return result;
+        }
+        final boolean malformed = malformedRate > 0 && random.nextDouble() < malformedRate;
+        Runnable answer = new Runnable() {
+            @Override public void run() {
+                result.set(malformed ? DeployCallbackResult.of(200, "{\"rtnMsg\":\"no rtnCode\"}") : responder.respond(request));
+            }
+        };
+        if (latencyMillis > 0) {
+            Timer.get().schedule(answer, latencyMillis, TimeUnit.MILLISECONDS);
+        } else {
+            answer.run();
+        }
+        return result;
+    }
+
+    public InMemoryCallbackTransport withResponder(Responder responder) {
+        this.responder = responder;
+        return this;
+    }
+
+    public InMemoryCallbackTransport withLatency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * Fraction of requests which never get an answer.
+     */
+    public InMemoryCallbackTransport withDropRate(double dropRate) {
+        this.dropRate = dropRate;
+        return this;
+    }
+
+    /**
+     * Fraction of answers which lack an {@code rtnCode}.
+     */
+    public InMemoryCallbackTransport withMalformedRate(double malformedRate) {
+        this.malformedRate = malformedRate;
+        return this;
+    }
+
+    /**
+     * Every request sent so far.
+     */
+    public List<DeployCallbackRequest> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Requests sent so far to urls containing {@code part}.
+     */
+    public int count(String part) {
+        int n = 0;
+        for (DeployCallbackRequest request : requests) {
+            if (request.getUrl().contains(part)) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
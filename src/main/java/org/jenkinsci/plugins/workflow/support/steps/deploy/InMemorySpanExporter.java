@@ -0,0 +1,40 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps spans in memory, e.g. for tests.
+ * Not registered by default; add it to the {@link DeploySpanExporter} extension list to use it.
+ */
+public class InMemorySpanExporter extends DeploySpanExporter {
+
+    private final List<DeploySpan> spans = new CopyOnWriteArrayList<DeploySpan>();
+
+    @Override
+    public void export(DeploySpan span) {
+        spans.add(span);
+    }
+
+    public List<DeploySpan> getSpans() {
+        return spans;
+    }
+
+    /**
+     * Spans with the given name, in the order they ended.
+     */
+    public List<DeploySpan> named(String name) {
+        List<DeploySpan> named = new ArrayList<DeploySpan>();
+        for (DeploySpan span : spans) {
+            if (span.getName().equals(name)) {
+                named.add(span);
+            }
+        }
+        return named;
+    }
+
+    public void clear() {
+        spans.clear();
+    }
+}
@@ -1,7 +1,13 @@
 package org.jenkinsci.plugins.workflow.support.steps.deploy;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
 
 /**
  * Result of an evaluation.
@@ -14,28 +20,49 @@ import java.lang.reflect.InvocationTargetException;
 public final class Outcome implements Serializable {
     private final Object normal;
     private final Throwable abnormal;
-    /**
-     * is deploy
-     */
-    private final Boolean deployed;
-
-    /**
-     * is submit
-     */
-    private final Boolean submitted;
+    private final DeployState state;
+
+    /** @deprecated replaced by {@link #state}, only present in program state saved by older versions */
+    @Deprecated
+    private Boolean deployed;
+    /** @deprecated replaced by {@link #state}, only present in program state saved by older versions */
+    @Deprecated
+    private Boolean submitted;
+    /** @deprecated replaced by {@link #state}, only present in program state saved by older versions */
+    @Deprecated
+    private Boolean aborted;
+
+    public Outcome(Object normal, Throwable abnormal, DeployState state) {
+        assert normal==null || abnormal==null;
+        assert state != null;
+        this.normal = normal;
+        this.abnormal = abnormal;
+        this.state = state;
+    }
 
     /**
-     * is abort
+     * Program state is written in the compact {@link SerializedForm};
+     * the default form is only ever read, from state saved by older versions.
      */
-    private final Boolean aborted;
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
 
-    public Outcome(Object normal, Throwable abnormal, Boolean deployed, Boolean submitted, Boolean aborted) {
-        assert normal==null || abnormal==null;
-        this.normal = normal;
-        this.abnormal = abnormal;
-        this.deployed = deployed;
-        this.submitted = submitted;
-        this.aborted = aborted;
+    private Object readResolve() {
+        if (state != null) {
+            return this;
+        }
+        DeployState legacy;
+        if (abnormal != null || (aborted != null && aborted && (deployed == null || !deployed))) {
+            legacy = DeployState.ABORTED;
+        } else if (deployed != null) {
+            legacy = deployed ? DeployState.SUCCEEDED : DeployState.DEPLOYING;
+        } else if (submitted != null && submitted) {
+            legacy = DeployState.SUBMITTED;
+        } else {
+            legacy = DeployState.READY;
+        }
+        return new Outcome(normal, abnormal, legacy);
     }
 
     /**
@@ -63,6 +90,10 @@ public final class Outcome implements Serializable {
         return abnormal;
     }
 
+    public DeployState getState() {
+        return state;
+    }
+
     public boolean isSuccess() {
         return abnormal==null;
     }
@@ -71,23 +102,73 @@ public final class Outcome implements Serializable {
         return abnormal!=null;
     }
 
-    public boolean isDeployed() {
-        return deployed!=null && deployed;
-    }
-
-    public boolean isSubmitted() {
-        return submitted != null && submitted;
-    }
-
-    public boolean isAborted() {
-        return aborted != null && aborted;
-    }
-
     @Override
     public String toString() {
-        if (abnormal!=null)     return "abnormal["+abnormal+"],deployed["+deployed+"],submitted["+submitted+"],aborted["+aborted+"]";
-        else                    return "normal["+normal+"],deployed["+deployed+"],submitted["+submitted+"],aborted["+aborted+"]";
+        if (abnormal!=null)     return "abnormal["+abnormal+"],state["+state+"]";
+        else                    return "normal["+normal+"],state["+state+"]";
     }
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Versioned externalized form. Submitted parameters are written field by field, and their strings are interned when read.
+     */
+    static final class SerializedForm implements Externalizable {
+        private static final long serialVersionUID = 1L;
+
+        private static final byte VERSION = 1;
+
+        private static final byte OBJECT = 0;
+        private static final byte PARAMS = 1;
+
+        private Outcome outcome;
+
+        public SerializedForm() {}
+
+        SerializedForm(Outcome outcome) {
+            this.outcome = outcome;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(VERSION);
+            out.writeUTF(outcome.state.name());
+            if (isParams(outcome.normal)) {
+                out.writeByte(PARAMS);
+                CompactForm.writeMap(out, (Map<String, Object>) outcome.normal);
+            } else {
+                out.writeByte(OBJECT);
+                out.writeObject(outcome.normal);
+            }
+            out.writeObject(outcome.abnormal);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new InvalidObjectException("unsupported Outcome form " + version);
+            }
+            DeployState state = DeployState.valueOf(in.readUTF());
+            Object normal = in.readByte() == PARAMS ? CompactForm.readMap(in) : in.readObject();
+            outcome = new Outcome(normal, (Throwable) in.readObject(), state);
+        }
+
+        private Object readResolve() {
+            return outcome;
+        }
+
+        private static boolean isParams(Object normal) {
+            if (!(normal instanceof Map)) {
+                return false;
+            }
+            for (Object key : ((Map<?, ?>) normal).keySet()) {
+                if (!(key instanceof String)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
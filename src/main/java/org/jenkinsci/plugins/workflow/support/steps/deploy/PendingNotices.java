@@ -0,0 +1,159 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.util.AtomicFileWriter;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Notices which could not be sent before Jenkins went down, kept in {@code $JENKINS_HOME/leo-pending-notices.json}
+ * and sent once Jenkins is back.
+ */
+final class PendingNotices {
+    private static final Logger LOGGER = Logger.getLogger(PendingNotices.class.getName());
+
+    static final String FILE_NAME = "leo-pending-notices.json";
+
+    private static final int VERSION = 1;
+
+    /** Deferred since startup, rewritten in full on every change since there are only ever a handful. */
+    private static final List<DeployCallbackRequest> deferred = new ArrayList<DeployCallbackRequest>();
+
+    private PendingNotices() {}
+
+    private static File file() {
+        return new File(Jenkins.getActiveInstance().getRootDir(), FILE_NAME);
+    }
+
+    /**
+     * Keeps the {@link DeployCallbackRequest#isReplayable} ones of {@code requests} for the next startup.
+     */
+    static synchronized void defer(Collection<DeployCallbackRequest> requests) {
+        boolean changed = false;
+        for (DeployCallbackRequest request : requests) {
+            if (request.isReplayable() && !deferred.contains(request)) {
+                deferred.add(request);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        JSONArray notices = new JSONArray();
+        for (DeployCallbackRequest request : deferred) {
+            JSONObject notice = new JSONObject();
+            notice.put("url", request.getUrl());
+            notice.put("body", request.getBody());
+            Map<String, String> headers = new HashMap<String, String>(request.getHeaders());
+            // secrets are not written to disk, a replayed ready notice gets a fresh token instead
+            headers.remove(DeployWebhookAction.TOKEN_HEADER);
+            notice.put("headers", JSONObject.fromObject(headers));
+            notices.add(notice);
+        }
+        JSONObject json = new JSONObject();
+        json.put("version", VERSION);
+        json.put("notices", notices);
+        try {
+            AtomicFileWriter w = new AtomicFileWriter(file(), "UTF-8");
+            try {
+                w.write(json.toString());
+                w.commit();
+            } finally {
+                w.abort();
+            }
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to save " + deferred.size() + " pending LEO notices", x);
+        }
+    }
+
+    /**
+     * Reads and deletes the notices left by the previous run.
+     */
+    static synchronized List<DeployCallbackRequest> take() {
+        deferred.clear();
+        List<DeployCallbackRequest> requests = new ArrayList<DeployCallbackRequest>();
+        File file = file();
+        if (!file.isFile()) {
+            return requests;
+        }
+        try {
+            JSONObject json = JSONObject.fromObject(FileUtils.readFileToString(file, "UTF-8"));
+            if (json.optInt("version") != VERSION) {
+                LOGGER.log(Level.WARNING, "ignoring {0} of unknown version", file);
+            } else {
+                for (Object o : json.getJSONArray("notices")) {
+                    JSONObject notice = (JSONObject) o;
+                    Map<String, String> headers = new HashMap<String, String>();
+                    JSONObject h = notice.getJSONObject("headers");
+                    for (Object name : h.keySet()) {
+                        headers.put(name.toString(), h.getString(name.toString()));
+                    }
+                    requests.add(new DeployCallbackRequest(notice.getString("url"), notice.getJSONObject("body"), headers, true));
+                }
+            }
+        } catch (IOException | JSONException x) {
+            LOGGER.log(Level.WARNING, "failed to read " + file, x);
+        }
+        if (!file.delete()) {
+            LOGGER.log(Level.WARNING, "failed to delete {0}", file);
+        }
+        return requests;
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replay() {
+        final List<DeployCallbackRequest> requests = take();
+        if (requests.isEmpty()) {
+            return;
+        }
+        LOGGER.log(Level.INFO, "sending {0} LEO notices left from before the restart", requests.size());
+        CallbackExecutor.get().submit(new Runnable() {
+            @Override public void run() {
+                for (DeployCallbackRequest pending : requests) {
+                    DeployCallbackRequest request = withToken(pending);
+                    try {
+                        DeployCallbackResult result = DeployCallbackTransport.get().send(request).get(DeployCallbackTransport.TIMEOUT, TimeUnit.SECONDS);
+                        if (!result.isSuccess()) {
+                            LOGGER.log(Level.WARNING, "LEO did not accept {0}: {1}", new Object[] {request, result.getFailure() != null ? result.getFailure() : result.getRtnMsg()});
+                        }
+                    } catch (InterruptedException x) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (ExecutionException | TimeoutException x) {
+                        LOGGER.log(Level.WARNING, "failed to send " + request, x);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Gives a replayed {@code ready} notice a fresh webhook token in place of the one which was not written to disk.
+     */
+    private static DeployCallbackRequest withToken(DeployCallbackRequest request) {
+        JSONObject body = request.getBody();
+        if (!"ready".equals(body.optString("type")) || !body.has("webhookId")) {
+            return request;
+        }
+        Map<String, String> headers = new HashMap<String, String>(request.getHeaders());
+        headers.put(DeployWebhookAction.TOKEN_HEADER, DeployWebhookAction.reissue(body.getString("webhookId")));
+        return new DeployCallbackRequest(request.getUrl(), body, headers, true);
+    }
+}
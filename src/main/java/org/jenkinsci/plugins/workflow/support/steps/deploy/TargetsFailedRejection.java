@@ -0,0 +1,44 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import jenkins.model.CauseOfInterruption;
+import org.kohsuke.stapler.export.Exported;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Indicates that too many targets of a fanned out deploy failed to reach its quorum.
+ */
+public final class TargetsFailedRejection extends CauseOfInterruption {
+
+    private static final long serialVersionUID = 1;
+
+    private final ArrayList<String> failed;
+    private final long timestamp;
+
+    TargetsFailedRejection(List<String> failed) {
+        this.failed = new ArrayList<String>(failed);
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the targets which failed, as {@code tplId/env}.
+     */
+    @Exported
+    public List<String> getFailed() {
+        return failed;
+    }
+
+    /**
+     * Gets the timestamp when the rejection occurred.
+     */
+    @Exported
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override public String getShortDescription() {
+        return Messages.deploy_failed_on(DeployFanOut.join(failed));
+    }
+
+}
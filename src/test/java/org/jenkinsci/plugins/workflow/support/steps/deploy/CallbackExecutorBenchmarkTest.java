@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends many slow callbacks at once through {@link HttpCallbackTransport} on platform and on virtual threads,
+ * and reports elapsed time and thread counts for each.
+ *
+ * Scale it up with {@code -DCallbackExecutorBenchmarkTest.requests=2000 -DCallbackExecutorBenchmarkTest.latency=500}.
+ */
+public class CallbackExecutorBenchmarkTest {
+
+    private static final int REQUESTS = Integer.getInteger("CallbackExecutorBenchmarkTest.requests", 300);
+    private static final long LATENCY = Long.getLong("CallbackExecutorBenchmarkTest.latency", 100);
+
+    private StubLeoServer leo;
+
+    @Before public void startLeo() throws Exception {
+        leo = new StubLeoServer();
+        leo.setLatency(LATENCY);
+    }
+
+    @After public void stopLeo() {
+        leo.close();
+    }
+
+    @Test public void platformThreads() throws Exception {
+        run("platform", CallbackExecutor.newPlatform(150));
+    }
+
+    @Test public void virtualThreads() throws Exception {
+        ExecutorService executor = CallbackExecutor.newVirtual();
+        Assume.assumeNotNull(executor);
+        run("virtual", executor);
+    }
+
+    private void run(String kind, ExecutorService executor) throws Exception {
+        HttpCallbackTransport transport = new HttpCallbackTransport(executor);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        int threadsBefore = threads.getThreadCount();
+        long start = System.nanoTime();
+        try {
+            List<Future<DeployCallbackResult>> answers = new ArrayList<Future<DeployCallbackResult>>();
+            for (int i = 0; i < REQUESTS; i++) {
+                JSONObject body = new JSONObject();
+                body.put("type", "ready");
+                body.put("runId", i);
+                answers.add(transport.send(new DeployCallbackRequest(leo.url("/notice"), body, Collections.<String, String>emptyMap())));
+            }
+            for (Future<DeployCallbackResult> answer : answers) {
+                assertTrue(answer.get().isSuccess());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("callbacks on %s threads: %d requests, LEO latency %d ms, %.2f s, %.1f requests/s, threads %d before, %d peak%n",
+                kind, REQUESTS, LATENCY, seconds, REQUESTS / seconds, threadsBefore, threads.getPeakThreadCount());
+        assertEquals(REQUESTS, leo.count("notice"));
+    }
+
+}
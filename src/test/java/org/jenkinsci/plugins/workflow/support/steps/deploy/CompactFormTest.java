@@ -0,0 +1,156 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the compact program state round-trips, that state saved in the default form still loads,
+ * and reports serialized size and retained heap per paused step in both forms.
+ */
+public class CompactFormTest {
+
+    private static final int STEPS = Integer.getInteger("CompactFormTest.steps", 10000);
+
+    /**
+     * Writes objects the way versions without {@code writeReplace} did.
+     */
+    private static final class LegacyOutputStream extends ObjectOutputStream {
+        LegacyOutputStream(OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override protected Object replaceObject(Object obj) throws IOException {
+            try {
+                if (obj instanceof Outcome.SerializedForm || obj instanceof DeployStep.SerializedForm) {
+                    Field f = obj.getClass().getDeclaredField(obj instanceof Outcome.SerializedForm ? "outcome" : "step");
+                    f.setAccessible(true);
+                    return f.get(obj);
+                }
+            } catch (ReflectiveOperationException x) {
+                throw new IOException(x);
+            }
+            return obj;
+        }
+    }
+
+    private static Map<String, Object> params(int i) {
+        Map<String, Object> params = new HashMap<String, Object>(DeployStepConcurrencyTest.deployParams());
+        // fresh copies, as parsed from each request
+        params.put("tenantId", new String("tenant-" + (i % 3)));
+        params.put("projectId", new String("project-" + (i % 10)));
+        params.put("env", new String("prod"));
+        params.put("nodeId", "node-" + i);
+        return params;
+    }
+
+    private static DeployStep step() {
+        DeployStep step = new DeployStep("Deploy to production?");
+        step.setId("Deploy");
+        step.setSubmitter("alice,bob");
+        return step;
+    }
+
+    private static byte[] write(Object o, boolean legacy) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = legacy ? new LegacyOutputStream(bytes) : new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object read(byte[] bytes) throws Exception {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+
+    @Test public void roundTrip() throws Exception {
+        Outcome o = (Outcome) read(write(new Outcome(params(1), null, DeployState.DEPLOYING), false));
+        assertEquals(DeployState.DEPLOYING, o.getState());
+        assertEquals(params(1), o.getNormal());
+        o = (Outcome) read(write(new Outcome(null, new IllegalStateException("x"), DeployState.ABORTED), false));
+        assertEquals(DeployState.ABORTED, o.getState());
+        assertEquals("x", o.getAbnormal().getMessage());
+
+        DeployStep s = (DeployStep) read(write(step(), false));
+        assertEquals("Deploy to production?", s.getMessage());
+        assertEquals("Deploy", s.getId());
+        assertEquals("alice,bob", s.getSubmitter());
+        assertTrue(s.getParameters().isEmpty());
+    }
+
+    @Test public void readsLegacyForm() throws Exception {
+        Outcome o = (Outcome) read(write(new Outcome(params(1), null, DeployState.SUBMITTED), true));
+        assertEquals(DeployState.SUBMITTED, o.getState());
+        assertEquals(params(1), o.getNormal());
+        DeployStep s = (DeployStep) read(write(step(), true));
+        assertEquals("Deploy", s.getId());
+    }
+
+    @Test public void rewritesLegacyForm() throws Exception {
+        DeployStep old = step();
+        // versions before the targets had no such field, so it reads back as null
+        Field targets = DeployStep.class.getDeclaredField("targets");
+        targets.setAccessible(true);
+        targets.set(old, null);
+        DeployStep s = (DeployStep) read(write(old, true));
+        assertNull(targets.get(s));
+        s = (DeployStep) read(write(s, false));
+        assertEquals("Deploy", s.getId());
+        assertTrue(s.getTargets().isEmpty());
+        assertEquals(0, s.getQuorum());
+    }
+
+    @Test public void internsIds() throws Exception {
+        Map<?, ?> a = (Map<?, ?>) ((Outcome) read(write(new Outcome(params(0), null, DeployState.DEPLOYING), false))).getNormal();
+        Map<?, ?> b = (Map<?, ?>) ((Outcome) read(write(new Outcome(params(3), null, DeployState.DEPLOYING), false))).getNormal();
+        assertSame(a.get("tenantId"), b.get("tenantId"));
+        assertSame(a.get("env"), b.get("env"));
+    }
+
+    @Test public void measure() throws Exception {
+        int legacySize = write(new Outcome(params(1), null, DeployState.DEPLOYING), true).length + write(step(), true).length;
+        int compactSize = write(new Outcome(params(1), null, DeployState.DEPLOYING), false).length + write(step(), false).length;
+        System.out.printf("paused step state: %d bytes in the default form, %d bytes compact%n", legacySize, compactSize);
+        assertTrue(compactSize < legacySize);
+
+        System.out.printf("retained heap per step: %d bytes in the default form, %d bytes compact%n", retained(true), retained(false));
+    }
+
+    private static long retained(boolean legacy) throws Exception {
+        List<byte[]> saved = new ArrayList<byte[]>(STEPS);
+        for (int i = 0; i < STEPS; i++) {
+            saved.add(write(new Outcome(params(i), null, DeployState.DEPLOYING), legacy));
+        }
+        List<Object> loaded = new ArrayList<Object>(STEPS);
+        long before = used();
+        for (byte[] bytes : saved) {
+            loaded.add(read(bytes));
+        }
+        long after = used();
+        assertEquals(STEPS, loaded.size());
+        return (after - before) / STEPS;
+    }
+
+    private static long used() throws InterruptedException {
+        Runtime r = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return r.totalMemory() - r.freeMemory();
+    }
+
+}
@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import net.sf.json.JSONObject;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConnectionManagerTest {
+
+    private StubLeoServer leo;
+
+    @Before public void startLeo() throws Exception {
+        leo = new StubLeoServer();
+    }
+
+    @After public void stopLeo() {
+        leo.close();
+    }
+
+    private String localhost(String path) {
+        return leo.url(path).replace("127.0.0.1", "localhost");
+    }
+
+    @Test public void route() {
+        assertEquals("https://leo.example.com:443", ConnectionManager.route("https://leo.example.com/deploy/{0}/{1}").getTargetHost().toURI());
+        assertEquals("http://leo.example.com:8080", ConnectionManager.route("http://leo.example.com:8080/notice").getTargetHost().toURI());
+        assertNull(ConnectionManager.route("http://{0}.example.com/notice"));
+        assertNull(ConnectionManager.route("not a url"));
+    }
+
+    @Test public void warm() throws Exception {
+        ConnectionManager manager = new ConnectionManager();
+        // both endpoints share one route
+        List<String> endpoints = Arrays.asList(localhost("/deploy/{0}/{1}/{2}/{3}/{4}"), localhost("/notice"));
+        assertEquals(3, manager.warm(endpoints, 3));
+        assertEquals("already warm", 0, manager.warm(endpoints, 3));
+        List<ConnectionManager.RouteStats> stats = manager.getWarmStats();
+        assertEquals(1, stats.size());
+        assertEquals(3, stats.get(0).getAvailable());
+        assertEquals(0, stats.get(0).getLeased());
+        assertEquals(1, manager.getDnsMisses());
+
+        CloseableHttpResponse response = manager.getHttpClient().execute(new HttpPost(localhost("/notice")));
+        try {
+            assertEquals(StubLeoServer.OK, EntityUtils.toString(response.getEntity()));
+        } finally {
+            response.close();
+        }
+        assertEquals("the post reused a warm connection", 3, manager.getWarmStats().get(0).getAvailable());
+        assertEquals(1, manager.getDnsMisses());
+        assertEquals(1, leo.count("notice"));
+    }
+
+    @Test public void unreachable() throws Exception {
+        ConnectionManager manager = new ConnectionManager();
+        ServerSocket closed = new ServerSocket(0);
+        String endpoint = "http://localhost:" + closed.getLocalPort() + "/notice";
+        closed.close();
+        assertEquals(0, manager.warm(Collections.singletonList(endpoint), 2));
+        assertEquals(0, manager.getWarmStats().get(0).getAvailable());
+    }
+
+    @Test public void close() throws Exception {
+        final ConnectionManager manager = new ConnectionManager();
+        final DeployCallbackRequest finishing = new DeployCallbackRequest(leo.url("/notice"), new JSONObject(), Collections.<String, String>emptyMap());
+        DeployCallbackRequest stuck = new DeployCallbackRequest(leo.url("/notice"), new JSONObject(), Collections.<String, String>emptyMap());
+        assertTrue(manager.begin(finishing));
+        assertTrue(manager.begin(stuck));
+        new Thread() {
+            @Override public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException x) {
+                    return;
+                }
+                manager.end(finishing);
+            }
+        }.start();
+        assertEquals(Collections.singletonList(stuck), manager.close(1000));
+        assertFalse("no more posts once closing", manager.begin(finishing));
+    }
+
+    @Test public void postsDoNotWaitForWarmUp() throws Exception {
+        final ConnectionManager manager = new ConnectionManager();
+        final DeployCallbackRequest request = new DeployCallbackRequest(leo.url("/notice"), new JSONObject(), Collections.<String, String>emptyMap());
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            synchronized (manager) {
+                // held by warm while it connects
+                Future<Boolean> begun = pool.submit(new Callable<Boolean>() {
+                    @Override public Boolean call() {
+                        return manager.begin(request);
+                    }
+                });
+                assertTrue(begun.get(5, TimeUnit.SECONDS));
+            }
+            manager.end(request);
+        } finally {
+            pool.shutdownNow();
+            manager.close(0);
+        }
+    }
+
+}
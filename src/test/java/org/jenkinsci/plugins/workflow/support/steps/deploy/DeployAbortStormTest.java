@@ -0,0 +1,125 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Executor;
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Aborts many paused builds at once, as an operator clearing the queue would, and checks that {@link Timer} keeps up.
+ */
+public class DeployAbortStormTest {
+
+    private static final int RUNS = Integer.getInteger("DeployAbortStormTest.runs", 500);
+
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    @Test public void massAbort() throws Exception {
+        InMemoryCallbackTransport transport = new InMemoryCallbackTransport();
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        config.setNoticeCallback("mem://notice");
+        config.setNoticeBatchCallback("mem://notices");
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        List<WorkflowRun> runs = new ArrayList<WorkflowRun>();
+        for (int i = 0; i < RUNS; i++) {
+            runs.add(p.scheduleBuild2(0).waitForStart());
+        }
+        for (WorkflowRun b : runs) {
+            DeployStepConcurrencyTest.waitForDeploy(b);
+        }
+
+        // every notice takes a while from now on, as with a struggling LEO
+        transport.withLatency(200);
+        long requests = DeployAborts.get().getRequests();
+        for (WorkflowRun b : runs) {
+            Executor executor = b.getExecutor();
+            assertNotNull(executor);
+            executor.interrupt();
+        }
+        long slowest = 0;
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            Timer.get().submit(new Callable<Void>() {
+                @Override public Void call() {
+                    return null;
+                }
+            }).get(30, TimeUnit.SECONDS);
+            slowest = Math.max(slowest, System.nanoTime() - start);
+            Thread.sleep(50);
+        }
+        assertTrue("Timer took " + TimeUnit.NANOSECONDS.toMillis(slowest) + " ms to run a task", slowest < TimeUnit.SECONDS.toNanos(1));
+
+        for (WorkflowRun b : runs) {
+            j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(b));
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (batched(transport) < RUNS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(RUNS, batched(transport));
+        for (DeployCallbackRequest request : transport.getRequests()) {
+            if (request.getUrl().equals("mem://notice")) {
+                assertNotEquals("abort notices go out in batches", "abort", request.getBody().getString("type"));
+            }
+        }
+        assertTrue("far fewer requests than notices", DeployAborts.get().getRequests() - requests < RUNS / 10);
+    }
+
+    @Test public void ownNoticeUrlsAreNotBatched() throws Exception {
+        InMemoryCallbackTransport transport = new InMemoryCallbackTransport();
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        config.setNoticeCallback("mem://notice");
+        config.setNoticeBatchCallback("mem://notices");
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        DeployJobProperty property = new DeployJobProperty();
+        property.setNoticeCallback("mem://p-notice");
+        p.addProperty(property);
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepConcurrencyTest.waitForDeploy(b);
+        Executor executor = b.getExecutor();
+        assertNotNull(executor);
+        executor.interrupt();
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(b));
+        DeployCallbackRequest abort = null;
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (abort == null && System.currentTimeMillis() < deadline) {
+            for (DeployCallbackRequest request : transport.getRequests()) {
+                if (request.getUrl().equals("mem://p-notice") && "abort".equals(request.getBody().optString("type"))) {
+                    abort = request;
+                }
+            }
+            Thread.sleep(100);
+        }
+        assertNotNull("the abort notice goes to the url of the job", abort);
+        assertNotNull(abort.getHeaders().get("LEO-USER"));
+        assertEquals(0, batched(transport));
+    }
+
+    private static int batched(InMemoryCallbackTransport transport) {
+        int notices = 0;
+        for (DeployCallbackRequest request : transport.getRequests()) {
+            if (request.getUrl().equals("mem://notices")) {
+                notices += request.getBody().getJSONArray("notices").size();
+            }
+        }
+        return notices;
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import com.google.common.util.concurrent.SettableFuture;
+import hudson.model.Run;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DeployActionTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    /**
+     * Looks up executions only once the test says so.
+     */
+    static class SlowAction extends DeployAction {
+        transient SettableFuture<List<StepExecution>> current;
+        transient CountDownLatch asked;
+
+        @Override Future<List<StepExecution>> currentExecutions() {
+            asked.countDown();
+            return current;
+        }
+    }
+
+    @Test public void onlyUnknownIdsWaitForLoad() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("parallel a: {leoDeploy id: 'A', message: 'a?'}, b: {leoDeploy id: 'B', message: 'b?'}", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution first = DeployStepConcurrencyTest.waitForDeploy(b);
+        while (b.getAction(DeployAction.class).getExecutions().size() < 2) {
+            Thread.sleep(100);
+        }
+        final DeployStepExecution a = b.getAction(DeployAction.class).getExecution("A");
+        final DeployStepExecution other = b.getAction(DeployAction.class).getExecution("B");
+        assertNotNull(first);
+
+        // as if read back from disk with A pending, then B started while A is still being looked up
+        SlowAction saved = new SlowAction();
+        saved.onAttached(b);
+        saved.add(a);
+        final SlowAction action = (SlowAction) Run.XSTREAM2.fromXML(Run.XSTREAM2.toXML(saved));
+        action.current = SettableFuture.create();
+        action.asked = new CountDownLatch(1);
+        action.onLoad(b);
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            Future<DeployStepExecution> loader = pool.submit(new Callable<DeployStepExecution>() {
+                @Override public DeployStepExecution call() throws Exception {
+                    return action.getExecution("A");
+                }
+            });
+            assertTrue(action.asked.await(10, TimeUnit.SECONDS));
+
+            Future<DeployStepExecution> reader = pool.submit(new Callable<DeployStepExecution>() {
+                @Override public DeployStepExecution call() throws Exception {
+                    action.add(other);
+                    return action.getExecution("B");
+                }
+            });
+            assertSame(other, reader.get(5, TimeUnit.SECONDS));
+            Future<Integer> listing = pool.submit(new Callable<Integer>() {
+                @Override public Integer call() throws Exception {
+                    return action.getExecutions().size();
+                }
+            });
+            assertEquals("what is known so far, without waiting", 1, (int) listing.get(5, TimeUnit.SECONDS));
+            assertFalse("an id not known yet waits for the lookup", loader.isDone());
+
+            action.current.set(Collections.<StepExecution>singletonList(a));
+            assertSame(a, loader.get(10, TimeUnit.SECONDS));
+            assertEquals(2, action.getExecutions().size());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        action.remove(a);
+        assertNull(action.getExecution("A"));
+        assertEquals(1, action.getExecutions().size());
+        a.doAbortProcceed(null);
+        other.doAbortProcceed(null);
+        j.waitForCompletion(b);
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.kohsuke.stapler.HttpResponse;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DeployAdmissionTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private StubLeoServer leo;
+    private DeployGlobalConfiguration config;
+
+    @Before public void startLeo() throws Exception {
+        leo = new StubLeoServer();
+        config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        leo.configure(config);
+        config.setTenantRateLimit(1);
+        config.setRateLimitBurst(1);
+    }
+
+    @After public void stopLeo() {
+        leo.close();
+    }
+
+    private DeployStepExecution start(String name) throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, name);
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        return DeployStepConcurrencyTest.waitForDeploy(b);
+    }
+
+    private static Map<String, Object> params(String tenantId, String env) {
+        Map<String, Object> params = new HashMap<String, Object>(DeployStepConcurrencyTest.deployParams());
+        params.put("tenantId", tenantId);
+        params.put("env", env);
+        return params;
+    }
+
+    @Test public void rejectOverLimit() throws Exception {
+        DeployStepExecution first = start("first");
+        DeployStepExecution second = start("second");
+        DeployStepExecution other = start("other");
+
+        assertFalse(first.proceed(params("reject", "prod")) instanceof DeployStepExecution.StatusResponse);
+        HttpResponse throttled = second.proceed(params("reject", "test"));
+        assertEquals(DeployStepExecution.STATUS_THROTTLED, ((DeployStepExecution.StatusResponse) throttled).getRtnCode());
+        assertEquals("a throttled deploy may be retried", DeployState.READY, second.getState());
+        assertNull("nor is it bound to the tenant it was throttled for", second.getTenantId());
+        assertFalse("other tenants are not affected", other.proceed(params("another", "prod")) instanceof DeployStepExecution.StatusResponse);
+        DeployStepConcurrencyTest.waitForState(first, DeployState.DEPLOYING);
+        DeployStepConcurrencyTest.waitForState(other, DeployState.DEPLOYING);
+        assertEquals(2, leo.count("deploy"));
+
+        DeployAdmission.Counters counters = config.getAdmissionCounters().get("reject");
+        assertEquals(1, counters.getAdmitted());
+        assertEquals(1, counters.getRejected());
+    }
+
+    @Test public void queueOverLimit() throws Exception {
+        config.setTenantRateLimit(30); // one token every two seconds
+        config.setQueueOverLimit(true);
+        DeployStepExecution first = start("first");
+        DeployStepExecution second = start("second");
+
+        assertFalse(first.proceed(params("queue", "prod")) instanceof DeployStepExecution.StatusResponse);
+        HttpResponse queued = second.proceed(params("queue", "prod"));
+        assertEquals(DeployStepExecution.STATUS_QUEUED, ((DeployStepExecution.StatusResponse) queued).getRtnCode());
+        assertEquals(DeployState.SUBMITTED, second.getState());
+        while (second.getState() != DeployState.DEPLOYING) {
+            Thread.sleep(100);
+        }
+        assertEquals(2, leo.count("deploy"));
+        assertEquals(1, config.getAdmissionCounters().get("queue").getQueued());
+    }
+
+    @Test public void queuedTimeout() throws Exception {
+        config.setQueueOverLimit(true);
+        config.setQueuedTimeout(1);
+        DeployStepExecution first = start("first");
+        DeployStepExecution second = start("second");
+
+        assertFalse(first.proceed(params("timeout", "prod")) instanceof DeployStepExecution.StatusResponse);
+        HttpResponse queued = second.proceed(params("timeout", "prod"));
+        assertEquals(DeployStepExecution.STATUS_QUEUED, ((DeployStepExecution.StatusResponse) queued).getRtnCode());
+        WorkflowRun b = (WorkflowRun) second.getRun();
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(b));
+        j.assertLogContains("Deploy was still queued when its time ran out", b);
+        DeployStepConcurrencyTest.waitForState(first, DeployState.DEPLOYING);
+        assertEquals(1, leo.count("deploy"));
+    }
+
+    @Test public void idleBucketsAreDropped() {
+        int maxBuckets = DeployAdmission.MAX_BUCKETS;
+        DeployAdmission.MAX_BUCKETS = 4;
+        try {
+            DeployAdmission admission = DeployAdmission.get();
+            assertEquals(0, admission.admit(Collections.singletonList(request("busy"))));
+            // buckets without a limit are idle right away
+            config.setTenantRateLimit(0);
+            for (int i = 0; i < 20; i++) {
+                assertEquals(0, admission.admit(Collections.singletonList(request("idle" + i))));
+            }
+            assertTrue(admission.getBucketCount() <= DeployAdmission.MAX_BUCKETS);
+            assertTrue("a bucket still refilling is kept", admission.getCounters().containsKey("busy"));
+        } finally {
+            DeployAdmission.MAX_BUCKETS = maxBuckets;
+        }
+    }
+
+    private static DeployRequest request(String tenantId) {
+        return DeployRequest.from(params(tenantId, "prod"));
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.FreeStyleProject;
+import hudson.security.ACL;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DeployAuthorizationCacheTest {
+
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private final AtomicInteger checks = new AtomicInteger();
+
+    private final DeployAuthorizationCache.Check check = new DeployAuthorizationCache.Check() {
+        @Override public boolean check() {
+            checks.incrementAndGet();
+            return true;
+        }
+    };
+
+    private FreeStyleProject p;
+
+    @Before public void setUp() throws Exception {
+        p = j.createFreeStyleProject("p");
+        DeployAuthorizationCache.get().invalidate();
+    }
+
+    private boolean decide(DeployAuthorizationCache.Action action, String submitter) {
+        return DeployAuthorizationCache.get().decide(ACL.SYSTEM, p, action, submitter, check);
+    }
+
+    @Test public void reused() {
+        long hits = DeployAuthorizationCache.get().getHits();
+        assertTrue(decide(DeployAuthorizationCache.Action.SUBMIT, "alice"));
+        assertTrue(decide(DeployAuthorizationCache.Action.SUBMIT, "alice"));
+        assertEquals(1, checks.get());
+        assertEquals(hits + 1, DeployAuthorizationCache.get().getHits());
+        decide(DeployAuthorizationCache.Action.SUBMIT, "bob");
+        decide(DeployAuthorizationCache.Action.CANCEL, null);
+        assertEquals("submitter and action are part of the key", 3, checks.get());
+    }
+
+    @Test public void invalidatedOnSave() throws Exception {
+        decide(DeployAuthorizationCache.Action.CANCEL, null);
+        p.save();
+        decide(DeployAuthorizationCache.Action.CANCEL, null);
+        assertEquals(2, checks.get());
+    }
+
+    @Test public void invalidatedOnNewRealm() {
+        decide(DeployAuthorizationCache.Action.CANCEL, null);
+        // replaced without saving, as some plugins do
+        j.jenkins.setSecurityRealm(j.createDummySecurityRealm());
+        decide(DeployAuthorizationCache.Action.CANCEL, null);
+        assertEquals(2, checks.get());
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import com.cloudbees.hudson.plugins.folder.Folder;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class DeployCallbacksTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private InMemoryCallbackTransport transport;
+
+    @Before public void setUp() {
+        transport = new InMemoryCallbackTransport();
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        config.setDeployCallback("mem://global/{0}/{1}/{2}/{3}/{4}");
+        config.setNoticeCallback("mem://notice/global");
+    }
+
+    private void deploy(WorkflowJob p) throws Exception {
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        execution.proceed(DeployStepConcurrencyTest.deployParams());
+        execution.proceed(new HashMap<String, Object>());
+        j.assertBuildStatusSuccess(j.waitForCompletion(b));
+    }
+
+    @Test public void hierarchy() throws Exception {
+        Folder outer = j.jenkins.createProject(Folder.class, "outer");
+        Folder inner = outer.createProject(Folder.class, "inner");
+        WorkflowJob p = inner.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+
+        deploy(p);
+        assertEquals(1, transport.count("mem://global/t1/p1/a1/tpl1/prod"));
+        assertEquals(3, transport.count("mem://notice/global"));
+
+        DeployFolderProperty folderProperty = new DeployFolderProperty();
+        folderProperty.setDeployCallback("mem://outer/{0}/{1}/{2}/{3}/{4}");
+        outer.getProperties().add(folderProperty);
+        outer.save();
+        deploy(p);
+        assertEquals(1, transport.count("mem://outer/t1/p1/a1/tpl1/prod"));
+        // not overridden by the folder, so still global
+        assertEquals(6, transport.count("mem://notice/global"));
+
+        DeployJobProperty jobProperty = new DeployJobProperty();
+        jobProperty.setNoticeCallback("mem://notice/p");
+        p.addProperty(jobProperty);
+        deploy(p);
+        assertEquals(2, transport.count("mem://outer/t1/p1/a1/tpl1/prod"));
+        assertEquals(3, transport.count("mem://notice/p"));
+
+        outer.getProperties().remove(DeployFolderProperty.class);
+        outer.save();
+        deploy(p);
+        assertEquals(2, transport.count("mem://global/t1/p1/a1/tpl1/prod"));
+        assertEquals(6, transport.count("mem://notice/p"));
+    }
+
+}
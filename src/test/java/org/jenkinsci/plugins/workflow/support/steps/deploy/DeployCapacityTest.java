@@ -0,0 +1,141 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.kohsuke.stapler.HttpResponse;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs many {@code leoDeploy} pipelines at once against {@link StubLeoServer} and reports throughput,
+ * {@code deploy()}/{@code proceed()} latency percentiles and thread counts, to size controllers from data.
+ *
+ * Scale it up with {@code -DDeployCapacityTest.pipelines=500 -DDeployCapacityTest.concurrency=50
+ * -DDeployCapacityTest.latency=200 -DDeployCapacityTest.errorRate=0.01}.
+ */
+public class DeployCapacityTest {
+
+    private static final int PIPELINES = Integer.getInteger("DeployCapacityTest.pipelines", 20);
+    private static final int CONCURRENCY = Integer.getInteger("DeployCapacityTest.concurrency", 10);
+    private static final long LATENCY = Long.getLong("DeployCapacityTest.latency", 20);
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("DeployCapacityTest.errorRate", "0"));
+
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private StubLeoServer leo;
+
+    @Before public void startLeo() throws Exception {
+        leo = new StubLeoServer();
+        leo.setLatency(LATENCY);
+        leo.setErrorRate(ERROR_RATE);
+        leo.configure(GlobalConfiguration.all().get(DeployGlobalConfiguration.class));
+    }
+
+    @After public void stopLeo() {
+        leo.close();
+    }
+
+    @Test public void capacity() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+
+        List<WorkflowRun> runs = new ArrayList<WorkflowRun>();
+        for (int i = 0; i < PIPELINES; i++) {
+            runs.add(p.scheduleBuild2(0).waitForStart());
+        }
+        final List<DeployStepExecution> executions = new ArrayList<DeployStepExecution>();
+        for (WorkflowRun b : runs) {
+            executions.add(DeployStepConcurrencyTest.waitForDeploy(b));
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        int threadsBefore = threads.getThreadCount();
+        final List<Long> deployLatencies = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Long> proceedLatencies = Collections.synchronizedList(new ArrayList<Long>());
+        ExecutorService pool = Executors.newFixedThreadPool(CONCURRENCY);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final DeployStepExecution execution : executions) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override public Void call() throws Exception {
+                        long t0 = System.nanoTime();
+                        HttpResponse r = execution.proceed(DeployStepConcurrencyTest.deployParams());
+                        while (!(r instanceof DeployStepExecution.StatusResponse) && execution.getState() == DeployState.SUBMITTED) {
+                            // until LEO answered
+                            Thread.sleep(10);
+                        }
+                        deployLatencies.add(System.nanoTime() - t0);
+                        if (!(r instanceof DeployStepExecution.StatusResponse) && execution.getState() == DeployState.DEPLOYING) {
+                            long t1 = System.nanoTime();
+                            execution.proceed(new HashMap<String, Object>());
+                            proceedLatencies.add(System.nanoTime() - t1);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        int succeeded = 0;
+        int aborted = 0;
+        for (WorkflowRun b : runs) {
+            Result result = j.waitForCompletion(b).getResult();
+            if (result == Result.SUCCESS) {
+                succeeded++;
+            } else if (result == Result.ABORTED) {
+                aborted++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("leoDeploy capacity: %d pipelines, concurrency %d, LEO latency %d ms, error rate %.3f%n",
+                PIPELINES, CONCURRENCY, LATENCY, ERROR_RATE);
+        System.out.printf("  completed %d succeeded / %d aborted in %.2f s, %.1f deploys/s%n",
+                succeeded, aborted, seconds, PIPELINES / seconds);
+        System.out.printf("  deploy()  p50 %.1f ms, p99 %.1f ms%n", percentile(deployLatencies, 50), percentile(deployLatencies, 99));
+        System.out.printf("  proceed() p50 %.1f ms, p99 %.1f ms%n", percentile(proceedLatencies, 50), percentile(proceedLatencies, 99));
+        System.out.printf("  threads %d before, %d peak, %d after%n", threadsBefore, threads.getPeakThreadCount(), threads.getThreadCount());
+
+        assertEquals(PIPELINES, succeeded + aborted);
+        if (ERROR_RATE == 0) {
+            assertEquals(PIPELINES, succeeded);
+        }
+    }
+
+    private static double percentile(List<Long> nanos, int percentile) {
+        if (nanos.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<Long>(nanos);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0)) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
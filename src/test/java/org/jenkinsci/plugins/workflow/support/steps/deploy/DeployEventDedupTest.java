@@ -0,0 +1,81 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.kohsuke.stapler.HttpResponse;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class DeployEventDedupTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private InMemoryCallbackTransport transport;
+
+    @Before public void setUp() {
+        transport = new InMemoryCallbackTransport();
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        config.setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        config.setNoticeCallback("mem://notice");
+    }
+
+    @Test public void claim() {
+        DeployEventDedup dedup = DeployEventDedup.get();
+        DeployEventDedup.Event first = new DeployEventDedup.Event();
+        assertNull(dedup.claim("claim#1", first));
+        assertSame(first, dedup.claim("claim#1", new DeployEventDedup.Event()));
+        assertNull("other events are independent", dedup.claim("claim#2", new DeployEventDedup.Event()));
+        dedup.forget("claim#1", new DeployEventDedup.Event());
+        assertSame("only the recorded event can be forgotten", first, dedup.claim("claim#1", new DeployEventDedup.Event()));
+        dedup.forget("claim#1", first);
+        assertNull(dedup.claim("claim#1", new DeployEventDedup.Event()));
+    }
+
+    @Test public void repeatedDeployRequest() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        long duplicates = DeployEventDedup.get().getDuplicateRequests();
+        assertFalse(execution.proceed(DeployStepConcurrencyTest.deployParams()) instanceof DeployStepExecution.StatusResponse);
+        HttpResponse again = execution.proceed(DeployStepConcurrencyTest.deployParams());
+        assertEquals(DeployStepExecution.STATUS_DEPLOYING, ((DeployStepExecution.StatusResponse) again).getRtnCode());
+        assertEquals(duplicates + 1, DeployEventDedup.get().getDuplicateRequests());
+        assertEquals(1, transport.count("mem://deploy/"));
+
+        long suppressed = DeployEventDedup.get().getSuppressedNotices();
+        assertTrue(execution.postNoticeCallback("submitted", "u1", "n1"));
+        assertEquals(suppressed + 1, DeployEventDedup.get().getSuppressedNotices());
+        execution.proceed(new HashMap<String, Object>());
+        j.assertBuildStatusSuccess(j.waitForCompletion(b));
+        // ready, submitted, success
+        assertEquals(3, transport.count("mem://notice"));
+    }
+
+    @Test public void repeatedAbortNotice() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        long suppressed = DeployEventDedup.get().getSuppressedNotices();
+        // stopped along with the build, so the abort notice goes out with the next batch
+        b.getExecutor().interrupt();
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(b));
+        assertTrue(execution.postNoticeCallback("abort", "u1", "n1"));
+        assertEquals(suppressed + 1, DeployEventDedup.get().getSuppressedNotices());
+    }
+
+}
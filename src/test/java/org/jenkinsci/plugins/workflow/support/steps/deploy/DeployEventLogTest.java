@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeployEventLogTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void events() throws Exception {
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, new InMemoryCallbackTransport());
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        config.setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        config.setEventLog(true);
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        execution.doAbortProcceed(null);
+        j.waitForCompletion(b);
+
+        File file = new File(new File(j.jenkins.getRootDir(), DeployEventLog.DIR_NAME), DeployEventLog.FILE_NAME);
+        List<String> lines = Collections.emptyList();
+        for (int i = 0; i < 100 && lines.size() < 2; i++) {
+            Thread.sleep(100);
+            lines = file.isFile() ? FileUtils.readLines(file, "UTF-8") : lines;
+        }
+        assertEquals(2, lines.size());
+        assertEquals("ready", JSONObject.fromObject(lines.get(0)).getString("type"));
+        JSONObject abort = JSONObject.fromObject(lines.get(1));
+        assertEquals("abort", abort.getString("type"));
+        assertEquals("p", abort.getString("pipelineFullName"));
+        assertEquals(1, abort.getInt("runId"));
+    }
+
+    @Test public void burstIsNotDropped() throws Exception {
+        GlobalConfiguration.all().get(DeployGlobalConfiguration.class).setEventLog(true);
+        int events = 3000;
+        long dropped = DeployLifecycleListener.getDropped();
+        for (int i = 0; i < events; i++) {
+            DeployLifecycleListener.fireAll(new DeployEvent(DeployEvent.Type.READY, "p", i, "Deploy", "3", null, null, System.currentTimeMillis()));
+        }
+        File file = new File(new File(j.jenkins.getRootDir(), DeployEventLog.DIR_NAME), DeployEventLog.FILE_NAME);
+        List<String> lines = Collections.emptyList();
+        for (int i = 0; i < 100 && lines.size() < events; i++) {
+            Thread.sleep(100);
+            lines = file.isFile() ? FileUtils.readLines(file, "UTF-8") : lines;
+        }
+        assertEquals("the event log keeps up however far behind it is", events, lines.size());
+        assertEquals(dropped, DeployLifecycleListener.getDropped());
+    }
+
+    @Test public void rotation() throws Exception {
+        long maxBytes = DeployEventLog.MAX_BYTES;
+        int keep = DeployEventLog.KEEP;
+        DeployEventLog.MAX_BYTES = 10;
+        DeployEventLog.KEEP = 2;
+        DeployEventLog log = new DeployEventLog();
+        File dir = tmp.getRoot();
+        try {
+            log.append(dir, Arrays.asList("{\"n\":1}\n", "{\"n\":2}\n"));
+            for (int n = 3; n <= 6; n++) {
+                log.append(dir, Collections.singletonList("{\"n\":" + n + "}\n"));
+            }
+        } finally {
+            log.close();
+            DeployEventLog.MAX_BYTES = maxBytes;
+            DeployEventLog.KEEP = keep;
+        }
+        assertEquals("{\"n\":6}\n", FileUtils.readFileToString(new File(dir, DeployEventLog.FILE_NAME), "UTF-8"));
+        String[] names = dir.list();
+        Arrays.sort(names);
+        assertEquals("current file plus KEEP rotated ones", 3, names.length);
+        // rotated within the same millisecond or not, the newest ones are kept
+        List<String> kept = new ArrayList<String>();
+        for (String name : names) {
+            if (!name.equals(DeployEventLog.FILE_NAME)) {
+                kept.add(FileUtils.readFileToString(new File(dir, name), "UTF-8"));
+            }
+        }
+        Collections.sort(kept);
+        assertEquals(Arrays.asList("{\"n\":4}\n", "{\"n\":5}\n"), kept);
+    }
+
+}
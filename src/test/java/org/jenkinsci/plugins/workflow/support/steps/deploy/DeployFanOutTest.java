@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DeployFanOutTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private InMemoryCallbackTransport transport;
+
+    @Before public void setUp() {
+        transport = new InMemoryCallbackTransport();
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        config.setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        config.setNoticeCallback("mem://notice");
+    }
+
+    private static Map<String, Object> report(String env, String status) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("tplId", "web");
+        params.put("env", env);
+        params.put("status", status);
+        return params;
+    }
+
+    @Test public void verdict() {
+        DeployFanOut fanOut = new DeployFanOut(Arrays.asList(new DeployTarget("web", "eu"), new DeployTarget("web", "us"), new DeployTarget("web", "ap")), 2);
+        assertTrue(fanOut.record("web/eu", DeployFanOut.Status.FAILED));
+        assertEquals(DeployFanOut.Verdict.PENDING, fanOut.verdict());
+        assertFalse(fanOut.contains("web/cn"));
+        assertFalse(fanOut.record("web/cn", DeployFanOut.Status.SUCCEEDED));
+        assertFalse("first report wins", fanOut.record("web/eu", DeployFanOut.Status.SUCCEEDED));
+        assertEquals(DeployFanOut.Verdict.PENDING, fanOut.verdict());
+        assertTrue(fanOut.record("web/us", DeployFanOut.Status.SUCCEEDED));
+        assertEquals(DeployFanOut.Verdict.PENDING, fanOut.verdict());
+        assertTrue(fanOut.record("web/ap", DeployFanOut.Status.SUCCEEDED));
+        assertEquals(DeployFanOut.Verdict.SUCCEEDED, fanOut.verdict());
+        assertEquals("succeeded on 2 of 3 targets (quorum 2), failed on web/eu", fanOut.summary());
+
+        fanOut = new DeployFanOut(Arrays.asList(new DeployTarget("web", "eu"), new DeployTarget("web", "us")), 0);
+        assertTrue(fanOut.record("web/us", DeployFanOut.Status.FAILED));
+        assertEquals("all targets by default", DeployFanOut.Verdict.FAILED, fanOut.verdict());
+    }
+
+    @Test public void quorum() throws Exception {
+        transport.withResponder(new InMemoryCallbackTransport.Responder() {
+            @Override public DeployCallbackResult respond(DeployCallbackRequest request) {
+                String rtnCode = request.getUrl().endsWith("/web/ap") ? "999999" : "000000";
+                return DeployCallbackResult.of(200, "{\"rtnCode\":\"" + rtnCode + "\",\"rtnMsg\":\"ok\"}");
+            }
+        });
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?', quorum: 2, "
+                + "targets: [[tplId: 'web', env: 'eu'], [tplId: 'web', env: 'us'], [tplId: 'web', env: 'ap']]", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        assertFalse(execution.proceed(DeployStepConcurrencyTest.deployParams()) instanceof DeployStepExecution.StatusResponse);
+        assertEquals(DeployState.DEPLOYING, execution.getState());
+        for (String env : new String[] {"eu", "us", "ap"}) {
+            assertEquals(1, transport.count("mem://deploy/t1/p1/a1/web/" + env));
+        }
+        assertEquals(0, transport.count("mem://deploy/t1/p1/a1/tpl1/prod"));
+
+        assertFalse(execution.proceed(report("eu", "success")) instanceof DeployStepExecution.StatusResponse);
+        assertEquals(DeployState.DEPLOYING, execution.getState());
+        assertFalse(execution.proceed(report("us", "success")) instanceof DeployStepExecution.StatusResponse);
+        j.assertBuildStatusSuccess(j.waitForCompletion(b));
+        j.assertLogContains("Deploy to web/ap could not be started.", b);
+        j.assertLogContains("succeeded on 2 of 3 targets (quorum 2), failed on web/ap", b);
+    }
+
+    @Test public void quorumOutOfReach() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?', "
+                + "targets: [[tplId: 'web', env: 'eu'], [tplId: 'web', env: 'us']]", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        execution.proceed(DeployStepConcurrencyTest.deployParams());
+        assertEquals(DeployStepExecution.STATUS_NOT_SUBMIT,
+                ((DeployStepExecution.StatusResponse) execution.proceed(report("cn", "success"))).getRtnCode());
+        assertFalse(execution.proceed(report("us", "failed")) instanceof DeployStepExecution.StatusResponse);
+        j.assertBuildStatus(Result.FAILURE, j.waitForCompletion(b));
+        j.assertLogContains("succeeded on 0 of 2 targets (quorum 2), failed on web/us, still deploying web/eu", b);
+        // ready, submitted, abort
+        assertEquals(3, transport.count("mem://notice"));
+    }
+
+    @Test public void targetsAreTriggeredTogether() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?', "
+                + "targets: [[tplId: 'web', env: 'eu'], [tplId: 'web', env: 'us'], [tplId: 'web', env: 'ap']]", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        transport.withLatency(1000);
+        long start = System.nanoTime();
+        assertFalse(execution.proceed(DeployStepConcurrencyTest.deployParams()) instanceof DeployStepExecution.StatusResponse);
+        assertEquals("proceed does not wait for LEO", DeployState.SUBMITTED, execution.getState());
+        DeployStepConcurrencyTest.waitForState(execution, DeployState.DEPLOYING);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("three targets took " + millis + " ms", millis < 3000);
+        execution.doAbortProcceed(null);
+        j.waitForCompletion(b);
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DeployLifecycleListenerTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    @Test public void events() throws Exception {
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, new InMemoryCallbackTransport());
+        // no noticeCallback: listeners are told regardless
+        GlobalConfiguration.all().get(DeployGlobalConfiguration.class).setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        execution.proceed(DeployStepConcurrencyTest.deployParams());
+        execution.proceed(new HashMap<String, Object>());
+        j.assertBuildStatusSuccess(j.waitForCompletion(b));
+
+        Recorder recorder = j.jenkins.getExtensionList(DeployLifecycleListener.class).get(Recorder.class);
+        recorder.await(4);
+        assertEquals(Arrays.asList(DeployEvent.Type.READY, DeployEvent.Type.SUBMITTED, DeployEvent.Type.DEPLOYING, DeployEvent.Type.SUCCESS), recorder.types());
+        DeployEvent ready = recorder.events.get(0);
+        assertEquals("p", ready.getJobFullName());
+        assertEquals(1, ready.getRunNumber());
+        assertEquals("Deploy", ready.getInputId());
+        assertEquals("ready", ready.toJSON().getString("type"));
+
+        Slow slow = j.jenkins.getExtensionList(DeployLifecycleListener.class).get(Slow.class);
+        assertEquals("the slow listener is still stuck on the first event", 1, slow.entered.get());
+        slow.release.countDown();
+    }
+
+    @TestExtension("events")
+    public static class Recorder extends DeployLifecycleListener {
+        final List<DeployEvent> events = new ArrayList<DeployEvent>();
+
+        @Override public synchronized void onEvent(DeployEvent event) {
+            events.add(event);
+            notifyAll();
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (events.size() < count && System.currentTimeMillis() < end) {
+                wait(100);
+            }
+        }
+
+        synchronized List<DeployEvent.Type> types() {
+            List<DeployEvent.Type> types = new ArrayList<DeployEvent.Type>();
+            for (DeployEvent event : events) {
+                types.add(event.getType());
+            }
+            return types;
+        }
+    }
+
+    @TestExtension("events")
+    public static class Slow extends DeployLifecycleListener {
+        final AtomicInteger entered = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override public void onEvent(DeployEvent event) {
+            entered.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
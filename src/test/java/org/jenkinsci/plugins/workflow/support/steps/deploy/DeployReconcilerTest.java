@@ -0,0 +1,131 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class DeployReconcilerTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public RestartableJenkinsRule story = new RestartableJenkinsRule();
+
+    /** Outlives the restart, like the real LEO would. */
+    private static StubLeoServer leo;
+
+    @BeforeClass public static void startLeo() throws Exception {
+        leo = new StubLeoServer();
+    }
+
+    @AfterClass public static void stopLeo() {
+        leo.close();
+    }
+
+    /**
+     * Answers every status query with {@code status} for each step asked about.
+     */
+    private static void reportAll(final String status) {
+        leo.respond("status", new StubLeoServer.Responder() {
+            @Override public String respond(String path, String body) throws IOException {
+                JSONArray data = new JSONArray();
+                for (Object o : JSONObject.fromObject(body).getJSONArray("steps")) {
+                    JSONObject step = JSONObject.fromObject(o);
+                    step.put("status", status);
+                    data.add(step);
+                }
+                JSONObject response = JSONObject.fromObject(StubLeoServer.OK);
+                response.put("data", data);
+                return response.toString();
+            }
+        });
+    }
+
+    private void startDeploying(String name) throws Exception {
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        leo.configure(config);
+        config.setStatusCallback(leo.url("/status"));
+        config.save();
+        WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, name);
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        execution.proceed(DeployStepConcurrencyTest.deployParams());
+        while (!DeployStatusPoller.get().isPolled(execution)) {
+            // polled once LEO has accepted the deploy
+            Thread.sleep(100);
+        }
+        assertEquals(DeployState.DEPLOYING, execution.getState());
+    }
+
+    @Test public void finishedWhileDown() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                reportAll("success");
+                startDeploying("p");
+            }
+        });
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                WorkflowRun b = story.j.jenkins.getItemByFullName("p", WorkflowJob.class).getBuildByNumber(1);
+                story.j.assertBuildStatusSuccess(story.j.waitForCompletion(b));
+                story.j.assertLogContains("LEO reports the deploy succeeded", b);
+                assertTrue(leo.count("status") >= 1);
+            }
+        });
+    }
+
+    @Test public void failedWhileDown() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                reportAll("failed");
+                startDeploying("p");
+            }
+        });
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                WorkflowRun b = story.j.jenkins.getItemByFullName("p", WorkflowJob.class).getBuildByNumber(1);
+                story.j.assertBuildStatus(Result.ABORTED, story.j.waitForCompletion(b));
+                story.j.assertLogContains("LEO reports the deploy failed", b);
+            }
+        });
+    }
+
+    @Test public void stillDeploying() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                reportAll("deploying");
+                startDeploying("p");
+            }
+        });
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                WorkflowRun b = story.j.jenkins.getItemByFullName("p", WorkflowJob.class).getBuildByNumber(1);
+                while (leo.count("status") == 0) {
+                    Thread.sleep(100);
+                }
+                DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+                assertEquals(DeployState.DEPLOYING, execution.getState());
+                assertTrue(b.isBuilding());
+                execution.proceed(new HashMap<String, Object>());
+                story.j.assertBuildStatusSuccess(story.j.waitForCompletion(b));
+            }
+        });
+    }
+
+}
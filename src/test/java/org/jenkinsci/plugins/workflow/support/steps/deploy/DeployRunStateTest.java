@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import jenkins.model.GlobalConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.support.steps.input.ApproverAction;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class DeployRunStateTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    @Test public void parallelDeploysSettleIndependently() throws Exception {
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, new InMemoryCallbackTransport());
+        GlobalConfiguration.all().get(DeployGlobalConfiguration.class).setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("parallel a: {leoDeploy id: 'A', message: 'a?'}, b: {leoDeploy id: 'B', message: 'b?'}", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        CpsFlowExecution e = (CpsFlowExecution) b.getExecutionPromise().get();
+        while (b.getAction(DeployAction.class) == null || b.getAction(DeployAction.class).getExecutions().size() < 2) {
+            e.waitForSuspension();
+        }
+        DeployAction action = b.getAction(DeployAction.class);
+        DeployStepExecution a = action.getExecution("A");
+        DeployStepExecution other = action.getExecution("B");
+        a.proceed(DeployStepConcurrencyTest.deployParams());
+        other.proceed(DeployStepConcurrencyTest.deployParams());
+        assertEquals(2, b.getActions(DeployingAction.class).size());
+
+        a.proceed(new HashMap<String, Object>());
+        assertSame(action, b.getAction(DeployAction.class));
+        assertEquals(1, action.getExecutions().size());
+        assertEquals(1, b.getActions(DeployingAction.class).size());
+        assertEquals(other.getStepId(), b.getAction(DeployingAction.class).getMessage());
+
+        other.doAbortProcceed(null);
+        assertNull(b.getAction(DeployAction.class));
+        assertTrue(b.getActions(DeployingAction.class).isEmpty());
+        j.waitForCompletion(b);
+    }
+
+    @Test public void approvalTakesThePlaceOfTheDeployAction() throws Exception {
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, new InMemoryCallbackTransport());
+        GlobalConfiguration.all().get(DeployGlobalConfiguration.class).setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        execution.proceed(DeployStepConcurrencyTest.deployParams());
+        int index = b.getActions().indexOf(b.getAction(DeployAction.class));
+        int size = b.getActions().size();
+
+        execution.proceed(new HashMap<String, Object>());
+        assertNull(b.getAction(DeployAction.class));
+        assertTrue(b.getActions().get(index) instanceof ApproverAction);
+        assertEquals(size, b.getActions().size());
+        j.assertBuildStatusSuccess(j.waitForCompletion(b));
+    }
+
+    @Test public void legacyStateSurvivesSaveAfterUpgrade() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("echo 'done'", true));
+        WorkflowRun b = j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        // as saved by versions which kept the pending ids in build.xml
+        File xml = new File(b.getRootDir(), "build.xml");
+        String legacy = FileUtils.readFileToString(xml, "UTF-8").replaceFirst("<actions>",
+                "<actions><" + DeployAction.class.getName() + "><ids><string>A</string></ids></" + DeployAction.class.getName() + ">");
+        FileUtils.writeStringToFile(xml, legacy, "UTF-8");
+        j.jenkins.reload();
+
+        b = j.jenkins.getItemByFullName("p", WorkflowJob.class).getBuildByNumber(1);
+        assertEquals(Collections.singletonList("A"), DeployRunState.of(b).getPendingIds());
+        b.save();
+        assertFalse(FileUtils.readFileToString(xml, "UTF-8").contains("<ids>"));
+        j.jenkins.reload();
+
+        b = j.jenkins.getItemByFullName("p", WorkflowJob.class).getBuildByNumber(1);
+        assertEquals(Collections.singletonList("A"), DeployRunState.of(b).getPendingIds());
+    }
+
+}
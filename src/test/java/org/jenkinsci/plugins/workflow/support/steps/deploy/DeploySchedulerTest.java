@@ -0,0 +1,219 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.kohsuke.stapler.HttpResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DeploySchedulerTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private StubLeoServer leo;
+
+    @Before public void startLeo() throws Exception {
+        leo = new StubLeoServer();
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        leo.configure(config);
+        config.setSlotRules(Collections.singletonList(new DeploySlotRule("prod", false, 1)));
+    }
+
+    @After public void stopLeo() {
+        leo.close();
+    }
+
+    private WorkflowRun start(String name) throws Exception {
+        return start(name, "");
+    }
+
+    private WorkflowRun start(String name, String args) throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, name);
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'" + args, true));
+        return p.scheduleBuild2(0).waitForStart();
+    }
+
+    private static Map<String, Object> params(String projectId, String env) {
+        Map<String, Object> params = new HashMap<String, Object>(DeployStepConcurrencyTest.deployParams());
+        params.put("projectId", projectId);
+        params.put("env", env);
+        return params;
+    }
+
+    @Test public void oneProdDeployPerProject() throws Exception {
+        WorkflowRun b1 = start("first");
+        WorkflowRun b2 = start("second");
+        WorkflowRun b3 = start("third");
+        DeployStepExecution first = DeployStepConcurrencyTest.waitForDeploy(b1);
+        DeployStepExecution second = DeployStepConcurrencyTest.waitForDeploy(b2);
+        DeployStepExecution third = DeployStepConcurrencyTest.waitForDeploy(b3);
+
+        assertFalse(first.proceed(params("shop", "prod")) instanceof DeployStepExecution.StatusResponse);
+        HttpResponse queued = second.proceed(params("shop", "prod"));
+        assertEquals(DeployStepExecution.STATUS_QUEUED, ((DeployStepExecution.StatusResponse) queued).getRtnCode());
+        assertEquals(1, DeployScheduler.get().getPosition(second));
+        j.waitForMessage("position 1 in queue", b2);
+        assertFalse("other projects have their own slots", third.proceed(params("blog", "prod")) instanceof DeployStepExecution.StatusResponse);
+        DeployStepConcurrencyTest.waitForState(first, DeployState.DEPLOYING);
+        DeployStepConcurrencyTest.waitForState(third, DeployState.DEPLOYING);
+        assertEquals(2, leo.count("deploy"));
+
+        // settling the first deploy lets the second one in
+        first.proceed(new HashMap<String, Object>());
+        j.assertBuildStatusSuccess(j.waitForCompletion(b1));
+        while (second.getState() != DeployState.DEPLOYING) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, DeployScheduler.get().getPosition(second));
+        assertEquals(3, leo.count("deploy"));
+
+        second.doAbortProcceed(null);
+        third.doAbortProcceed(null);
+        j.waitForCompletion(b2);
+        j.waitForCompletion(b3);
+    }
+
+    @Test public void otherDeploysProgressUnderProductionLoad() throws Exception {
+        GlobalConfiguration.all().get(DeployGlobalConfiguration.class).setSlotRules(Collections.singletonList(new DeploySlotRule("*", false, 1)));
+        List<WorkflowRun> builds = new ArrayList<WorkflowRun>();
+        List<DeployStepExecution> prod = new ArrayList<DeployStepExecution>();
+        for (int i = 0; i < 9; i++) {
+            WorkflowRun b = start("prod" + i);
+            builds.add(b);
+            prod.add(DeployStepConcurrencyTest.waitForDeploy(b));
+        }
+        WorkflowRun tb = start("test");
+        builds.add(tb);
+        DeployStepExecution test = DeployStepConcurrencyTest.waitForDeploy(tb);
+
+        assertFalse(prod.get(0).proceed(params("shop", "prod")) instanceof DeployStepExecution.StatusResponse);
+        for (int i = 1; i <= 4; i++) {
+            prod.get(i).proceed(params("shop", "prod"));
+        }
+        test.proceed(params("shop", "test"));
+        // production keeps coming after the test deploy queued
+        for (int i = 5; i < 9; i++) {
+            prod.get(i).proceed(params("shop", "prod"));
+        }
+        assertEquals("production goes ahead more often, but not for as long as it keeps coming", 5, DeployScheduler.get().getPosition(test));
+
+        for (int i = 0; i <= 4; i++) {
+            DeployStepConcurrencyTest.waitForState(prod.get(i), DeployState.DEPLOYING);
+            prod.get(i).proceed(new HashMap<String, Object>());
+        }
+        DeployStepConcurrencyTest.waitForState(test, DeployState.DEPLOYING);
+        for (int i = 5; i < 9; i++) {
+            assertEquals("still queued", DeployState.SUBMITTED, prod.get(i).getState());
+        }
+
+        test.doAbortProcceed(null);
+        for (int i = 5; i < 9; i++) {
+            prod.get(i).doAbortProcceed(null);
+        }
+        for (WorkflowRun b : builds) {
+            j.waitForCompletion(b);
+        }
+    }
+
+    @Test public void everyTargetTakesASlot() throws Exception {
+        WorkflowRun b1 = start("single");
+        WorkflowRun b2 = start("fanned", ", targets: [[tplId: 'web', env: 'test'], [tplId: 'web', env: 'prod']]");
+        WorkflowRun b3 = start("behind");
+        DeployStepExecution single = DeployStepConcurrencyTest.waitForDeploy(b1);
+        DeployStepExecution fanned = DeployStepConcurrencyTest.waitForDeploy(b2);
+        DeployStepExecution behind = DeployStepConcurrencyTest.waitForDeploy(b3);
+
+        assertFalse(single.proceed(params("shop", "prod")) instanceof DeployStepExecution.StatusResponse);
+        HttpResponse queued = fanned.proceed(params("shop", "test"));
+        assertEquals("the prod target has no slot, though the first target has", DeployStepExecution.STATUS_QUEUED,
+                ((DeployStepExecution.StatusResponse) queued).getRtnCode());
+        DeployStepConcurrencyTest.waitForState(single, DeployState.DEPLOYING);
+        single.proceed(new HashMap<String, Object>());
+        j.assertBuildStatusSuccess(j.waitForCompletion(b1));
+        while (fanned.getState() != DeployState.DEPLOYING) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(DeployStepExecution.STATUS_QUEUED, ((DeployStepExecution.StatusResponse) behind.proceed(params("shop", "prod"))).getRtnCode());
+        Map<String, Object> report = new HashMap<String, Object>();
+        report.put("tplId", "web");
+        report.put("env", "prod");
+        report.put("status", "success");
+        assertFalse(fanned.proceed(report) instanceof DeployStepExecution.StatusResponse);
+        assertEquals("still waiting for the test target", DeployState.DEPLOYING, fanned.getState());
+        while (behind.getState() != DeployState.DEPLOYING) {
+            // the prod target gave its slot back as soon as LEO reported on it
+            Thread.sleep(100);
+        }
+        assertFalse("a repeated report is taken once", fanned.proceed(report) instanceof DeployStepExecution.StatusResponse);
+        assertEquals(1, StringUtils.countMatches(JenkinsRule.getLog(b2), "Deploy to web/prod succeeded."));
+
+        fanned.doAbortProcceed(null);
+        behind.doAbortProcceed(null);
+        j.waitForCompletion(b2);
+        j.waitForCompletion(b3);
+    }
+
+    @Test public void queuedTimeout() throws Exception {
+        GlobalConfiguration.all().get(DeployGlobalConfiguration.class).setQueuedTimeout(1);
+        WorkflowRun b1 = start("first");
+        WorkflowRun b2 = start("second");
+        DeployStepExecution first = DeployStepConcurrencyTest.waitForDeploy(b1);
+        DeployStepExecution second = DeployStepConcurrencyTest.waitForDeploy(b2);
+
+        assertFalse(first.proceed(params("shop", "prod")) instanceof DeployStepExecution.StatusResponse);
+        second.proceed(params("shop", "prod"));
+        DeployStepConcurrencyTest.waitForState(first, DeployState.DEPLOYING);
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(b2));
+        j.assertLogContains("Deploy was still queued when its time ran out", b2);
+        assertEquals(0, DeployScheduler.get().getPosition(second));
+        assertEquals(1, leo.count("deploy"));
+
+        first.doAbortProcceed(null);
+        j.waitForCompletion(b1);
+    }
+
+    @Test public void raisedLimitAppliesToRunningDeploys() throws Exception {
+        WorkflowRun b1 = start("first");
+        WorkflowRun b2 = start("second");
+        WorkflowRun b3 = start("third");
+        DeployStepExecution first = DeployStepConcurrencyTest.waitForDeploy(b1);
+        DeployStepExecution second = DeployStepConcurrencyTest.waitForDeploy(b2);
+        DeployStepExecution third = DeployStepConcurrencyTest.waitForDeploy(b3);
+
+        assertFalse(first.proceed(params("shop", "prod")) instanceof DeployStepExecution.StatusResponse);
+        assertEquals(DeployStepExecution.STATUS_QUEUED, ((DeployStepExecution.StatusResponse) second.proceed(params("shop", "prod"))).getRtnCode());
+        GlobalConfiguration.all().get(DeployGlobalConfiguration.class).setSlotRules(Collections.singletonList(new DeploySlotRule("prod", false, 2)));
+        while (second.getState() != DeployState.DEPLOYING) {
+            // the slot the first deploy took counts against the new limit
+            Thread.sleep(100);
+        }
+        assertEquals(DeployStepExecution.STATUS_QUEUED, ((DeployStepExecution.StatusResponse) third.proceed(params("shop", "prod"))).getRtnCode());
+
+        first.doAbortProcceed(null);
+        second.doAbortProcceed(null);
+        third.doAbortProcceed(null);
+        j.waitForCompletion(b1);
+        j.waitForCompletion(b2);
+        j.waitForCompletion(b3);
+    }
+
+}
@@ -0,0 +1,85 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class DeploySidecarTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public RestartableJenkinsRule story = new RestartableJenkinsRule();
+
+    private static JSONObject sidecar(WorkflowRun b) throws Exception {
+        return JSONObject.fromObject(FileUtils.readFileToString(new File(b.getRootDir(), DeploySidecar.FILE_NAME), "UTF-8"));
+    }
+
+    private static String buildXml(WorkflowRun b) throws Exception {
+        return FileUtils.readFileToString(new File(b.getRootDir(), "build.xml"), "UTF-8");
+    }
+
+    @Test public void survivesRestart() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                story.j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, new InMemoryCallbackTransport());
+                GlobalConfiguration.all().get(DeployGlobalConfiguration.class).setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "p");
+                p.setDefinition(new CpsFlowDefinition("parallel a: {leoDeploy id: 'A', message: 'a?'}, b: {leoDeploy id: 'B', message: 'b?'}", true));
+                WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+                CpsFlowExecution e = (CpsFlowExecution) b.getExecutionPromise().get();
+                while (b.getAction(DeployAction.class) == null || b.getAction(DeployAction.class).getExecutions().size() < 2) {
+                    e.waitForSuspension();
+                }
+                DeployStepExecution a = b.getAction(DeployAction.class).getExecution("A");
+                a.proceed(DeployStepConcurrencyTest.deployParams());
+                assertEquals(DeployState.DEPLOYING, a.getState());
+
+                JSONObject json = sidecar(b);
+                assertEquals(Arrays.asList("A", "B"), json.getJSONArray("pending"));
+                assertEquals(Arrays.asList(a.getStepId()), json.getJSONArray("deploying"));
+                b.save();
+                String xml = buildXml(b);
+                assertTrue(xml, xml.contains(DeploySidecar.FILE_NAME));
+                assertFalse(xml, xml.contains("DeployingAction"));
+                assertFalse(xml, xml.contains("<ids>"));
+            }
+        });
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                WorkflowRun b = story.j.jenkins.getItemByFullName("p", WorkflowJob.class).getBuildByNumber(1);
+                DeployAction action = b.getAction(DeployAction.class);
+                // waits for the lookup, which getExecutions does not
+                DeployStepExecution a = action.getExecution("A");
+                assertEquals(2, action.getExecutions().size());
+                assertEquals(DeployState.DEPLOYING, a.getState());
+                assertEquals(1, b.getActions(DeployingAction.class).size());
+                assertEquals(a.getStepId(), b.getAction(DeployingAction.class).getMessage());
+
+                a.proceed(new HashMap<String, Object>());
+                assertTrue(b.getActions(DeployingAction.class).isEmpty());
+                assertEquals(Arrays.asList("B"), sidecar(b).getJSONArray("pending"));
+
+                action.getExecution("B").doAbortProcceed(null);
+                story.j.assertBuildStatus(Result.ABORTED, story.j.waitForCompletion(b));
+                assertFalse(new File(b.getRootDir(), DeploySidecar.FILE_NAME).exists());
+            }
+        });
+    }
+
+}
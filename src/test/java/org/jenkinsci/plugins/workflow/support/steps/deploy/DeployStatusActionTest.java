@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.kohsuke.stapler.HttpResponse;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class DeployStatusActionTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private HttpURLConnection poll(String query, String etag) throws Exception {
+        HttpURLConnection c = (HttpURLConnection) new URL(j.getURL(), "leo-deploy-status/?" + query).openConnection();
+        if (etag != null) {
+            c.setRequestProperty("If-None-Match", etag);
+        }
+        return c;
+    }
+
+    @Test public void etags() throws Exception {
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, new InMemoryCallbackTransport());
+        GlobalConfiguration.all().get(DeployGlobalConfiguration.class).setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        String query = "job=p&run=1&input=Deploy";
+
+        HttpURLConnection c = poll(query, null);
+        assertEquals(200, c.getResponseCode());
+        assertEquals("READY", JSONObject.fromObject(IOUtils.toString(c.getInputStream())).getString("state"));
+        String ready = c.getHeaderField("ETag");
+        assertNotNull(ready);
+        assertEquals(304, poll(query, ready).getResponseCode());
+
+        execution.proceed(DeployStepConcurrencyTest.deployParams());
+        c = poll(query, ready);
+        assertEquals(200, c.getResponseCode());
+        assertEquals("DEPLOYING", JSONObject.fromObject(IOUtils.toString(c.getInputStream())).getString("state"));
+        String deploying = c.getHeaderField("ETag");
+        assertNotEquals(ready, deploying);
+
+        execution.proceed(new HashMap<String, Object>());
+        j.assertBuildStatusSuccess(j.waitForCompletion(b));
+        c = poll(query, deploying);
+        assertEquals(200, c.getResponseCode());
+        assertEquals("SUCCEEDED", JSONObject.fromObject(IOUtils.toString(c.getInputStream())).getString("state"));
+
+        assertEquals(404, poll("job=p&run=1&input=Other", null).getResponseCode());
+        assertEquals(404, poll("job=nonexistent&run=1&input=Deploy", null).getResponseCode());
+    }
+
+    @Test public void proceedRacingDeploy() throws Exception {
+        InMemoryCallbackTransport transport = new InMemoryCallbackTransport();
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+        GlobalConfiguration.all().get(DeployGlobalConfiguration.class).setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 20; round++) {
+                WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+                final DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+                // LEO proceeds while its answer to the deploy call is still on the way
+                transport.withLatency(round % 5);
+                Future<HttpResponse> deploy = pool.submit(new Callable<HttpResponse>() {
+                    @Override public HttpResponse call() {
+                        return execution.proceed(DeployStepConcurrencyTest.deployParams());
+                    }
+                });
+                while (execution.getState() == DeployState.READY && !deploy.isDone()) {
+                    Thread.yield();
+                }
+                Future<HttpResponse> proceed = pool.submit(new Callable<HttpResponse>() {
+                    @Override public HttpResponse call() {
+                        return execution.proceed(new HashMap<String, Object>());
+                    }
+                });
+                deploy.get();
+                proceed.get();
+                j.waitForCompletion(b);
+                DeployStatusRegistry.Snapshot snapshot = DeployStatusRegistry.get().lookup(p, b.getNumber(), "Deploy");
+                assertNotNull(snapshot);
+                assertEquals("round " + round, execution.getState(), snapshot.getState());
+                assertTrue("round " + round, snapshot.getState().isSettled());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
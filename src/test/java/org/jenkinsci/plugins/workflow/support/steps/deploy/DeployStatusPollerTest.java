@@ -0,0 +1,140 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DeployStatusPollerTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private StubLeoServer leo;
+
+    @Before public void setUp() throws Exception {
+        leo = new StubLeoServer();
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        leo.configure(config);
+        config.setStatusCallback(leo.url("/status"));
+        config.setStatusPolling(true);
+        config.setPollInterval(1);
+        config.setMaxPollInterval(1);
+    }
+
+    @After public void tearDown() {
+        leo.close();
+    }
+
+    /**
+     * Reports every step as deploying for the first {@code deployingPolls} queries, then as {@code status}.
+     */
+    private void report(final int deployingPolls, final String status) {
+        final AtomicInteger polls = new AtomicInteger();
+        leo.respond("status", new StubLeoServer.Responder() {
+            @Override public String respond(String path, String body) throws IOException {
+                String current = polls.incrementAndGet() <= deployingPolls ? "deploying" : status;
+                JSONArray data = new JSONArray();
+                for (Object o : JSONObject.fromObject(body).getJSONArray("steps")) {
+                    JSONObject step = JSONObject.fromObject(o);
+                    step.put("status", current);
+                    data.add(step);
+                }
+                JSONObject response = JSONObject.fromObject(StubLeoServer.OK);
+                response.put("data", data);
+                return response.toString();
+            }
+        });
+    }
+
+    private WorkflowRun deploy() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p" + j.jenkins.getItems().size());
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        execution.proceed(DeployStepConcurrencyTest.deployParams());
+        while (!DeployStatusPoller.get().isPolled(execution)) {
+            // polled once LEO has accepted the deploy
+            Thread.sleep(100);
+        }
+        assertEquals(DeployState.DEPLOYING, execution.getState());
+        return b;
+    }
+
+    @Test public void succeeded() throws Exception {
+        report(2, "success");
+        WorkflowRun b = deploy();
+        j.assertBuildStatusSuccess(j.waitForCompletion(b));
+        j.assertLogContains("LEO reports the deploy succeeded", b);
+        assertEquals(3, leo.count("status"));
+    }
+
+    @Test public void failed() throws Exception {
+        report(0, "failed");
+        WorkflowRun b = deploy();
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(b));
+        j.assertLogContains("LEO reports the deploy failed", b);
+    }
+
+    @Test public void batched() throws Exception {
+        report(1, "success");
+        WorkflowRun b1 = deploy();
+        WorkflowRun b2 = deploy();
+        j.assertBuildStatusSuccess(j.waitForCompletion(b1));
+        j.assertBuildStatusSuccess(j.waitForCompletion(b2));
+        assertTrue("both steps are polled together once due together", leo.count("status") <= 3);
+    }
+
+    @Test public void expiredDeploysAreQueriedTogether() throws Exception {
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        // no poll comes in between
+        config.setPollInterval(3600);
+        config.setMaxPollInterval(3600);
+        config.setDeployingTimeout(0);
+        report(0, "success");
+        WorkflowRun b1 = deploy();
+        WorkflowRun b2 = deploy();
+        long far = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        DeployWatchdog.Deadline d1 = DeployWatchdog.get().arm(DeployStepConcurrencyTest.waitForDeploy(b1), DeployWatchdog.Phase.DEPLOYING, far);
+        DeployWatchdog.Deadline d2 = DeployWatchdog.get().arm(DeployStepConcurrencyTest.waitForDeploy(b2), DeployWatchdog.Phase.DEPLOYING, far);
+        try {
+            DeployWatchdog.get().expire(Arrays.asList(d1, d2));
+        } finally {
+            d1.cancel();
+            d2.cancel();
+        }
+        j.assertBuildStatusSuccess(j.waitForCompletion(b1));
+        j.assertBuildStatusSuccess(j.waitForCompletion(b2));
+        assertEquals("one query for both steps", 1, leo.count("status"));
+    }
+
+    @Test public void backoff() {
+        long max = TimeUnit.SECONDS.toNanos(60);
+        DeployStatusPoller.Backoff backoff = new DeployStatusPoller.Backoff(TimeUnit.SECONDS.toNanos(10), 0);
+        assertEquals(TimeUnit.SECONDS.toNanos(10), backoff.next);
+        backoff.grow(max, 0);
+        assertEquals(TimeUnit.SECONDS.toNanos(20), backoff.interval);
+        assertTrue(backoff.next >= TimeUnit.SECONDS.toNanos(18) && backoff.next <= TimeUnit.SECONDS.toNanos(22));
+        backoff.grow(max, 0);
+        backoff.grow(max, 0);
+        assertEquals(max, backoff.interval);
+    }
+
+}
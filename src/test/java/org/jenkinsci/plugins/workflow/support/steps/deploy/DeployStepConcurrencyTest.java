@@ -0,0 +1,171 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.kohsuke.stapler.HttpResponse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class DeployStepConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 10;
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private StubLeoServer leo;
+
+    @Before public void startLeo() throws Exception {
+        leo = new StubLeoServer();
+        leo.configure(GlobalConfiguration.all().get(DeployGlobalConfiguration.class));
+    }
+
+    @After public void stopLeo() {
+        leo.close();
+    }
+
+    static Map<String, Object> deployParams() {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("deploy", "true");
+        params.put("tenantId", "t1");
+        params.put("projectId", "p1");
+        params.put("appId", "a1");
+        params.put("tplId", "tpl1");
+        params.put("env", "prod");
+        params.put("userId", "u1");
+        params.put("userName", "alice");
+        params.put("nodeId", "n1");
+        return params;
+    }
+
+    static DeployStepExecution waitForDeploy(WorkflowRun b) throws Exception {
+        CpsFlowExecution e = (CpsFlowExecution) b.getExecutionPromise().get();
+        while (b.getAction(DeployAction.class) == null || b.getAction(DeployAction.class).getExecutions().isEmpty()) {
+            e.waitForSuspension();
+        }
+        return (DeployStepExecution) b.getAction(DeployAction.class).getExecutions().get(0);
+    }
+
+    /**
+     * Waits for a step to reach {@code state}, e.g. for LEO's answer to a deploy which {@code proceed} does not wait for.
+     */
+    static void waitForState(DeployStepExecution execution, DeployState state) throws InterruptedException {
+        for (int i = 0; i < 300 && execution.getState() != state; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(state, execution.getState());
+    }
+
+    @Test public void deployIsTriggeredExactlyOnce() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("def x = leoDeploy id: 'Deploy', message: 'go?'; echo \"after: ${x}\"", true));
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 1; round <= ROUNDS; round++) {
+                WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+                final DeployStepExecution execution = waitForDeploy(b);
+                final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+                List<Future<HttpResponse>> responses = new ArrayList<Future<HttpResponse>>();
+                for (int i = 0; i < THREADS; i++) {
+                    responses.add(pool.submit(new Callable<HttpResponse>() {
+                        @Override public HttpResponse call() throws Exception {
+                            barrier.await();
+                            return execution.proceed(deployParams());
+                        }
+                    }));
+                }
+                int winners = 0;
+                for (Future<HttpResponse> response : responses) {
+                    HttpResponse r = response.get();
+                    if (r instanceof DeployStepExecution.StatusResponse) {
+                        assertEquals(DeployStepExecution.STATUS_DEPLOYING, ((DeployStepExecution.StatusResponse) r).getRtnCode());
+                    } else {
+                        winners++;
+                    }
+                }
+                assertEquals(1, winners);
+                waitForState(execution, DeployState.DEPLOYING);
+                assertEquals(round, leo.count("deploy"));
+
+                // LEO reports back; a late second report is refused
+                assertFalse(execution.proceed(new HashMap<String, Object>()) instanceof DeployStepExecution.StatusResponse);
+                HttpResponse again = execution.proceed(new HashMap<String, Object>());
+                assertEquals(DeployStepExecution.STATUS_ABORTED, ((DeployStepExecution.StatusResponse) again).getRtnCode());
+                j.assertBuildStatus(Result.SUCCESS, j.waitForCompletion(b));
+                j.assertLogContains("env=prod", b);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        // notices are not waited for
+        for (int i = 0; i < 100 && submitted() < ROUNDS; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(ROUNDS, submitted());
+    }
+
+    private int submitted() {
+        int submitted = 0;
+        for (String body : leo.requests("notice")) {
+            if ("submitted".equals(JSONObject.fromObject(body).getString("type"))) {
+                submitted++;
+            }
+        }
+        return submitted;
+    }
+
+    @Test public void proceedAndAbortRace() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+            final DeployStepExecution execution = waitForDeploy(b);
+            execution.proceed(deployParams());
+            waitForState(execution, DeployState.DEPLOYING);
+            final CyclicBarrier barrier = new CyclicBarrier(2);
+            Future<HttpResponse> proceed = pool.submit(new Callable<HttpResponse>() {
+                @Override public HttpResponse call() throws Exception {
+                    barrier.await();
+                    return execution.proceed(new HashMap<String, Object>());
+                }
+            });
+            Future<HttpResponse> abort = pool.submit(new Callable<HttpResponse>() {
+                @Override public HttpResponse call() throws Exception {
+                    barrier.await();
+                    return execution.doAbortProcceed(null);
+                }
+            });
+            boolean proceeded = !(proceed.get() instanceof DeployStepExecution.StatusResponse);
+            boolean aborted = !(abort.get() instanceof DeployStepExecution.StatusResponse);
+            assertTrue("exactly one of proceed and abort must win", proceeded ^ aborted);
+            j.assertBuildStatus(proceeded ? Result.SUCCESS : Result.ABORTED, j.waitForCompletion(b));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import jenkins.model.GlobalConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DeployTraceTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    @Test public void lifecycle() throws Exception {
+        InMemoryCallbackTransport transport = new InMemoryCallbackTransport();
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+        InMemorySpanExporter spans = new InMemorySpanExporter();
+        j.jenkins.getExtensionList(DeploySpanExporter.class).add(spans);
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        config.setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        config.setNoticeCallback("mem://notice");
+
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        execution.proceed(DeployStepConcurrencyTest.deployParams());
+        execution.proceed(new HashMap<String, Object>());
+        j.assertBuildStatusSuccess(j.waitForCompletion(b));
+
+        DeploySpan root = spans.named("leoDeploy").get(0);
+        assertNull(root.getParentSpanId());
+        assertEquals("SUCCEEDED", root.getAttributes().get("state"));
+        Set<String> spanIds = new HashSet<String>();
+        for (String name : new String[] {"start", "notice ready", "submit", "notice submitted", "deploy trigger", "proceed", "notice success"}) {
+            assertEquals(name, 1, spans.named(name).size());
+            DeploySpan span = spans.named(name).get(0);
+            assertEquals(root.getTraceId(), span.getTraceId());
+            assertEquals(root.getSpanId(), span.getParentSpanId());
+            assertTrue(span.getEndMillis() >= span.getStartMillis());
+            spanIds.add(span.getSpanId());
+        }
+        assertTrue(root.getStartMillis() <= spans.named("start").get(0).getStartMillis());
+
+        assertEquals(4, transport.getRequests().size());
+        for (DeployCallbackRequest request : transport.getRequests()) {
+            String[] traceparent = request.getHeaders().get("traceparent").split("-");
+            assertEquals("00", traceparent[0]);
+            assertEquals(root.getTraceId(), traceparent[1]);
+            assertTrue(spanIds.contains(traceparent[2]));
+        }
+    }
+
+    @Test public void statusQueries() throws Exception {
+        InMemoryCallbackTransport transport = new InMemoryCallbackTransport();
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+        InMemorySpanExporter spans = new InMemorySpanExporter();
+        j.jenkins.getExtensionList(DeploySpanExporter.class).add(spans);
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        config.setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        config.setStatusCallback("mem://status");
+
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        DeployStatusClient.query(Collections.singletonList(execution));
+
+        DeploySpan span = spans.named("status query").get(0);
+        assertEquals(execution.span("any").getTraceId(), span.getTraceId());
+        assertEquals("mem://status", span.getAttributes().get("url"));
+        DeployCallbackRequest query = null;
+        for (DeployCallbackRequest request : transport.getRequests()) {
+            if (request.getUrl().equals("mem://status")) {
+                query = request;
+            }
+        }
+        assertNotNull(query);
+        assertEquals(DeployTrace.traceparent(span), query.getHeaders().get("traceparent"));
+
+        execution.doAbortProcceed(null);
+        j.waitForCompletion(b);
+    }
+
+    @Test public void fileExporterWritesInTheBackground() throws Exception {
+        boolean enabled = FileSpanExporter.ENABLED;
+        FileSpanExporter.ENABLED = true;
+        FileSpanExporter exporter = new FileSpanExporter();
+        DeploySpan span = DeployTrace.start().child("written");
+        try {
+            span.end();
+            exporter.export(span);
+            exporter.close();
+        } finally {
+            FileSpanExporter.ENABLED = enabled;
+        }
+        File file = new File(j.jenkins.getRootDir(), FileSpanExporter.FILE_NAME);
+        assertTrue("whatever is queued is written at shutdown", FileUtils.readFileToString(file, "UTF-8").contains(span.getSpanId()));
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+import java.util.Collections;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class DeployWatchdogTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public RestartableJenkinsRule story = new RestartableJenkinsRule();
+
+    @Test public void pendingTimeout() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+                config.setPendingTimeout(1);
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "p");
+                p.setDefinition(new CpsFlowDefinition("leoDeploy 'paused'", true));
+                WorkflowRun b = story.j.assertBuildStatus(Result.ABORTED, p.scheduleBuild2(0).get());
+                story.j.assertLogContains("Deploy was not submitted in time", b);
+                assertNull(b.getAction(DeployAction.class));
+            }
+        });
+    }
+
+    @Test public void pendingTimeoutAfterRestart() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+                config.setPendingTimeout(5);
+                config.save();
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "p");
+                p.setDefinition(new CpsFlowDefinition("leoDeploy 'paused'", true));
+                WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+                story.j.waitForMessage("paused", b);
+            }
+        });
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                WorkflowRun b = story.j.jenkins.getItemByFullName("p", WorkflowJob.class).getBuildByNumber(1);
+                assertNotNull(b);
+                story.j.assertBuildStatus(Result.ABORTED, story.j.waitForCompletion(b));
+                story.j.assertLogContains("Deploy was not submitted in time", b);
+            }
+        });
+    }
+
+    @Test public void queuedAfterRestart() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                story.j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, new InMemoryCallbackTransport());
+                DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+                config.setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+                config.setSlotRules(Collections.singletonList(new DeploySlotRule("prod", false, 1)));
+                config.save();
+                DeployStepExecution first = start("first");
+                DeployStepExecution second = start("second");
+                assertFalse(first.proceed(DeployStepConcurrencyTest.deployParams()) instanceof DeployStepExecution.StatusResponse);
+                assertEquals(DeployStepExecution.STATUS_QUEUED,
+                        ((DeployStepExecution.StatusResponse) second.proceed(DeployStepConcurrencyTest.deployParams())).getRtnCode());
+            }
+        });
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                InMemoryCallbackTransport transport = new InMemoryCallbackTransport();
+                story.j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+                DeployStepExecution first = DeployStepConcurrencyTest.waitForDeploy(build("first"));
+                DeployStepExecution second = DeployStepConcurrencyTest.waitForDeploy(build("second"));
+                while (DeployScheduler.get().getPosition(second) == 0) {
+                    // back in the queue, behind the deploy which still holds the slot
+                    Thread.sleep(100);
+                }
+                assertEquals(DeployState.SUBMITTED, second.getState());
+                first.proceed(new HashMap<String, Object>());
+                story.j.assertBuildStatusSuccess(story.j.waitForCompletion(build("first")));
+                while (second.getState() != DeployState.DEPLOYING) {
+                    Thread.sleep(100);
+                }
+                assertEquals(1, transport.count("mem://deploy/"));
+                second.doAbortProcceed(null);
+                story.j.waitForCompletion(build("second"));
+            }
+        });
+    }
+
+    private DeployStepExecution start(String name) throws Exception {
+        WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, name);
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        return DeployStepConcurrencyTest.waitForDeploy(p.scheduleBuild2(0).waitForStart());
+    }
+
+    private WorkflowRun build(String name) {
+        WorkflowRun b = story.j.jenkins.getItemByFullName(name, WorkflowJob.class).getBuildByNumber(1);
+        assertNotNull(b);
+        return b;
+    }
+
+}
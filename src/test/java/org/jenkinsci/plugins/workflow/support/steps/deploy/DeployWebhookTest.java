@@ -0,0 +1,141 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import hudson.util.Secret;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class DeployWebhookTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private InMemoryCallbackTransport transport;
+
+    @Before public void setUp() {
+        transport = new InMemoryCallbackTransport();
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        config.setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        config.setNoticeCallback("mem://notice");
+    }
+
+    private int post(String path, String token, JSONObject body) throws Exception {
+        HttpURLConnection c = (HttpURLConnection) new URL(j.getURL(), DeployWebhookAction.URL_NAME + '/' + path).openConnection();
+        c.setRequestMethod("POST");
+        c.setDoOutput(true);
+        c.setRequestProperty("Content-Type", "application/json");
+        if (token != null) {
+            c.setRequestProperty("Authorization", "Bearer " + token);
+        }
+        OutputStream os = c.getOutputStream();
+        try {
+            os.write(body.toString().getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+        return c.getResponseCode();
+    }
+
+    private DeployCallbackRequest readyNotice() {
+        for (DeployCallbackRequest request : transport.getRequests()) {
+            if (request.getUrl().equals("mem://notice") && request.getBody().getString("type").equals("ready")) {
+                return request;
+            }
+        }
+        throw new AssertionError("no ready notice sent");
+    }
+
+    private WorkflowRun start() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p" + j.jenkins.getItems().size());
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepConcurrencyTest.waitForDeploy(b);
+        return b;
+    }
+
+    @Test public void replayedReadyNoticeGetsAFreshToken() throws Exception {
+        WorkflowRun b = start();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        DeployCallbackRequest ready = readyNotice();
+        String id = ready.getBody().getString("webhookId");
+        String lost = ready.getHeaders().get(DeployWebhookAction.TOKEN_HEADER);
+        PendingNotices.defer(Collections.singletonList(ready));
+        assertNull("the token is not written to disk", PendingNotices.take().get(0).getHeaders().get(DeployWebhookAction.TOKEN_HEADER));
+
+        int sent = transport.count("mem://notice");
+        PendingNotices.defer(Collections.singletonList(ready));
+        PendingNotices.replay();
+        while (transport.count("mem://notice") == sent) {
+            Thread.sleep(100);
+        }
+        DeployCallbackRequest replayed = transport.getRequests().get(transport.getRequests().size() - 1);
+        assertEquals(id, replayed.getBody().getString("webhookId"));
+        String token = replayed.getHeaders().get(DeployWebhookAction.TOKEN_HEADER);
+        assertNotNull(token);
+        assertNotEquals(lost, token);
+        assertEquals(403, post(id + "/abort", lost, new JSONObject()));
+        assertEquals(200, post(id + "/abort", token, new JSONObject()));
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(b));
+    }
+
+    @Test public void stepToken() throws Exception {
+        WorkflowRun b = start();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        DeployCallbackRequest ready = readyNotice();
+        String id = ready.getBody().getString("webhookId");
+        String token = ready.getHeaders().get(DeployWebhookAction.TOKEN_HEADER);
+        assertNotNull(token);
+        assertFalse("the token is kept out of the body, which gets logged", ready.toString().contains(token));
+        assertTrue(ready.getBody().getString("webhook").endsWith("/leo-webhook/" + id + "/"));
+
+        JSONObject deploy = JSONObject.fromObject(DeployStepConcurrencyTest.deployParams());
+        assertEquals(403, post(id + "/proceed", null, deploy));
+        assertEquals(403, post(id + "/proceed", "wrong", deploy));
+        assertEquals(404, post("unknown/proceed", token, deploy));
+        assertEquals(DeployState.READY, execution.getState());
+
+        assertEquals(200, post(id + "/proceed", token, deploy));
+        assertEquals(DeployState.DEPLOYING, execution.getState());
+        assertEquals(200, post(id + "/proceed", token, new JSONObject()));
+        j.assertBuildStatusSuccess(j.waitForCompletion(b));
+        assertEquals("settled steps leave the index", 404, post(id + "/proceed", token, new JSONObject()));
+    }
+
+    @Test public void tenantToken() throws Exception {
+        GlobalConfiguration.all().get(DeployGlobalConfiguration.class).setWebhookTokens(Secret.fromString("t1=s3cret\nt2=other"));
+        WorkflowRun b = start();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        DeployCallbackRequest ready = readyNotice();
+        String id = ready.getBody().getString("webhookId");
+        JSONObject abort = new JSONObject();
+        abort.put("tenantId", "t1");
+        assertEquals("no tenant token before the step is bound to a tenant", 403, post(id + "/abort", "s3cret", abort));
+
+        // deployParams() submits for tenant t1
+        assertEquals(200, post(id + "/proceed", ready.getHeaders().get(DeployWebhookAction.TOKEN_HEADER), JSONObject.fromObject(DeployStepConcurrencyTest.deployParams())));
+        assertEquals("t1", execution.getTenantId());
+        abort.put("tenantId", "t2");
+        assertEquals("a token of another tenant, whatever the request claims", 403, post(id + "/abort", "other", abort));
+        assertEquals(DeployState.DEPLOYING, execution.getState());
+        assertEquals(200, post(id + "/abort", "s3cret", abort));
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(b));
+    }
+
+}
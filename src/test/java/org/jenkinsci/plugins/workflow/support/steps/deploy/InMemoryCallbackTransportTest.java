@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import hudson.model.Result;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class InMemoryCallbackTransportTest {
+
+    @ClassRule public static BuildWatcher buildWatcher = new BuildWatcher();
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private InMemoryCallbackTransport transport;
+    private int timeout;
+
+    @Before public void setUp() {
+        transport = new InMemoryCallbackTransport();
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+        assertSame(transport, DeployCallbackTransport.get());
+        DeployGlobalConfiguration config = GlobalConfiguration.all().get(DeployGlobalConfiguration.class);
+        config.setDeployCallback("mem://deploy/{0}/{1}/{2}/{3}/{4}");
+        config.setNoticeCallback("mem://notice");
+        timeout = DeployCallbackTransport.TIMEOUT;
+    }
+
+    @After public void tearDown() {
+        DeployCallbackTransport.TIMEOUT = timeout;
+    }
+
+    private WorkflowRun deploy() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p" + j.jenkins.getItems().size());
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        DeployStepConcurrencyTest.waitForDeploy(b).proceed(DeployStepConcurrencyTest.deployParams());
+        return b;
+    }
+
+    @Test public void lifecycle() throws Exception {
+        WorkflowRun b = deploy();
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(b);
+        assertEquals(DeployState.DEPLOYING, execution.getState());
+        assertEquals(1, transport.count("mem://deploy/t1/p1/a1/tpl1/prod"));
+        execution.proceed(new HashMap<String, Object>());
+        j.assertBuildStatusSuccess(j.waitForCompletion(b));
+        // ready, submitted, success
+        assertEquals(3, transport.count("mem://notice"));
+    }
+
+    @Test public void malformedAnswerAborts() throws Exception {
+        transport.withMalformedRate(1);
+        WorkflowRun b = deploy();
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(b));
+        j.assertLogContains("Deploy error.", b);
+    }
+
+    @Test public void droppedRequestAborts() throws Exception {
+        DeployCallbackTransport.TIMEOUT = 1;
+        transport.withDropRate(1);
+        WorkflowRun b = deploy();
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(b));
+        j.assertLogContains("TimeoutException", b);
+    }
+
+    @Test public void slowLeo() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("leoDeploy id: 'Deploy', message: 'go?'", true));
+        DeployStepExecution execution = DeployStepConcurrencyTest.waitForDeploy(p.scheduleBuild2(0).waitForStart());
+        transport.withLatency(2000);
+        long start = System.nanoTime();
+        execution.proceed(DeployStepConcurrencyTest.deployParams());
+        assertTrue("proceed does not wait for LEO", System.nanoTime() - start < 2000000000L);
+        assertEquals(DeployState.SUBMITTED, execution.getState());
+        DeployStepConcurrencyTest.waitForState(execution, DeployState.DEPLOYING);
+    }
+
+}
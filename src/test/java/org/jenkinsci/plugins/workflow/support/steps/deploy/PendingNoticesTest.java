@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import net.sf.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PendingNoticesTest {
+
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    @Test public void deferAndReplay() throws Exception {
+        JSONObject body = new JSONObject();
+        body.put("type", "abort");
+        body.put("runId", 1);
+        DeployCallbackRequest notice = new DeployCallbackRequest("mem://notice", body, Collections.singletonMap("LEO-USER", "{\"userId\":\"u1\"}"), true);
+        DeployCallbackRequest trigger = new DeployCallbackRequest("mem://deploy/t1/p1/a1/tpl1/prod", new JSONObject(), Collections.<String, String>emptyMap());
+        PendingNotices.defer(Arrays.asList(notice, trigger));
+        File file = new File(j.jenkins.getRootDir(), PendingNotices.FILE_NAME);
+        assertTrue(file.isFile());
+
+        List<DeployCallbackRequest> taken = PendingNotices.take();
+        assertEquals("only notices are replayed", 1, taken.size());
+        assertEquals("mem://notice", taken.get(0).getUrl());
+        assertEquals(body, taken.get(0).getBody());
+        assertEquals(notice.getHeaders(), taken.get(0).getHeaders());
+        assertFalse(file.exists());
+
+        InMemoryCallbackTransport transport = new InMemoryCallbackTransport();
+        j.jenkins.getExtensionList(DeployCallbackTransport.class).add(0, transport);
+        PendingNotices.defer(Collections.singletonList(notice));
+        PendingNotices.replay();
+        while (transport.count("mem://notice") == 0) {
+            Thread.sleep(100);
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test public void queuedAbortNoticesAreKeptAtShutdown() throws Exception {
+        JSONObject body = new JSONObject();
+        body.put("type", "abort");
+        body.put("runId", 2);
+        DeployAborts.get().notice("mem://notice", body, Collections.singletonMap("LEO-USER", "{}"), DeployTrace.start().child("notice abort"), "drain#1", new DeployEventDedup.Event());
+        DeployAborts.get().drain();
+        List<DeployCallbackRequest> taken = PendingNotices.take();
+        assertEquals(1, taken.size());
+        assertEquals("mem://notice", taken.get(0).getUrl());
+        assertEquals(body, taken.get(0).getBody());
+    }
+
+    @Test public void postsAfterShutdownAreDeferred() throws Exception {
+        ConnectionManager.terminate();
+        try {
+            JSONObject body = new JSONObject();
+            body.put("type", "success");
+            DeployCallbackRequest late = new DeployCallbackRequest("http://localhost:1/notice", body, Collections.<String, String>emptyMap(), true);
+            DeployCallbackResult result = new HttpCallbackTransport(CallbackExecutor.get()).execute(late);
+            assertNotNull("not sent through a new pool", result.getFailure());
+            List<DeployCallbackRequest> taken = PendingNotices.take();
+            assertEquals(1, taken.size());
+            assertEquals(late.getUrl(), taken.get(0).getUrl());
+            assertEquals(body, taken.get(0).getBody());
+        } finally {
+            ConnectionManager.reopen();
+        }
+    }
+
+}
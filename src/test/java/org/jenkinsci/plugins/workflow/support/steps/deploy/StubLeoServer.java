@@ -0,0 +1,149 @@
+package org.jenkinsci.plugins.workflow.support.steps.deploy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In-JVM stand-in for the LEO endpoints the plugin calls back.
+ *
+ * Requests are grouped by the first path segment ({@code /deploy/...} counts as {@code deploy}) and answered with a
+ * successful {@code rtnCode} unless a {@link Responder} was registered for that segment.
+ * Latency and an error rate can be injected to approximate a loaded LEO.
+ */
+final class StubLeoServer implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final String OK = "{\"rtnCode\":\"000000\",\"rtnMsg\":\"ok\"}";
+
+    static final String ERROR = "{\"rtnCode\":\"999999\",\"rtnMsg\":\"stub error\"}";
+
+    interface Responder {
+        /**
+         * @return the response body; the status is always 200
+         */
+        String respond(String path, String body) throws IOException;
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ConcurrentMap<String, List<String>> requests = new ConcurrentHashMap<String, List<String>>();
+    private final ConcurrentMap<String, Responder> responders = new ConcurrentHashMap<String, Responder>();
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+
+    StubLeoServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    String path = exchange.getRequestURI().getPath();
+                    String body = IOUtils.toString(exchange.getRequestBody(), "UTF-8");
+                    String segment = segment(path);
+                    List<String> bodies = requests.get(segment);
+                    if (bodies == null) {
+                        requests.putIfAbsent(segment, new CopyOnWriteArrayList<String>());
+                        bodies = requests.get(segment);
+                    }
+                    bodies.add(body);
+                    if (latencyMillis > 0) {
+                        try {
+                            Thread.sleep(latencyMillis);
+                        } catch (InterruptedException x) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    Responder responder = responders.get(segment);
+                    String answer;
+                    if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                        answer = ERROR;
+                    } else {
+                        answer = responder == null ? OK : responder.respond(path, body);
+                    }
+                    byte[] response = answer.getBytes(UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+                    exchange.sendResponseHeaders(200, response.length);
+                    OutputStream os = exchange.getResponseBody();
+                    os.write(response);
+                    os.close();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    private static String segment(String path) {
+        String trimmed = path.startsWith("/") ? path.substring(1) : path;
+        int slash = trimmed.indexOf('/');
+        return slash < 0 ? trimmed : trimmed.substring(0, slash);
+    }
+
+    /**
+     * Absolute URL of {@code path} on this server.
+     */
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Delays every response by the given time.
+     */
+    void setLatency(long millis) {
+        this.latencyMillis = millis;
+    }
+
+    /**
+     * Answers this fraction of requests with a failed {@code rtnCode}.
+     */
+    void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    void respond(String segment, Responder responder) {
+        responders.put(segment, responder);
+    }
+
+    /**
+     * Bodies received so far for the given first path segment.
+     */
+    List<String> requests(String segment) {
+        List<String> bodies = requests.get(segment);
+        return bodies == null ? new CopyOnWriteArrayList<String>() : bodies;
+    }
+
+    int count(String segment) {
+        return requests(segment).size();
+    }
+
+    /**
+     * Points {@link DeployGlobalConfiguration} at this server.
+     */
+    void configure(DeployGlobalConfiguration config) {
+        config.setDeployCallback(url("/deploy/{0}/{1}/{2}/{3}/{4}"));
+        config.setNoticeCallback(url("/notice"));
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}